@@ -66,6 +66,7 @@ public enum CSB_PropertyType {
         
         // AND VERIFICATION MESSAGES
         NEW_COURSE_CREATED_MESSAGE,
+        COURSE_RECOVERED_MESSAGE,
         COURSE_LOADED_MESSAGE,
         COURSE_SAVED_MESSAGE,
         SITE_EXPORTED_MESSAGE,
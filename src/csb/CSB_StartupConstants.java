@@ -24,6 +24,8 @@ public class CSB_StartupConstants
     // THESE ARE THE DATA FILES WE WILL LOAD AT STARTUP
     public static final String JSON_FILE_PATH_SUBJECTS = PATH_DATA + "subjects.json";
     public static final String JSON_FILE_PATH_LAST_INSTRUCTOR = PATH_DATA + "last_instructor.json";
+    public static final String JSON_FILE_PATH_CATALOG = PATH_DATA + "catalog.json";
+    public static final String PROPERTIES_SNAPSHOT_PATH = PATH_DATA + "properties.snapshot";
     
     // ERRO MESSAGE ASSOCIATED WITH PROPERTIES FILE LOADING ERRORS
     public static String PROPERTIES_FILE_ERROR_MESSAGE = "Error Loading properties.xml";
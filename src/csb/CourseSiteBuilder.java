@@ -5,13 +5,30 @@ import static csb.CSB_PropertyType.*;
 import csb.data.CourseDataManager;
 import csb.data.Instructor;
 import csb.error.ErrorHandler;
+import csb.file.CatalogedCourseFileManager;
+import csb.file.CourseCatalog;
+import csb.file.CourseEditJournal;
+import csb.file.CourseEditJournal.RecoveredCourse;
+import csb.file.CourseFileManager;
+import csb.file.CourseRepository;
 import csb.file.JsonCourseFileManager;
+import csb.file.PatchingCourseFileManager;
+import csb.file.PropertiesSnapshot;
 import csb.file.CourseSiteExporter;
 import csb.gui.CSB_GUI;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.stage.Stage;
 import properties_manager.PropertiesManager;
 import xml_utilities.InvalidXMLFileFormatException;
@@ -28,74 +45,218 @@ public class CourseSiteBuilder extends Application {
     // AFTER THE PROPERTIES FILE IS LOADED
    CSB_GUI gui;
 
+    // HOW LONG EACH PART OF STARTING UP TOOK
+    StartupTimer startupTimer;
+
+    // HOW MANY THINGS WE LOAD AT ONCE WHILE STARTING UP
+    static final int STARTUP_THREADS = 4;
+
+    // FOR REPORTING PROBLEMS WE CAN START UP WITHOUT FIXING
+    static final Logger LOGGER = Logger.getLogger(CourseSiteBuilder.class.getName());
+
     /**
      * This is where our Application begins its initialization, it will
-     * create the GUI and initialize all of its components.
+     * create the GUI and initialize all of its components. Note that the
+     * settings, the subjects, the last instructor and the course files are
+     * all loaded at the same time, since none of them need the others,
+     * and that the window comes up without waiting for the course files.
      * 
      * @param primaryStage This application's window.
      */
     @Override
     public void start(Stage primaryStage) {
+        startupTimer = new StartupTimer();
+
         // LET'S START BY GIVING THE PRIMARY STAGE TO OUR ERROR HANDLER
         ErrorHandler eH = ErrorHandler.getErrorHandler();
         eH.initMessageDialog(primaryStage);
-        
-        // LOAD APP SETTINGS INTO THE GUI AND START IT UP
-        boolean success = loadProperties();
-        if (success) {
+
+        ExecutorService startupPool = Executors.newFixedThreadPool(STARTUP_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "csb-startup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            // WE WILL SAVE OUR COURSE DATA USING THE JSON FILE
+            // FORMAT SO WE'LL LET THIS OBJECT DO THIS FOR US
+            JsonCourseFileManager jsonFileManager = new JsonCourseFileManager();
+
+            // START LOADING EVERYTHING WE NEED AT ONCE
+            CompletableFuture<Void> properties = startPhase(startupPool, startupTimer, "properties", () -> {
+                loadProperties();
+                return null;
+            });
+            CompletableFuture<Instructor> lastInstructor = startPhase(startupPool, startupTimer, "last instructor",
+                    () -> jsonFileManager.loadLastInstructor(JSON_FILE_PATH_LAST_INSTRUCTOR));
+            CompletableFuture<ArrayList<String>> subjects = startPhase(startupPool, startupTimer, "subjects",
+                    () -> jsonFileManager.loadSubjects(JSON_FILE_PATH_SUBJECTS));
+            CompletableFuture<PatchingCourseFileManager> courses = startPhase(startupPool, startupTimer, "catalog", () -> {
+                // KEEP AN INDEX OF ALL THE COURSES, MAKING ONE IF WE
+                // DON'T HAVE ONE WE CAN USE
+                CourseCatalog catalog = new CourseCatalog(jsonFileManager, PATH_COURSES, JSON_FILE_PATH_CATALOG);
+                try {
+                    if (!catalog.load()) {
+                        catalog.rebuild();
+                    }
+                    return catalog;
+                } catch (IOException ioe) {
+                    // IT'S ONLY AN INDEX, SO WE CAN EDIT COURSES WITHOUT IT
+                    LOGGER.log(Level.WARNING, "Starting without the course catalog", ioe);
+                    return null;
+                }
+            }).thenCompose(catalog -> startPhase(startupPool, startupTimer, "patch compaction", () -> {
+                // SAVES ONLY WRITE WHAT CHANGED, WHILE LOADS OF WHOLE
+                // COURSE FILES ARE CACHED
+                CourseFileManager wholeCourseIO = (catalog == null)
+                        ? jsonFileManager : new CatalogedCourseFileManager(jsonFileManager, catalog);
+                PatchingCourseFileManager courseFileManager = new PatchingCourseFileManager(
+                        new CourseRepository(wholeCourseIO, PATH_COURSES), PATH_COURSES, catalog);
+
+                // FOLD ANY CHANGES SAVED LAST TIME INTO THEIR COURSE FILES,
+                // SO THE CATALOG AND EVERYTHING ELSE READING THEM IS CURRENT
+                try {
+                    courseFileManager.compactAll();
+                } catch (IOException ioe) {
+                    // THE PATCHES STAY PUT AND ARE STILL READ WITH THEIR COURSES
+                    LOGGER.log(Level.WARNING, "Unable to compact saved course changes", ioe);
+                }
+                return courseFileManager;
+            }));
+
+            // IF WE DIED LAST TIME WITH EDITS THAT WEREN'T SAVED, GET THEM
+            // BACK SO THE USER CAN DECIDE WHAT TO DO WITH THEM
+            CompletableFuture<List<RecoveredCourse>> recoveredCourses = startPhase(startupPool, startupTimer,
+                    "edit recovery", () -> {
+                try {
+                    return CourseEditJournal.recover(PATH_COURSES);
+                } catch (IOException | RuntimeException e) {
+                    // THE JOURNALS STAY PUT, SO WE CAN TRY AGAIN NEXT TIME
+                    LOGGER.log(Level.WARNING, "Unable to recover unsaved course edits", e);
+                    return Collections.emptyList();
+                }
+            });
+
+            // THESE ARE THE LAST THINGS THE POOL WORKS ON
+            CompletableFuture.allOf(courses, recoveredCourses).whenComplete((ready, failure) -> startupPool.shutdown());
+
+            // WE CAN'T DO ANYTHING ELSE UNTIL WE HAVE OUR SETTINGS
+            finish(properties);
             PropertiesManager props = PropertiesManager.getPropertiesManager();
             String appTitle = props.getProperty(PROP_APP_TITLE);
-            try {                
-                // WE WILL SAVE OUR COURSE DATA USING THE JSON FILE
-                // FORMAT SO WE'LL LET THIS OBJECT DO THIS FOR US
-                JsonCourseFileManager jsonFileManager = new JsonCourseFileManager();
-                
-                // AND THIS ONE WILL DO THE COURSE WEB PAGE EXPORTING
-                CourseSiteExporter exporter = new CourseSiteExporter(PATH_BASE, PATH_SITES);
-                
-                Instructor lastInstructor = jsonFileManager.loadLastInstructor(JSON_FILE_PATH_LAST_INSTRUCTOR);
-                ArrayList<String> subjects = jsonFileManager.loadSubjects(JSON_FILE_PATH_SUBJECTS);
-                                
-                // AND NOW GIVE ALL OF THIS STUFF TO THE GUI
-                // INITIALIZE THE USER INTERFACE COMPONENTS
-                gui = new CSB_GUI(primaryStage);
-                gui.setCourseFileManager(jsonFileManager);
-                gui.setSiteExporter(exporter);
-                
-                // CONSTRUCT THE DATA MANAGER AND GIVE IT TO THE GUI
-                CourseDataManager dataManager = new CourseDataManager(gui, lastInstructor); 
-                gui.setDataManager(dataManager);
-
-                // FINALLY, START UP THE USER INTERFACE WINDOW AFTER ALL
-                // REMAINING INITIALIZATION
-                gui.initGUI(appTitle, subjects);                
-            }
-            catch(IOException ioe) {
-                eH = ErrorHandler.getErrorHandler();
-                eH.handlePropertiesFileError();
-            }
+
+            // AND THIS ONE WILL DO THE COURSE WEB PAGE EXPORTING
+            CourseSiteExporter exporter = new CourseSiteExporter(PATH_BASE, PATH_SITES);
+
+            // AND NOW GIVE ALL OF THIS STUFF TO THE GUI
+            // INITIALIZE THE USER INTERFACE COMPONENTS
+            gui = new CSB_GUI(primaryStage);
+            gui.setSiteExporter(exporter);
+
+            // CONSTRUCT THE DATA MANAGER AND GIVE IT TO THE GUI
+            CourseDataManager dataManager = new CourseDataManager(gui, finish(lastInstructor));
+            gui.setDataManager(dataManager);
+
+            // FINALLY, START UP THE USER INTERFACE WINDOW AFTER ALL
+            // REMAINING INITIALIZATION
+            ArrayList<String> subjectsList = finish(subjects);
+            long windowStartTime = System.nanoTime();
+            gui.initGUI(appTitle, subjectsList);
+            startupTimer.record("window", windowStartTime);
+
+            // THE FILE CONTROLS START WORKING ONCE THE COURSE FILES ARE
+            // READY, WHICH TAKES A WHILE IF THE CATALOG HAS TO BE REBUILT
+            CompletableFuture.allOf(courses, recoveredCourses).whenComplete((ready, failure) -> Platform.runLater(() -> {
+                if (failure == null) {
+                    gui.setCourseFileManager(courses.join());
+
+                    // AND THEN WE OFFER BACK ANY EDITS THAT NEVER GOT SAVED
+                    gui.getFileController().handleRecoveredCourses(gui, recoveredCourses.join());
+                } else {
+                    LOGGER.log(Level.SEVERE, "Unable to get the course files ready", failure);
+                    ErrorHandler.getErrorHandler().handleLoadCourseError();
+                }
+                LOGGER.log(Level.FINE, "{0}", startupTimer);
+            }));
+        }
+        catch(IOException | InvalidXMLFileFormatException e) {
+            // SOMETHING WENT WRONG INITIALIZING THE XML FILE
+            // OR LOADING THE DATA FILES
+            eH = ErrorHandler.getErrorHandler();
+            eH.handlePropertiesFileError();
         }
     }
+
+    /**
+     * Accessor method for how long each part of starting up took. Note
+     * that the course files may still be getting ready after the window
+     * is up, so their phases are recorded last.
+     * 
+     * @return The StartupTimer for this application's last start.
+     */
+    public StartupTimer getStartupTimer() {
+        return startupTimer;
+    }
     
     /**
      * Loads this application's properties file, which has a number of settings
-     * for initializing the user interface.
+     * for initializing the user interface. Note that if the properties file
+     * and its schema haven't changed since they were last validated, we just
+     * use a snapshot of what they held then.
      * 
-     * @return true if the properties file was loaded successfully, false otherwise.
+     * @throws InvalidXMLFileFormatException Thrown if the properties file
+     * can't be loaded.
      */
-    public boolean loadProperties() {
-        try {
-            // LOAD THE SETTINGS FOR STARTING THE APP
-            PropertiesManager props = PropertiesManager.getPropertiesManager();
-            props.addProperty(PropertiesManager.DATA_PATH_PROPERTY, PATH_DATA);
+    public void loadProperties() throws InvalidXMLFileFormatException {
+        // LOAD THE SETTINGS FOR STARTING THE APP
+        PropertiesManager props = PropertiesManager.getPropertiesManager();
+        props.addProperty(PropertiesManager.DATA_PATH_PROPERTY, PATH_DATA);
+        PropertiesSnapshot snapshot = new PropertiesSnapshot(PATH_DATA + PROPERTIES_FILE_NAME,
+                PATH_DATA + PROPERTIES_SCHEMA_FILE_NAME, PROPERTIES_SNAPSHOT_PATH);
+        if (!snapshot.loadInto(props)) {
             props.loadProperties(PROPERTIES_FILE_NAME, PROPERTIES_SCHEMA_FILE_NAME);
-            return true;
-       } catch (InvalidXMLFileFormatException ixmlffe) {
-            // SOMETHING WENT WRONG INITIALIZING THE XML FILE
-            ErrorHandler eH = ErrorHandler.getErrorHandler();
-            eH.handlePropertiesFileError();
-            return false;
-        }        
+            try {
+                snapshot.save(props);
+            } catch (IOException ioe) {
+                // WE'LL JUST HAVE TO VALIDATE THEM AGAIN NEXT TIME
+            }
+        }
+    }
+
+    // STARTS phase RUNNING ON startupPool, TIMING IT WITH startupTimer
+    private static <T> CompletableFuture<T> startPhase(
+            ExecutorService startupPool, StartupTimer startupTimer, String phase, StartupPhase<T> work) {
+        return CompletableFuture.supplyAsync(() -> {
+            long phaseStartTime = System.nanoTime();
+            try {
+                return work.run();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                startupTimer.record(phase, phaseStartTime);
+            }
+        }, startupPool);
+    }
+
+    // WAITS FOR phase TO FINISH, THROWING WHATEVER IT THREW
+    private static <T> T finish(CompletableFuture<T> phase) throws IOException, InvalidXMLFileFormatException {
+        try {
+            return phase.join();
+        } catch (CompletionException ce) {
+            Throwable cause = ce.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InvalidXMLFileFormatException) {
+                throw (InvalidXMLFileFormatException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw ce;
+        }
+    }
+
+    // SOMETHING DONE WHILE STARTING UP, WHICH MAY FAIL
+    private interface StartupPhase<T> {
+        T run() throws Exception;
     }
 
     /**
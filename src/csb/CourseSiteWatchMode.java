@@ -0,0 +1,65 @@
+package csb;
+
+import static csb.CSB_StartupConstants.*;
+import csb.file.BulkExportReport;
+import csb.file.CourseSiteExporter;
+import csb.file.CourseFileManager;
+import csb.file.CourseRepository;
+import csb.file.CourseSiteWatcher;
+import csb.file.JsonCourseFileManager;
+import csb.file.PatchingCourseFileManager;
+import csb.file.SitePrecompressor;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * CourseSiteWatchMode runs without a user interface and keeps every course
+ * site up to date, exporting a course's site whenever its course file
+ * changes and every site whenever the base site files change, until it's
+ * stopped. Run it with -gzip to also keep gzipped copies of site files.
+ *
+ * @author Richard McKenna
+ */
+public class CourseSiteWatchMode {
+    // THE ARGUMENT FOR TURNING ON PRECOMPRESSION
+    public static final String ARG_GZIP = "-gzip";
+
+    /**
+     * This is where program execution begins.
+     *
+     * @param args Optionally -gzip.
+     */
+    public static void main(String[] args) {
+        Locale.setDefault(Locale.US);
+
+        // THE SAME FILE MANAGER AND EXPORTER THE APPLICATION USES, WITH THE
+        // COURSES KEPT IN MEMORY SINCE WE'LL BE EXPORTING THEM OVER AND OVER
+        CourseRepository repository = new CourseRepository(new JsonCourseFileManager(), PATH_COURSES);
+        CourseFileManager courseIO = new PatchingCourseFileManager(repository, PATH_COURSES);
+        CourseSiteExporter exporter = new CourseSiteExporter(PATH_BASE, PATH_SITES);
+        for (String arg : args) {
+            if (arg.equals(ARG_GZIP)) {
+                exporter.setPrecompressor(new SitePrecompressor());
+            }
+        }
+
+        // REPORT EVERY EXPORT AS IT HAPPENS
+        CourseSiteWatcher watcher = new CourseSiteWatcher(courseIO, exporter, PATH_COURSES, repository);
+        watcher.setListener(report -> {
+            for (BulkExportReport.CourseResult result : report.getResults()) {
+                System.out.println(result);
+            }
+            System.out.println(report);
+        });
+
+        // STOP WATCHING WHEN WE'RE SHUT DOWN
+        Runtime.getRuntime().addShutdownHook(new Thread(watcher::stop));
+        System.out.println("Watching " + PATH_COURSES + " and " + PATH_BASE);
+        try {
+            watcher.watch();
+        } catch (IOException ioe) {
+            System.err.println("Unable to watch course files: " + ioe.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -123,6 +123,9 @@ public class CourseEditController {
             else {
                 // MAKE SURE THE COURSE HAS THE CHANGES
                 gui.updateCourseInfo(gui.getDataManager().getCourse());
+                
+                // WHICH MEANS IT'S BEEN EDITED
+                gui.getFileController().markAsEdited(gui);
             }
         }
     }
@@ -1,5 +1,6 @@
 package csb.controller;
 
+import static csb.CSB_PropertyType.COURSE_RECOVERED_MESSAGE;
 import static csb.CSB_PropertyType.COURSE_SAVED_MESSAGE;
 import static csb.CSB_PropertyType.NEW_COURSE_CREATED_MESSAGE;
 import static csb.CSB_PropertyType.SAVE_UNSAVED_WORK_MESSAGE;
@@ -11,8 +12,12 @@ import csb.data.CourseDataManager;
 import csb.data.CoursePage;
 import csb.data.Instructor;
 import csb.error.ErrorHandler;
+import csb.file.CourseEditJournal;
+import csb.file.CourseEditJournal.RecoveredCourse;
 import csb.file.CourseFileManager;
+import csb.file.CourseSaveService;
 import csb.file.CourseSiteExporter;
+import csb.file.PatchingCourseFileManager;
 import csb.gui.CSB_GUI;
 import csb.gui.MessageDialog;
 import csb.gui.WebBrowser;
@@ -20,6 +25,9 @@ import csb.gui.YesNoCancelDialog;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import javafx.application.Platform;
 import javafx.stage.Stage;
 import javafx.stage.FileChooser;
 import properties_manager.PropertiesManager;
@@ -38,6 +46,17 @@ public class FileController {
     // THIS GUY KNOWS HOW TO READ AND WRITE COURSE DATA
     private CourseFileManager courseIO;
 
+    // AND THIS ONE DOES ALL OUR WRITING OFF THE UI THREAD, SO THE UI
+    // NEVER FREEZES WAITING FOR A SLOW DISK
+    private CourseSaveService saveService;
+
+    // THIS KEEPS EDITS THAT HAVEN'T BEEN SAVED YET SAFE IF WE CRASH
+    private CourseEditJournal journal;
+
+    // HOW MANY TIMES WE'VE STARTED EDITING ANOTHER COURSE, SO A SAVE THAT
+    // FINISHES LATE CAN TELL IF ITS COURSE IS STILL THE ONE BEING EDITED
+    private int courseGeneration;
+
     // THIS GUY KNOWS HOW TO EXPORT COURSE SCHEDULE PAGES
     private CourseSiteExporter exporter;
 
@@ -75,6 +94,8 @@ public class FileController {
         // KEEP THESE GUYS FOR LATER
         courseIO = initCourseIO;
         exporter = initExporter;
+        saveService = new CourseSaveService(courseIO, Platform::runLater);
+        journal = new CourseEditJournal(PATH_COURSES);
         
         // BE READY FOR ERRORS
         errorHandler = ErrorHandler.getErrorHandler();
@@ -96,6 +117,9 @@ public class FileController {
         // THE Course OBJECT IS NOW DIRTY
         saved = false;
         
+        // SO JOURNAL THE EDIT IN CASE WE CRASH BEFORE IT'S SAVED
+        journal.record(gui.getDataManager().getCourse());
+        
         // LET THE UI KNOW
         gui.updateToolbarControls(saved);
     }
@@ -115,19 +139,24 @@ public class FileController {
                 continueToMakeNew = promptToSave(gui);
             }
 
-            // IF THE USER REALLY WANTS TO MAKE A NEW COURSE
+            // IF THE USER REALLY WANTS TO MAKE A NEW COURSE, DO IT ONCE
+            // THE CURRENT ONE IS SAFELY WRITTEN IF IT WAS SAVED
             if (continueToMakeNew) {
-                // RESET THE DATA, WHICH SHOULD TRIGGER A RESET OF THE UI
-                CourseDataManager dataManager = gui.getDataManager();
-                dataManager.reset();
-                saved = false;
+                afterSaves(gui, () -> {
+                    // RESET THE DATA, WHICH SHOULD TRIGGER A RESET OF THE UI
+                    CourseDataManager dataManager = gui.getDataManager();
+                    dataManager.reset();
+                    courseGeneration++;
+                    journal.open(dataManager.getCourse());
+                    saved = false;
 
-                // REFRESH THE GUI, WHICH WILL ENABLE AND DISABLE
-                // THE APPROPRIATE CONTROLS
-                gui.updateToolbarControls(saved);
+                    // REFRESH THE GUI, WHICH WILL ENABLE AND DISABLE
+                    // THE APPROPRIATE CONTROLS
+                    gui.updateToolbarControls(saved);
 
-                // TELL THE USER THE COURSE HAS BEEN CREATED
-                messageDialog.show(properties.getProperty(NEW_COURSE_CREATED_MESSAGE));
+                    // TELL THE USER THE COURSE HAS BEEN CREATED
+                    messageDialog.show(properties.getProperty(NEW_COURSE_CREATED_MESSAGE));
+                });
             }
         } catch (IOException ioe) {
             // SOMETHING WENT WRONG, PROVIDE FEEDBACK
@@ -135,6 +164,38 @@ public class FileController {
         }
     }
 
+    /**
+     * This method gives back to the user edits that never got saved, like
+     * when the program died, by putting the most recently edited of the
+     * recovered courses in the editor, marked as not saved. Its journal is
+     * kept until the user saves the course or decides not to keep it, and
+     * the others are left for the next time the program starts. Note that
+     * nothing happens if a course is already being edited.
+     * 
+     * @param gui The user interface editing the Course.
+     * @param recoveredCourses The courses recovered from their journals,
+     * most recently edited first.
+     */
+    public void handleRecoveredCourses(CSB_GUI gui, List<RecoveredCourse> recoveredCourses) {
+        if (recoveredCourses.isEmpty() || !saved) {
+            return;
+        }
+
+        // PUT THE COURSE IN THE EDITOR, GOING ON WITH ITS JOURNAL
+        CourseDataManager dataManager = gui.getDataManager();
+        Course recoveredCourse = dataManager.getCourse();
+        courseGeneration++;
+        journal.resume(recoveredCourses.get(0), recoveredCourse);
+        gui.reloadCourse(recoveredCourse);
+
+        // IT'S NOT SAVED UNTIL THE USER SAYS SO
+        saved = false;
+        gui.updateToolbarControls(saved);
+
+        // AND TELL THE USER WHERE IT CAME FROM
+        messageDialog.show(properties.getProperty(COURSE_RECOVERED_MESSAGE));
+    }
+
     /**
      * This method lets the user open a Course saved to a file. It will also
      * make sure data for the current Course is not lost.
@@ -150,10 +211,10 @@ public class FileController {
                 continueToOpen = promptToSave(gui);
             }
 
-            // IF THE USER REALLY WANTS TO OPEN A Course
+            // IF THE USER REALLY WANTS TO OPEN A Course, GO AHEAD ONCE
+            // THE CURRENT ONE IS SAFELY WRITTEN IF IT WAS SAVED
             if (continueToOpen) {
-                // GO AHEAD AND PROCEED LOADING A Course
-                promptToOpen(gui);
+                afterSaves(gui, () -> promptToOpen(gui));
             }
         } catch (IOException ioe) {
             // SOMETHING WENT WRONG
@@ -170,22 +231,18 @@ public class FileController {
      * @param courseToSave The course being edited that is to be saved to a file.
      */
     public void handleSaveCourseRequest(CSB_GUI gui, Course courseToSave) {
-        try {
-            // SAVE IT TO A FILE
-            courseIO.saveCourse(courseToSave);
-
-            // MARK IT AS SAVED
-            saved = true;
-
+        // SAVE IT TO A FILE IN THE BACKGROUND, NOTE THAT WHAT GETS SAVED
+        // IS THE COURSE AS IT IS RIGHT NOW
+        saveCourse(gui, courseToSave).thenRun(() ->
             // TELL THE USER THE FILE HAS BEEN SAVED
-            messageDialog.show(properties.getProperty(COURSE_SAVED_MESSAGE));
+            messageDialog.show(properties.getProperty(COURSE_SAVED_MESSAGE)));
 
-            // AND REFRESH THE GUI, WHICH WILL ENABLE AND DISABLE
-            // THE APPROPRIATE CONTROLS
-            gui.updateToolbarControls(saved);
-        } catch (IOException ioe) {
-            errorHandler.handleSaveCourseError();
-        }
+        // MARK IT AS SAVED
+        saved = true;
+
+        // AND REFRESH THE GUI, WHICH WILL ENABLE AND DISABLE
+        // THE APPROPRIATE CONTROLS
+        gui.updateToolbarControls(saved);
     }
 
     /**
@@ -237,8 +294,28 @@ public class FileController {
 
             // IF THE USER REALLY WANTS TO EXIT THE APP
             if (continueToExit) {
-                // EXIT THE APPLICATION
-                System.exit(0);
+                // ONCE EVERYTHING IS ACTUALLY WRITTEN, THE JOURNAL
+                // IS EITHER SAVED OR UNWANTED
+                afterSaves(gui, () -> {
+                    try {
+                        journal.discard();
+                        journal.close();
+                    } catch (IOException ioe) {
+                        errorHandler.handleExitError();
+                        return;
+                    }
+
+                    // FOLD WHAT WAS SAVED AS PATCHES INTO THE COURSE FILES,
+                    // SINCE SOME THINGS READ THEM WITHOUT THE PATCHES, AND
+                    // THEN EXIT THE APPLICATION
+                    if (courseIO instanceof PatchingCourseFileManager) {
+                        gui.disableFileControls(true);
+                        ((PatchingCourseFileManager) courseIO).compactPatchedCourses()
+                                .whenComplete((compacted, failure) -> System.exit(0));
+                    } else {
+                        System.exit(0);
+                    }
+                });
             }
         } catch (IOException ioe) {
             ErrorHandler eH = ErrorHandler.getErrorHandler();
@@ -270,20 +347,27 @@ public class FileController {
 
         // IF THE USER SAID YES, THEN SAVE BEFORE MOVING ON
         if (selection.equals(YesNoCancelDialog.YES)) {
-            // SAVE THE COURSE
+            // SAVE THE COURSE, WHICH HAPPENS IN THE BACKGROUND, NOTE THAT
+            // WHOEVER CALLED THIS HAS TO WAIT afterSaves BEFORE LETTING GO
+            // OF THE COURSE, SINCE IF THE SAVE FAILS IT'S STILL NEEDED
             CourseDataManager dataManager = gui.getDataManager();
-            courseIO.saveCourse(dataManager.getCourse());
+            saveCourse(gui, dataManager.getCourse());
             saved = true;
             
             // AND THE INSTRUCTOR INFO
             Instructor lastInstructor = dataManager.getCourse().getInstructor();
-            courseIO.saveLastInstructor(lastInstructor, JSON_FILE_PATH_LAST_INSTRUCTOR);
+            saveLastInstructor(lastInstructor);
         } // IF THE USER SAID CANCEL, THEN WE'LL TELL WHOEVER
         // CALLED THIS THAT THE USER IS NOT INTERESTED ANYMORE
         else if (selection.equals(YesNoCancelDialog.CANCEL)) {
             return false;
         }
 
+        // IF THE USER SAID NO, THEIR EDITS AREN'T WANTED ANYMORE
+        else {
+            journal.discard();
+        }
+
         // IF THE USER SAID NO, WE JUST GO ON WITHOUT SAVING
         // BUT FOR BOTH YES AND NO WE DO WHATEVER THE USER
         // HAD IN MIND IN THE FIRST PLACE
@@ -305,8 +389,12 @@ public class FileController {
         // ONLY OPEN A NEW FILE IF THE USER SAYS OK
         if (selectedFile != null) {
             try {
+                // NOTE THAT THIS IS DONE RIGHT HERE ON THE UI THREAD, BUT
+                // ANY SAVE OF THIS SAME COURSE HAS ALREADY BEEN WRITTEN
                 Course courseToLoad = gui.getDataManager().getCourse();
                 courseIO.loadCourse(courseToLoad, selectedFile.getAbsolutePath());
+                courseGeneration++;
+                journal.open(courseToLoad);
                
                 // NOTE THAT WE HAVE NOW LOADED THE COURSE, BUT IT IS NOT
                 // LOADED INTO THE GUI. YOU WILL HAVE TO DO THAT
@@ -314,7 +402,7 @@ public class FileController {
                 saved = true;
                 gui.updateToolbarControls(saved);
                 Instructor lastInstructor = courseToLoad.getInstructor();
-                courseIO.saveLastInstructor(lastInstructor, JSON_FILE_PATH_LAST_INSTRUCTOR);
+                saveLastInstructor(lastInstructor);
             } catch (Exception e) {
                 ErrorHandler eH = ErrorHandler.getErrorHandler();
                 eH.handleLoadCourseError();
@@ -322,6 +410,53 @@ public class FileController {
         }
     }
 
+    // SAVES courseToSave IN THE BACKGROUND, AND IF THAT FAILS LETS THE
+    // USER KNOW AND MARKS THE COURSE AS NOT SAVED SO THEY CAN TRY AGAIN
+    private CompletableFuture<Void> saveCourse(CSB_GUI gui, Course courseToSave) {
+        int savedGeneration = courseGeneration;
+        CompletableFuture<Void> save = saveService.saveCourse(courseToSave);
+        save.exceptionally(e -> {
+            saved = false;
+            gui.updateToolbarControls(saved);
+            errorHandler.handleSaveCourseError();
+            return null;
+        });
+        return save.thenRun(() -> {
+            // ONCE IT'S SAVED THE JOURNAL ISN'T NEEDED, UNLESS IT'S BEEN
+            // EDITED SINCE OR IS NOW THE JOURNAL OF ANOTHER COURSE
+            if (saved && (savedGeneration == courseGeneration)) {
+                journal.discard();
+            }
+        });
+    }
+
+    // DOES nextStep ON THE UI THREAD ONCE EVERY SAVE ASKED FOR SO FAR IS
+    // WRITTEN, WHICH HAS TO HAPPEN BEFORE THE COURSE BEING EDITED, OR ITS
+    // JOURNAL, IS LET GO OF OR THE SAME COURSE IS LOADED AGAIN. WE DON'T
+    // WAIT FOR THEM HERE, BUT THE FILE CONTROLS ARE OFF UNTIL THEY'RE DONE.
+    // IF ANY OF THEM FAILED nextStep IS SKIPPED, SINCE THE COURSE IS STILL
+    // NEEDED, AND THE FAILED SAVE HAS LET THE USER KNOW
+    private void afterSaves(CSB_GUI gui, Runnable nextStep) {
+        gui.disableFileControls(true);
+        saveService.whenFlushed().whenComplete((ignored, failure) -> {
+            gui.disableFileControls(false);
+            if (failure == null) {
+                nextStep.run();
+            } else {
+                saved = false;
+                gui.updateToolbarControls(saved);
+            }
+        });
+    }
+    
+    // SAVES THE LAST INSTRUCTOR IN THE BACKGROUND
+    private void saveLastInstructor(Instructor lastInstructor) {
+        saveService.saveLastInstructor(lastInstructor, JSON_FILE_PATH_LAST_INSTRUCTOR).exceptionally(e -> {
+            errorHandler.handleSaveCourseError();
+            return null;
+        });
+    }
+
     /**
      * This mutator method marks the file as not saved, which means that when
      * the user wants to do a file-type operation, we should prompt the user to
@@ -3,6 +3,7 @@ package csb.data;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import javax.json.JsonValue;
 
@@ -10,6 +11,12 @@ import javax.json.JsonValue;
  * This class represents a course to be edited and then used to
  * generate a site.
  * 
+ * Note that a course's pages and lecture days are sets, so each one can
+ * only be in it once, and they're always listed in the order they're
+ * declared in, no matter what order they were added in. Either set can
+ * also be gotten as a mask, with the bit for each member, see maskOf,
+ * turned on, which is much faster to test when going through many courses.
+ * 
  * @author Richard McKenna
  */
 public class Course {
@@ -21,8 +28,8 @@ public class Course {
     Instructor instructor;
     LocalDate startingMonday;
     LocalDate endingFriday;
-    List<CoursePage> pages;
-    List<DayOfWeek> lectureDays;
+    EnumSet<CoursePage> pages;
+    EnumSet<DayOfWeek> lectureDays;
     
     String semester;
     int year;
@@ -37,8 +44,8 @@ public class Course {
      */
     public Course(Instructor initInstructor) {
         // INITIALIZE THIS OBJECT'S DATA STRUCTURES
-        pages = new ArrayList();
-        lectureDays = new ArrayList();
+        pages = EnumSet.noneOf(CoursePage.class);
+        lectureDays = EnumSet.noneOf(DayOfWeek.class);
         
         // AND KEEP THE INSTRUCTOR
         instructor = initInstructor;
@@ -109,37 +116,39 @@ public class Course {
         pages.add(pageToAdd);
     }
     
+    /**
+     * @return A copy of the course's pages, in the order they're declared
+     * in CoursePage.
+     */
     public List<CoursePage> getPages() {
-        return pages;
+        return new ArrayList(pages);
     }
     
     public void selectPage(CoursePage coursePage) {
-        if (!pages.contains(coursePage))
-            pages.add(coursePage);
+        pages.add(coursePage);
     }
     
     public void unselectPage(CoursePage coursePage) {
-        if (pages.contains(coursePage))
-            pages.remove(coursePage);
+        pages.remove(coursePage);
     }
 
+    /**
+     * @return A copy of the course's lecture days, in week order.
+     */
     public List<DayOfWeek> getLectureDays() {
-        return lectureDays;
+        return new ArrayList(lectureDays);
     }
     
     // BELOW ARE ADDITIONAL METHODS FOR UPDATING A COURSE
     
     public void selectLectureDay(DayOfWeek dayOfWeek) {
-        if (!lectureDays.contains(dayOfWeek))
+        if (!lectureDays.remove(dayOfWeek))
             lectureDays.add(dayOfWeek);
-        else
-            lectureDays.remove(dayOfWeek);
     }
     
     public void selectLectureDay(DayOfWeek dayOfWeek, boolean isSelected) {
         if (isSelected) {
-            if (!lectureDays.contains(dayOfWeek))
-                lectureDays.add(dayOfWeek);
+            lectureDays.add(dayOfWeek);
         }
         else {
             lectureDays.remove(dayOfWeek);
@@ -162,6 +171,74 @@ public class Course {
         return lectureDays.contains(dayOfWeek);
     }
     
+    public int getPagesMask() {
+        return toMask(pages);
+    }
+    
+    /**
+     * Replaces the course's pages with the ones in pagesMask.
+     * 
+     * @param pagesMask A mask like getPagesMask returns.
+     * 
+     * @throws IllegalArgumentException Thrown when pagesMask has a bit
+     * that isn't for any page, in which case nothing is changed.
+     */
+    public void setPagesMask(int pagesMask) {
+        pages = fromMask(pagesMask, CoursePage.class);
+    }
+    
+    public int getLectureDaysMask() {
+        return toMask(lectureDays);
+    }
+    
+    /**
+     * Replaces the course's lecture days with the ones in lectureDaysMask.
+     * 
+     * @param lectureDaysMask A mask like getLectureDaysMask returns.
+     * 
+     * @throws IllegalArgumentException Thrown when lectureDaysMask has a
+     * bit that isn't for any day, in which case nothing is changed.
+     */
+    public void setLectureDaysMask(int lectureDaysMask) {
+        lectureDays = fromMask(lectureDaysMask, DayOfWeek.class);
+    }
+    
+    /**
+     * Gets the bit that stands for value in a pages or lecture days mask,
+     * so a mask has value if (mask &amp; maskOf(value)) != 0.
+     * 
+     * @param value A page or day of the week.
+     * 
+     * @return The bit for value.
+     */
+    public static int maskOf(Enum<?> value) {
+        return 1 << value.ordinal();
+    }
+    
+    // TURNS values INTO A MASK. NOTE THAT NEITHER ENUM HAS ANYWHERE NEAR
+    // 32 CONSTANTS, SO AN int HAS ROOM FOR ALL OF THEM
+    private static int toMask(EnumSet<?> values) {
+        int mask = 0;
+        for (Enum<?> value : values) {
+            mask |= maskOf(value);
+        }
+        return mask;
+    }
+    
+    private static <E extends Enum<E>> EnumSet<E> fromMask(int mask, Class<E> type) {
+        EnumSet<E> values = EnumSet.noneOf(type);
+        for (E value : type.getEnumConstants()) {
+            if ((mask & maskOf(value)) != 0) {
+                values.add(value);
+                mask &= ~maskOf(value);
+            }
+        }
+        if (mask != 0) {
+            throw new IllegalArgumentException("No " + type.getSimpleName() + " for mask bits " + Integer.toBinaryString(mask));
+        }
+        return values;
+    }
+    
     
     
     
@@ -0,0 +1,431 @@
+package csb.file;
+
+import static csb.CSB_StartupConstants.PATH_COURSES;
+import static csb.file.JsonCourseFileManager.SLASH;
+import csb.data.Course;
+import csb.data.CoursePage;
+import csb.data.Instructor;
+import csb.data.Subject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is a CourseFileManager that saves everything in a compact binary
+ * format rather than as JSON text. It's meant for when many courses have
+ * to be loaded at once, since there's no text to parse, just numbers and
+ * strings to copy out of the file, which is also much smaller.
+ *
+ * Every file starts with a header saying what kind of file it is and
+ * which version of the format it's in. After that, whole numbers are
+ * written as varints, which take one byte for anything under 128, dates
+ * as the number of days since 1970-01-01, subjects as their ordinals, a
+ * course's pages and lecture days as masks, see Course.maskOf, and strings
+ * as their length in UTF-8 bytes followed by the bytes themselves.
+ *
+ * Note that ordinals are only meaningful as long as enum constants are
+ * added at the end, which is also why the format is versioned. Version 1
+ * files, which list pages and lecture days by ordinal, can still be read.
+ *
+ * @author Richard McKenna
+ */
+public class BinaryCourseFileManager implements CourseFileManager {
+    // THE EXTENSION OUR BINARY COURSE FILES USE
+    public static final String BINARY_EXT = ".csb";
+
+    // EVERY FILE STARTS WITH THESE BYTES
+    static final byte[] MAGIC = {'C', 'S', 'B'};
+
+    // FOLLOWED BY ONE OF THESE, SAYING WHAT'S IN IT
+    static final byte KIND_COURSE = 'C';
+    static final byte KIND_INSTRUCTOR = 'I';
+    static final byte KIND_SUBJECTS = 'S';
+    static final byte KIND_PACK = 'P';
+
+    // AND THEN THE VERSION OF THE FORMAT IT WAS WRITTEN IN
+    public static final int FORMAT_VERSION = 2;
+
+    // THE LAST VERSION THAT LISTED PAGES AND LECTURE DAYS ONE BY ONE
+    static final int LAST_LISTING_VERSION = 1;
+
+    // A COURSE FILE IS RARELY BIGGER THAN THIS
+    static final int COURSE_BUFFER_SIZE = 256;
+
+    /**
+     * This method saves all the data associated with a course to a binary
+     * file in the courses directory.
+     *
+     * @param courseToSave The course whose data we are saving.
+     *
+     * @throws IOException Thrown when there are issues writing the file.
+     */
+    @Override
+    public void saveCourse(Course courseToSave) throws IOException {
+        String courseListing = "" + courseToSave.getSubject() + courseToSave.getNumber();
+        saveCourse(courseToSave, PATH_COURSES + SLASH + courseListing + BINARY_EXT);
+    }
+
+    /**
+     * This method saves all the data associated with a course to the
+     * binary file at coursePath.
+     *
+     * @param courseToSave The course whose data we are saving.
+     * @param coursePath Where to save it, replacing any file there.
+     *
+     * @throws IOException Thrown when there are issues writing the file.
+     */
+    public void saveCourse(Course courseToSave, String coursePath) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(COURSE_BUFFER_SIZE);
+        writeCourse(courseToSave, out);
+        writeFile(coursePath, out);
+    }
+
+    /**
+     * Loads the courseToLoad argument using the binary file at coursePath.
+     * Note that the course is only changed if the whole file loads.
+     *
+     * @param courseToLoad Course to load.
+     * @param coursePath File containing the data to load.
+     *
+     * @throws IOException Thrown when the file can't be read or isn't a
+     * binary course file.
+     */
+    @Override
+    public void loadCourse(Course courseToLoad, String coursePath) throws IOException {
+        try {
+            loadCourse(courseToLoad, ByteBuffer.wrap(Files.readAllBytes(Paths.get(coursePath))));
+        } catch (IOException ioe) {
+            throw new IOException(coursePath + ": " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * Loads the courseToLoad argument from the binary course in data,
+     * starting at its current position and leaving it just after the
+     * course. Note that the course is only changed if the whole course
+     * loads.
+     *
+     * @param courseToLoad Course to load.
+     * @param data Binary course file contents.
+     *
+     * @throws IOException Thrown when data isn't a binary course.
+     */
+    public void loadCourse(Course courseToLoad, ByteBuffer data) throws IOException {
+        try {
+            int version = readHeader(data, KIND_COURSE);
+            Subject subject = readEnum(data, Subject.values());
+            int number = readInt(data);
+            String title = readString(data);
+            int pagesMask = readMask(data, version, CoursePage.values());
+            Instructor instructor = new Instructor(readString(data), readString(data));
+            LocalDate startingMonday = readDate(data);
+            LocalDate endingFriday = readDate(data);
+            int lectureDaysMask = readMask(data, version, DayOfWeek.values());
+            String semester = readString(data);
+            int year = readInt(data);
+
+            // NOW THAT WE HAVE IT ALL WE CAN CHANGE THE COURSE
+            courseToLoad.setSubject(subject);
+            courseToLoad.setNumber(number);
+            courseToLoad.setTitle(title);
+            courseToLoad.setPagesMask(pagesMask);
+            courseToLoad.setInstructor(instructor);
+            courseToLoad.setStartingMonday(startingMonday);
+            courseToLoad.setEndingFriday(endingFriday);
+            courseToLoad.setLectureDaysMask(lectureDaysMask);
+            courseToLoad.setSemester(semester);
+            courseToLoad.setYear(year);
+        } catch (BufferUnderflowException bue) {
+            throw new IOException("Binary course file is cut short", bue);
+        }
+    }
+
+    /**
+     * This method saves the last instructor to a binary file.
+     *
+     * @param lastInstructor Instructor to save.
+     * @param filePath Where to save it.
+     *
+     * @throws IOException Thrown when there are issues writing the file.
+     */
+    @Override
+    public void saveLastInstructor(Instructor lastInstructor, String filePath) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(COURSE_BUFFER_SIZE);
+        writeHeader(out, KIND_INSTRUCTOR);
+        writeString(out, lastInstructor.getName());
+        writeString(out, lastInstructor.getHomepageURL());
+        writeFile(filePath, out);
+    }
+
+    /**
+     * Loads an instructor from the provided binary file.
+     *
+     * @param filePath File containing the instructor.
+     *
+     * @return The instructor found in the file.
+     *
+     * @throws IOException Thrown when the file can't be read or isn't a
+     * binary instructor file.
+     */
+    @Override
+    public Instructor loadLastInstructor(String filePath) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filePath)));
+        try {
+            readHeader(data, KIND_INSTRUCTOR);
+            return new Instructor(readString(data), readString(data));
+        } catch (BufferUnderflowException bue) {
+            throw new IOException(filePath + ": Binary instructor file is cut short", bue);
+        }
+    }
+
+    /**
+     * Saves the subjects list to a binary file.
+     *
+     * @param subjects List of Subjects to save.
+     * @param filePath Where to save them.
+     *
+     * @throws IOException Thrown when there are issues writing the file.
+     */
+    @Override
+    public void saveSubjects(List<Object> subjects, String filePath) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(COURSE_BUFFER_SIZE);
+        writeHeader(out, KIND_SUBJECTS);
+        writeVarint(out, subjects.size());
+        for (Object subject : subjects) {
+            writeString(out, subject.toString());
+        }
+        writeFile(filePath, out);
+    }
+
+    /**
+     * Loads subjects from the binary file.
+     *
+     * @param filePath File containing the subjects.
+     *
+     * @return List full of Subjects loaded from the file.
+     *
+     * @throws IOException Thrown when the file can't be read or isn't a
+     * binary subjects file.
+     */
+    @Override
+    public ArrayList<String> loadSubjects(String filePath) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filePath)));
+        try {
+            readHeader(data, KIND_SUBJECTS);
+            ArrayList<String> subjects = new ArrayList();
+            for (int i = readCount(data); i > 0; i--) {
+                subjects.add(readString(data));
+            }
+            return subjects;
+        } catch (BufferUnderflowException bue) {
+            throw new IOException(filePath + ": Binary subjects file is cut short", bue);
+        }
+    }
+
+    @Override
+    public String getCourseFileExtension() {
+        return BINARY_EXT;
+    }
+
+    // AND HERE ARE THE PRIVATE HELPER METHODS TO HELP THE PUBLIC ONES
+
+    // WRITES THE WHOLE COURSE, IN THE ORDER loadCourse READS IT
+    static void writeCourse(Course course, ByteArrayOutputStream out) throws IOException {
+        writeHeader(out, KIND_COURSE);
+        writeEnum(out, course.getSubject(), JsonCourseFileManager.JSON_SUBJECT);
+        writeInt(out, course.getNumber());
+        writeString(out, course.getTitle());
+        writeVarint(out, course.getPagesMask());
+        writeString(out, course.getInstructor().getName());
+        writeString(out, course.getInstructor().getHomepageURL());
+        writeDate(out, course.getStartingMonday(), JsonCourseFileManager.JSON_STARTING_MONDAY);
+        writeDate(out, course.getEndingFriday(), JsonCourseFileManager.JSON_ENDING_FRIDAY);
+        writeVarint(out, course.getLectureDaysMask());
+        writeString(out, course.getSemester());
+        writeInt(out, course.getYear());
+    }
+
+    // WRITES out UNDER A TEMPORARY NAME AND ONLY REPLACES ANY OLD FILE
+    // ONCE IT'S COMPLETE, SO A FAILED SAVE NEVER LEAVES HALF A FILE
+    static void writeFile(String filePath, ByteArrayOutputStream out) throws IOException {
+        Path path = Paths.get(filePath).toAbsolutePath();
+        Path tempPath = path.resolveSibling(
+                "." + path.getFileName() + "." + JsonCourseFileManager.tempFileCounter.incrementAndGet() + ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(tempPath)) {
+                out.writeTo(os);
+            }
+            Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    static void writeHeader(ByteArrayOutputStream out, byte kind) {
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(kind);
+        writeVarint(out, FORMAT_VERSION);
+    }
+
+    // MAKES SURE data STARTS WITH A HEADER FOR A FILE OF THE EXPECTED KIND
+    // IN A VERSION OF THE FORMAT WE KNOW HOW TO READ, AND RETURNS THAT VERSION
+    static int readHeader(ByteBuffer data, byte kind) throws IOException {
+        for (byte magicByte : MAGIC) {
+            if (!data.hasRemaining() || (data.get() != magicByte)) {
+                throw new IOException("Not a binary course builder file");
+            }
+        }
+        byte fileKind = data.get();
+        if (fileKind != kind) {
+            throw new IOException("Expected a binary file of kind " + (char) kind + " but found " + (char) fileKind);
+        }
+        int version = readCount(data);
+        if (version > FORMAT_VERSION) {
+            throw new IOException("Binary format version " + version + " is newer than this program, which reads up to "
+                    + FORMAT_VERSION);
+        }
+        return version;
+    }
+
+    private static void writeEnum(ByteArrayOutputStream out, Enum<?> value, String name) throws IOException {
+        if (value == null) {
+            throw new IOException("Missing " + name);
+        }
+        writeVarint(out, value.ordinal());
+    }
+
+    private static <E extends Enum<E>> E readEnum(ByteBuffer data, E[] values) throws IOException {
+        int ordinal = readCount(data);
+        if (ordinal >= values.length) {
+            throw new IOException("No " + values[0].getDeclaringClass().getSimpleName() + " number " + ordinal);
+        }
+        return values[ordinal];
+    }
+
+    // READS A MASK OF values, WHICH version FILES MAY LIST ONE BY ONE
+    private static <E extends Enum<E>> int readMask(ByteBuffer data, int version, E[] values) throws IOException {
+        int mask = 0;
+        if (version <= LAST_LISTING_VERSION) {
+            for (int i = readCount(data); i > 0; i--) {
+                mask |= Course.maskOf(readEnum(data, values));
+            }
+            return mask;
+        }
+        mask = readCount(data);
+        if ((mask >>> values.length) != 0) {
+            throw new IOException("No " + values[0].getDeclaringClass().getSimpleName() + " for mask " + mask);
+        }
+        return mask;
+    }
+
+    private static void writeDate(ByteArrayOutputStream out, LocalDate date, String name) throws IOException {
+        if (date == null) {
+            throw new IOException("Missing " + name);
+        }
+        writeVarlong(out, zigZag(date.toEpochDay()));
+    }
+
+    private static LocalDate readDate(ByteBuffer data) throws IOException {
+        long epochDay = unZigZag(readVarlong(data));
+        try {
+            return LocalDate.ofEpochDay(epochDay);
+        } catch (DateTimeException dte) {
+            throw new IOException("Day " + epochDay + " is out of range", dte);
+        }
+    }
+
+    // NEGATIVE NUMBERS ARE ZIGZAG ENCODED SO SMALL ONES STAY SMALL
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        writeVarlong(out, zigZag(value));
+    }
+
+    private static int readInt(ByteBuffer data) throws IOException {
+        long value = unZigZag(readVarlong(data));
+        if ((value < Integer.MIN_VALUE) || (value > Integer.MAX_VALUE)) {
+            throw new IOException("Number " + value + " is too big");
+        }
+        return (int) value;
+    }
+
+    // STRINGS ARE THEIR LENGTH IN UTF-8 BYTES AND THEN THOSE BYTES
+    private static void writeString(ByteArrayOutputStream out, String value) throws IOException {
+        if (value == null) {
+            throw new IOException("Missing text in course");
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer data) throws IOException {
+        int length = readCount(data);
+        if (length > data.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value;
+        if (data.hasArray()) {
+            value = new String(data.array(), data.arrayOffset() + data.position(), length, StandardCharsets.UTF_8);
+            data.position(data.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            data.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    // A COUNT OR A LENGTH, WHICH CAN'T BE NEGATIVE
+    private static int readCount(ByteBuffer data) throws IOException {
+        long value = readVarlong(data);
+        if ((value < 0) || (value > Integer.MAX_VALUE)) {
+            throw new IOException("Count " + Long.toUnsignedString(value) + " is too big");
+        }
+        return (int) value;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        writeVarlong(out, value & 0xFFFFFFFFL);
+    }
+
+    // SEVEN BITS AT A TIME, LOWEST FIRST, WITH THE TOP BIT SET ON
+    // EVERY BYTE BUT THE LAST
+    private static void writeVarlong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarlong(ByteBuffer data) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = data.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed number in binary file");
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,414 @@
+package csb.file;
+
+import static csb.file.BinaryCourseFileManager.BINARY_EXT;
+import static csb.file.BinaryCourseFileManager.KIND_PACK;
+import static csb.file.JsonCourseFileManager.JSON_EXT;
+import csb.data.Course;
+import csb.data.Instructor;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class loads a great many courses at once, like for the nightly
+ * jobs that go through every course there is. The courses are split into
+ * chunks that are loaded on a fixed number of worker threads, with each
+ * course parsed straight out of a buffer holding its file.
+ *
+ * Course files are read through a FileChannel into a buffer each worker
+ * keeps reusing, except for files of at least the map threshold, which
+ * are memory-mapped instead. Both JSON and binary course files can be
+ * loaded, and which one a file is comes from its extension.
+ *
+ * For the biggest jobs, courses can also be packed into a single file, a
+ * binary file of kind 'P' holding the number of courses, a table with
+ * where each one starts, and then the binary courses themselves, one
+ * after another. Loading a pack maps the whole file just once.
+ *
+ * @author Richard McKenna
+ */
+public class BulkCourseLoader {
+    // FILES SMALLER THAN THIS ARE READ RATHER THAN MAPPED BY DEFAULT, SINCE
+    // SETTING UP AND TEARING DOWN A MAPPING COSTS MORE THAN COPYING A FEW
+    // KILOBYTES, AND COURSE FILES ARE USUALLY WELL UNDER ONE
+    public static final long DEFAULT_MAP_THRESHOLD = 64 * 1024;
+
+    // HOW MANY CHUNKS WE SPLIT THE COURSES INTO FOR EACH THREAD, SO THAT A
+    // THREAD THAT GETS SLOW FILES DOESN'T HOLD EVERYONE ELSE UP
+    static final int CHUNKS_PER_THREAD = 4;
+
+    // SIZE OF THE COUNT AND OF EACH OFFSET IN A PACK'S TABLE
+    static final int PACK_INT_SIZE = 4;
+
+    // THESE GUYS DO THE ACTUAL PARSING, AND NEITHER KEEPS ANY STATE
+    JsonCourseStreamReader jsonReader;
+    BinaryCourseFileManager binaryReader;
+
+    // THE MOST COURSES WE'LL LOAD AT THE SAME TIME
+    int maxThreads;
+
+    // FILES AT LEAST THIS BIG ARE MAPPED
+    long mapThreshold;
+
+    /**
+     * This constructor sets up a loader that uses one thread for each
+     * available processor.
+     */
+    public BulkCourseLoader() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * This constructor sets up a loader that uses at most initMaxThreads
+     * threads.
+     *
+     * @param initMaxThreads The most courses to load at once.
+     */
+    public BulkCourseLoader(int initMaxThreads) {
+        this(initMaxThreads, DEFAULT_MAP_THRESHOLD);
+    }
+
+    /**
+     * This constructor sets up a loader that uses at most initMaxThreads
+     * threads and maps files of at least initMapThreshold bytes.
+     *
+     * @param initMaxThreads The most courses to load at once.
+     * @param initMapThreshold The smallest file to map rather than read,
+     * where 0 maps every file.
+     */
+    public BulkCourseLoader(int initMaxThreads, long initMapThreshold) {
+        jsonReader = new JsonCourseStreamReader();
+        binaryReader = new BinaryCourseFileManager();
+        maxThreads = Math.max(1, initMaxThreads);
+        mapThreshold = Math.max(0, initMapThreshold);
+    }
+
+    /**
+     * Loads every JSON and binary course file found in the coursesDir
+     * directory.
+     *
+     * @param coursesDir Directory containing the course files, like PATH_COURSES.
+     *
+     * @return What happened to each course file, sorted by file name.
+     *
+     * @throws IOException Thrown when the directory can't be listed.
+     */
+    public List<LoadedCourse> loadDirectory(String coursesDir) throws IOException {
+        File[] courseFiles = new File(coursesDir).listFiles((dir, name) ->
+                name.endsWith(JSON_EXT) || name.endsWith(BINARY_EXT));
+        if (courseFiles == null) {
+            throw new IOException("Unable to list course files in " + coursesDir);
+        }
+        Arrays.sort(courseFiles);
+        return loadFiles(Arrays.asList(courseFiles));
+    }
+
+    /**
+     * Loads all the courseFiles. Note that a course that fails to load will
+     * not stop the others, it will just be reported as a failure.
+     *
+     * @param courseFiles The JSON and binary course files to load.
+     *
+     * @return What happened to each course file, in the same order.
+     *
+     * @throws IOException Thrown when the loading is interrupted.
+     */
+    public List<LoadedCourse> loadFiles(List<File> courseFiles) throws IOException {
+        LoadedCourse[] results = new LoadedCourse[courseFiles.size()];
+        ArrayList<Callable<Void>> tasks = new ArrayList();
+        for (int[] chunk : split(courseFiles.size())) {
+            tasks.add(() -> {
+                // EVERY FILE IN THE CHUNK GETS READ INTO THIS SAME BUFFER
+                ByteBuffer buffer = ByteBuffer.allocate(BinaryCourseFileManager.COURSE_BUFFER_SIZE * 16);
+                for (int i = chunk[0]; i < chunk[1]; i++) {
+                    File courseFile = courseFiles.get(i);
+                    Course course = new Course(new Instructor("", ""));
+                    try {
+                        buffer = loadFile(course, courseFile, buffer);
+                        results[i] = new LoadedCourse(courseFile, course, null);
+                    } catch (IOException | RuntimeException e) {
+                        results[i] = new LoadedCourse(courseFile, null, (e instanceof IOException)
+                                ? (IOException) e
+                                : new IOException(courseFile + ": " + e.getMessage(), e));
+                    }
+                }
+                return null;
+            });
+        }
+        runAll(tasks);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Packs all the courses into a single file at packPath, replacing any
+     * file there, for loadPack to load.
+     *
+     * @param courses The courses to pack.
+     * @param packPath Where to write the pack.
+     *
+     * @throws IOException Thrown when a course is missing something the
+     * binary format needs, or the file can't be written.
+     */
+    public static void writePack(List<Course> courses, String packPath) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(courses.size() * BinaryCourseFileManager.COURSE_BUFFER_SIZE);
+        int[] offsets = new int[courses.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = body.size();
+            BinaryCourseFileManager.writeCourse(courses.get(i), body);
+        }
+
+        // THE OFFSETS IN THE TABLE ARE FROM THE START OF THE FILE
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + (offsets.length + 1) * PACK_INT_SIZE + 16);
+        BinaryCourseFileManager.writeHeader(out, KIND_PACK);
+        long tableEnd = out.size() + (long) (offsets.length + 1) * PACK_INT_SIZE;
+        if (tableEnd + body.size() > Integer.MAX_VALUE) {
+            throw new IOException("Too many courses to pack into " + packPath);
+        }
+        writeFixedInt(out, offsets.length);
+        for (int offset : offsets) {
+            writeFixedInt(out, (int) tableEnd + offset);
+        }
+        body.writeTo(out);
+        BinaryCourseFileManager.writeFile(packPath, out);
+    }
+
+    /**
+     * Loads every course in the pack at packPath, which is mapped into
+     * memory once and then parsed on the worker threads.
+     *
+     * @param packPath The pack to load, as written by writePack.
+     *
+     * @return The courses, in the order they were packed.
+     *
+     * @throws IOException Thrown when the file can't be read, or when it
+     * or any course in it is damaged.
+     */
+    public List<Course> loadPack(String packPath) throws IOException {
+        ByteBuffer pack;
+        try (FileChannel channel = FileChannel.open(new File(packPath).toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(packPath + ": Pack is too big to be a course pack");
+            }
+            pack = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        // FIRST THE TABLE, SO WE KNOW WHERE EVERY COURSE IS
+        int[] offsets;
+        try {
+            BinaryCourseFileManager.readHeader(pack, KIND_PACK);
+            int count = pack.getInt();
+            if ((count < 0) || ((long) count * PACK_INT_SIZE > pack.remaining())) {
+                throw new IOException("Pack says it has " + count + " courses");
+            }
+            offsets = new int[count + 1];
+            for (int i = 0; i < count; i++) {
+                offsets[i] = pack.getInt();
+            }
+            offsets[count] = pack.limit();
+            for (int i = 0; i < count; i++) {
+                if ((offsets[i] < pack.position()) || (offsets[i] > offsets[i + 1])) {
+                    throw new IOException("Course " + i + " is outside of the pack");
+                }
+            }
+        } catch (IOException | BufferUnderflowException e) {
+            throw new IOException(packPath + ": " + ((e instanceof IOException) ? e.getMessage() : "Pack is cut short"), e);
+        }
+
+        // THEN THE COURSES, EACH WORKER PARSING ITS OWN SLICES OF THE SAME MAPPING
+        Course[] courses = new Course[offsets.length - 1];
+        ArrayList<Callable<Void>> tasks = new ArrayList();
+        for (int[] chunk : split(courses.length)) {
+            tasks.add(() -> {
+                ByteBuffer data = pack.duplicate();
+                for (int i = chunk[0]; i < chunk[1]; i++) {
+                    data.limit(offsets[i + 1]).position(offsets[i]);
+                    Course course = new Course(new Instructor("", ""));
+                    try {
+                        binaryReader.loadCourse(course, data);
+                        if (data.hasRemaining()) {
+                            throw new IOException("Unexpected data after the course");
+                        }
+                    } catch (IOException ioe) {
+                        throw new IOException(packPath + ": Course " + i + ": " + ioe.getMessage(), ioe);
+                    }
+                    courses[i] = course;
+                }
+                return null;
+            });
+        }
+        runAll(tasks);
+        return Arrays.asList(courses);
+    }
+
+    // AND HERE ARE THE PRIVATE HELPER METHODS TO HELP THE PUBLIC ONES
+
+    // LOADS courseFile INTO course, USING buffer IF IT'S BIG ENOUGH, AND
+    // RETURNS THE BUFFER TO USE FOR THE NEXT FILE
+    private ByteBuffer loadFile(Course course, File courseFile, ByteBuffer buffer) throws IOException {
+        String name = courseFile.getName();
+        if (!name.endsWith(JSON_EXT) && !name.endsWith(BINARY_EXT)) {
+            throw new IOException(courseFile + ": Not a JSON or binary course file");
+        }
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(courseFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Too big to be a course file");
+            }
+            if (size >= mapThreshold) {
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                if (size > buffer.capacity()) {
+                    buffer = ByteBuffer.allocate((int) size);
+                }
+                buffer.clear().limit((int) size);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        throw new IOException("File got shorter while reading it");
+                    }
+                }
+                buffer.flip();
+                data = buffer;
+            }
+
+            if (name.endsWith(BINARY_EXT)) {
+                binaryReader.loadCourse(course, data);
+            } else {
+                jsonReader.loadCourse(course, new ByteBufferInputStream(data));
+            }
+        } catch (IOException ioe) {
+            throw new IOException(courseFile + ": " + ioe.getMessage(), ioe);
+        }
+        return buffer;
+    }
+
+    // SPLITS count COURSES INTO CHUNKS, EACH ONE THE INDEX OF ITS FIRST
+    // COURSE AND ONE PAST ITS LAST
+    private List<int[]> split(int count) {
+        ArrayList<int[]> chunks = new ArrayList();
+        int chunkCount = Math.max(1, Math.min(count, maxThreads * CHUNKS_PER_THREAD));
+        for (int i = 0; i < chunkCount; i++) {
+            int start = (int) ((long) count * i / chunkCount);
+            int end = (int) ((long) count * (i + 1) / chunkCount);
+            if (start < end) {
+                chunks.add(new int[]{start, end});
+            }
+        }
+        return chunks;
+    }
+
+    // RUNS ALL THE tasks ON A POOL NO BIGGER THAN IT NEEDS TO BE, THROWING
+    // THE FIRST THING ANY OF THEM THREW
+    private void runAll(List<Callable<Void>> tasks) throws IOException {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(maxThreads, tasks.size())));
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException ee) {
+                    throw (ee.getCause() instanceof IOException)
+                            ? (IOException) ee.getCause()
+                            : new IOException(ee.getCause());
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading courses", ie);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void writeFixedInt(ByteArrayOutputStream out, int value) {
+        // BIG ENDIAN, WHICH IS WHAT ByteBuffer.getInt READS BY DEFAULT
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    // LETS THE JSON PARSER READ STRAIGHT OUT OF A BUFFER
+    private static class ByteBufferInputStream extends InputStream {
+        final ByteBuffer data;
+
+        ByteBufferInputStream(ByteBuffer initData) {
+            data = initData;
+        }
+
+        @Override
+        public int read() {
+            return data.hasRemaining() ? (data.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!data.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, data.remaining());
+            data.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return data.remaining();
+        }
+    }
+
+    /**
+     * What happened when loading a single course file.
+     */
+    public static class LoadedCourse {
+        final File courseFile;
+        final Course course;
+        final IOException error;
+
+        LoadedCourse(File initCourseFile, Course initCourse, IOException initError) {
+            courseFile = initCourseFile;
+            course = initCourse;
+            error = initError;
+        }
+
+        public File getCourseFile() {
+            return courseFile;
+        }
+
+        /**
+         * @return The loaded course, or null if it couldn't be loaded.
+         */
+        public Course getCourse() {
+            return course;
+        }
+
+        /**
+         * @return Why the course couldn't be loaded, or null if it was.
+         */
+        public IOException getError() {
+            return error;
+        }
+
+        public boolean isLoaded() {
+            return error == null;
+        }
+    }
+}
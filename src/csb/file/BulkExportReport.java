@@ -0,0 +1,138 @@
+package csb.file;
+
+import csb.data.Course;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class reports what happened during a bulk export, meaning whether
+ * each course's site was exported or not and how long it all took.
+ *
+ * @author Richard McKenna
+ */
+public class BulkExportReport {
+    // THE RESULT FOR EACH COURSE FILE, IN THE ORDER THEY WERE GIVEN
+    List<CourseResult> results;
+
+    // HOW LONG THE WHOLE EXPORT TOOK
+    long wallTimeMillis;
+
+    /**
+     * This constructor keeps the results of a finished bulk export.
+     *
+     * @param initResults The result of each course's export.
+     * @param initWallTimeMillis The time the whole export took.
+     */
+    public BulkExportReport(List<CourseResult> initResults, long initWallTimeMillis) {
+        results = Collections.unmodifiableList(new ArrayList(initResults));
+        wallTimeMillis = initWallTimeMillis;
+    }
+
+    public List<CourseResult> getResults() {
+        return results;
+    }
+
+    public long getWallTimeMillis() {
+        return wallTimeMillis;
+    }
+
+    public int getSuccessCount() {
+        int count = 0;
+        for (CourseResult result : results) {
+            if (result.succeeded()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getSkippedCount() {
+        int count = 0;
+        for (CourseResult result : results) {
+            if (result.succeeded() && !result.wasExported()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public List<CourseResult> getFailures() {
+        ArrayList<CourseResult> failures = new ArrayList();
+        for (CourseResult result : results) {
+            if (!result.succeeded()) {
+                failures.add(result);
+            }
+        }
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return getSuccessCount() + " of " + results.size() + " course sites exported in "
+                + wallTimeMillis + " ms (" + getSkippedCount() + " already up to date)";
+    }
+
+    /**
+     * The outcome of exporting a single course file.
+     */
+    public static class CourseResult {
+        File courseFile;
+        Course course;
+        boolean exported;
+        Throwable error;
+        long timeMillis;
+
+        public CourseResult(File initCourseFile, Course initCourse, boolean initExported,
+                Throwable initError, long initTimeMillis) {
+            courseFile = initCourseFile;
+            course = initCourse;
+            exported = initExported;
+            error = initError;
+            timeMillis = initTimeMillis;
+        }
+
+        public boolean succeeded() {
+            return error == null;
+        }
+
+        /**
+         * Note that a course whose site was already up to date succeeds
+         * without being exported.
+         */
+        public boolean wasExported() {
+            return exported;
+        }
+
+        public File getCourseFile() {
+            return courseFile;
+        }
+
+        /**
+         * Note that if loading failed, this course may be only partly loaded.
+         */
+        public Course getCourse() {
+            return course;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        @Override
+        public String toString() {
+            String text = courseFile.getName() + " (" + timeMillis + " ms)";
+            if (error != null) {
+                text += " FAILED: " + error;
+            } else if (!exported) {
+                text += " UP TO DATE";
+            }
+            return text;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package csb.file;
+
+import csb.data.Course;
+import csb.data.Instructor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is a CourseFileManager that keeps a CourseCatalog up to date. It
+ * leaves all the actual loading and saving to another CourseFileManager,
+ * but every time a course is saved its entry in the catalog is updated.
+ *
+ * @author Richard McKenna
+ */
+public class CatalogedCourseFileManager implements CourseFileManager {
+    // THIS GUY DOES ALL THE ACTUAL LOADING AND SAVING
+    CourseFileManager courseIO;
+
+    // AND THIS IS WHAT WE KEEP UP TO DATE
+    CourseCatalog catalog;
+
+    /**
+     * This constructor sets up a file manager that saves courses with
+     * initCourseIO and then updates their entries in initCatalog.
+     *
+     * @param initCourseIO The object that will be loading and saving.
+     * @param initCatalog The catalog of the courses initCourseIO saves.
+     */
+    public CatalogedCourseFileManager(CourseFileManager initCourseIO, CourseCatalog initCatalog) {
+        courseIO = initCourseIO;
+        catalog = initCatalog;
+    }
+
+    public CourseCatalog getCatalog() {
+        return catalog;
+    }
+
+    @Override
+    public void saveCourse(Course courseToSave) throws IOException {
+        courseIO.saveCourse(courseToSave);
+        catalog.update(courseToSave);
+    }
+
+    @Override
+    public void loadCourse(Course courseToLoad, String coursePath) throws IOException {
+        courseIO.loadCourse(courseToLoad, coursePath);
+    }
+
+    @Override
+    public void saveLastInstructor(Instructor lastInstructor, String filePath) throws IOException {
+        courseIO.saveLastInstructor(lastInstructor, filePath);
+    }
+
+    @Override
+    public Instructor loadLastInstructor(String filePath) throws IOException {
+        return courseIO.loadLastInstructor(filePath);
+    }
+
+    @Override
+    public void saveSubjects(List<Object> subjects, String filePath) throws IOException {
+        courseIO.saveSubjects(subjects, filePath);
+    }
+
+    @Override
+    public ArrayList<String> loadSubjects(String filePath) throws IOException {
+        return courseIO.loadSubjects(filePath);
+    }
+
+    @Override
+    public String getCourseFileExtension() {
+        return courseIO.getCourseFileExtension();
+    }
+}
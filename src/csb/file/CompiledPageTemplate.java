@@ -0,0 +1,237 @@
+package csb.file;
+
+import csb.data.Course;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * This class is a base page template that has been compiled into static
+ * byte segments with named slots between them, where the slots are the
+ * elements a course fills in, like the banner and the navbar. Rendering
+ * a course then just means writing each segment followed by the contents
+ * of the next slot, with no DOM involved.
+ *
+ * Note that the segments are made by running the template through an
+ * HtmlDocumentWriter, and slots are rendered using that same writer, so
+ * pages come out exactly as they would from the DOM. The one catch is
+ * that how a segment is written depends on what came before it, so each
+ * segment is only good for slot contents shaped like the ones it was
+ * compiled with. When a course's slot contents are shaped differently,
+ * like an empty title, render reports that it couldn't render the page
+ * and the caller should build it using the DOM instead.
+ *
+ * @author Richard McKenna
+ */
+public class CompiledPageTemplate {
+    // HOW A SLOT'S CONTENTS RELATE TO WHAT THE TEMPLATE
+    // ALREADY HAS INSIDE THE SLOT'S ELEMENT
+    enum SlotMode {
+        // THE SLOT'S CONTENTS GO AFTER WHAT THE TEMPLATE HAS
+        APPEND,
+        // THE SLOT'S CONTENTS TAKE THE PLACE OF WHAT THE TEMPLATE HAS
+        REPLACE
+    }
+
+    // WRITES THE CONTENTS OF A SLOT FOR A GIVEN COURSE USING THE WRITER'S
+    // BUILDING BLOCKS, SO THAT THEY ARE FORMATTED EXACTLY AS THE SAME DOM
+    // NODES WOULD BE, RETURNING true IF IT PUT ANYTHING IN THE SLOT
+    interface SlotRenderer {
+        boolean render(HtmlDocumentWriter writer, HtmlDocumentWriter.PageState state,
+                int depth, Course course) throws IOException;
+    }
+
+    // A SLOT IN A TEMPLATE, MEANING HOW TO FILL IT AND WITH WHAT
+    static class Slot {
+        final SlotMode mode;
+        final SlotRenderer renderer;
+
+        Slot(SlotMode initMode, SlotRenderer initRenderer) {
+            mode = initMode;
+            renderer = initRenderer;
+        }
+    }
+
+    // THIS IS WHAT WE WRITE PAGES WITH
+    HtmlDocumentWriter writer;
+
+    // THE STATIC PARTS OF THE PAGE, THERE'S ONE MORE OF THESE THAN
+    // THERE ARE SLOTS, AND THE STATE EACH ONE LEAVES THE PAGE IN
+    ArrayList<byte[]> segments;
+    ArrayList<HtmlDocumentWriter.PageState> segmentEndStates;
+
+    // THE SLOTS, IN PAGE ORDER, ALONG WITH HOW DEEP IN THE PAGE
+    // THEIR CONTENTS GO AND IF THE TEMPLATE PUT ANYTHING IN THEM
+    ArrayList<Slot> slots;
+    ArrayList<Integer> slotDepths;
+    ArrayList<Boolean> slotTemplateContent;
+
+    // WHAT EACH SLOT HAS TO LEAVE THE PAGE LIKE FOR THE SEGMENT
+    // AFTER IT TO BE CORRECT
+    ArrayList<HtmlDocumentWriter.PageState> slotEndStates;
+    ArrayList<Boolean> slotHasChildren;
+
+    // THE TEMPLATE FILE THIS WAS COMPILED FROM, SO WE KNOW WHEN IT'S STALE
+    long sourceLastModified;
+    long sourceLength;
+
+    // USED WHILE COMPILING ONLY
+    private Map<Node, Slot> slotsByElement;
+    private HashSet<Node> slotAncestors;
+    private Course probeCourse;
+
+    private CompiledPageTemplate(HtmlDocumentWriter initWriter) {
+        writer = initWriter;
+        segments = new ArrayList();
+        segmentEndStates = new ArrayList();
+        slots = new ArrayList();
+        slotDepths = new ArrayList();
+        slotTemplateContent = new ArrayList();
+        slotEndStates = new ArrayList();
+        slotHasChildren = new ArrayList();
+    }
+
+    /**
+     * Compiles a template into segments and slots.
+     *
+     * @param sourceFile The file the template was loaded from.
+     * @param template The parsed template, which isn't changed.
+     * @param slotsByElement The slots, keyed by the template elements they fill.
+     * @param probeCourse A typical course, used to work out how a segment
+     * that follows a slot should be written. Courses whose slot contents
+     * are shaped like this one's can be rendered.
+     * @param writer Used to write both segments and slots.
+     *
+     * @return The compiled template.
+     *
+     * @throws IOException Thrown if the template can't be written.
+     */
+    static CompiledPageTemplate compile(File sourceFile, Document template,
+            Map<Node, Slot> slotsByElement, Course probeCourse, HtmlDocumentWriter writer)
+            throws IOException {
+        CompiledPageTemplate compiled = new CompiledPageTemplate(writer);
+        compiled.sourceLastModified = sourceFile.lastModified();
+        compiled.sourceLength = sourceFile.length();
+        compiled.slotsByElement = slotsByElement;
+        compiled.probeCourse = probeCourse;
+
+        // WE'LL NEED TO KNOW WHICH ELEMENTS HAVE SLOTS INSIDE THEM
+        compiled.slotAncestors = new HashSet();
+        for (Node slotElement : slotsByElement.keySet()) {
+            for (Node n = slotElement.getParentNode(); n != null; n = n.getParentNode()) {
+                compiled.slotAncestors.add(n);
+            }
+        }
+
+        // NOW WALK THE WHOLE PAGE
+        StringWriter segment = new StringWriter();
+        HtmlDocumentWriter.PageState state = new HtmlDocumentWriter.PageState(segment);
+        for (Node child = template.getFirstChild(); child != null; child = child.getNextSibling()) {
+            compiled.compileNode(state, child, 0);
+        }
+        writer.endDocument(state);
+        compiled.endSegment(state);
+
+        compiled.slotsByElement = null;
+        compiled.slotAncestors = null;
+        compiled.probeCourse = null;
+        return compiled;
+    }
+
+    /**
+     * Tests to see if this was compiled from templateFile as it is now.
+     *
+     * @param templateFile The template file to test against.
+     *
+     * @return true if the file hasn't changed since this was compiled.
+     */
+    public boolean isCompiledFrom(File templateFile) {
+        return (templateFile.lastModified() == sourceLastModified)
+                && (templateFile.length() == sourceLength);
+    }
+
+    /**
+     * Renders the page for course into out.
+     *
+     * @param course The course whose page is being rendered.
+     * @param out Where to render the page.
+     *
+     * @return true if the page was rendered, false if the course's slot
+     * contents don't fit this template's segments, in which case whatever
+     * was written to out must be thrown away and the page built some other way.
+     *
+     * @throws IOException Thrown if writing the page fails.
+     */
+    public boolean render(Course course, PageOutputBuffer out) throws IOException {
+        HtmlDocumentWriter.PageState state = new HtmlDocumentWriter.PageState(out);
+        out.writeBytes(segments.get(0));
+        state.setTo(segmentEndStates.get(0));
+        for (int i = 0; i < slots.size(); i++) {
+            boolean wroteContent = slots.get(i).renderer.render(writer, state, slotDepths.get(i), course);
+            boolean hasChildren = slotTemplateContent.get(i) || wroteContent;
+            if (!state.sameAs(slotEndStates.get(i)) || (hasChildren != slotHasChildren.get(i))) {
+                return false;
+            }
+            out.writeBytes(segments.get(i + 1));
+            state.setTo(segmentEndStates.get(i + 1));
+        }
+        return true;
+    }
+
+    // WRITES A NODE INTO THE CURRENT SEGMENT, UNLESS IT HAS A SLOT IN IT
+    private void compileNode(HtmlDocumentWriter.PageState state, Node node, int depth) throws IOException {
+        Slot slot = slotsByElement.get(node);
+        if ((slot == null) && !slotAncestors.contains(node)) {
+            writer.writeNode(state, node, depth);
+            return;
+        }
+
+        // IT'S AN ELEMENT WITH A SLOT IN OR UNDER IT, SO WE HAVE TO
+        // WRITE IT OURSELVES, STARTING WITH ITS START TAG
+        String name = node.getNodeName();
+        int flags = writer.startElement(state, name, depth);
+        writer.writeAttributes(state.out, name, node.getAttributes());
+        boolean templateContent = ((slot == null) || (slot.mode == SlotMode.APPEND))
+                && HtmlDocumentWriter.hasContent(node);
+        boolean hasChildren = writer.finishStartTag(state, flags, templateContent);
+
+        // THEN WHATEVER THE TEMPLATE HAS INSIDE IT
+        if ((slot == null) || (slot.mode == SlotMode.APPEND)) {
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                compileNode(state, child, depth + 1);
+            }
+        }
+
+        // THEN THE SLOT ITSELF, WHICH ENDS THE CURRENT SEGMENT. NOTE THAT WE
+        // RENDER THE PROBE COURSE INTO IT JUST TO SEE WHAT STATE IT LEAVES
+        if (slot != null) {
+            endSegment(state);
+            state.out = new StringWriter();
+            boolean wroteContent = slot.renderer.render(writer, state, depth + 1, probeCourse);
+            hasChildren = hasChildren || wroteContent;
+            slots.add(slot);
+            slotDepths.add(depth + 1);
+            slotTemplateContent.add(templateContent);
+            slotEndStates.add(state.snapshot());
+            slotHasChildren.add(hasChildren);
+            state.out = new StringWriter();
+        }
+
+        // AND FINALLY THE END TAG, WHICH STARTS THE NEXT SEGMENT
+        writer.endElement(state, name, flags, hasChildren);
+    }
+
+    // FINISHES THE SEGMENT BEING WRITTEN TO
+    private void endSegment(HtmlDocumentWriter.PageState state) {
+        Writer segment = state.out;
+        segments.add(segment.toString().getBytes(StandardCharsets.UTF_8));
+        segmentEndStates.add(state.snapshot());
+    }
+}
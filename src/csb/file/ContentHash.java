@@ -0,0 +1,150 @@
+package csb.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class computes the content hashes we use to tell if the inputs
+ * to an export have changed. Hashes of files are remembered, so a file is
+ * only read again if its last modified time or size has changed.
+ *
+ * @author Richard McKenna
+ */
+public class ContentHash {
+    // THE DIGEST WE USE FOR EVERYTHING
+    public static final String ALGORITHM = "SHA-256";
+
+    // HOW MUCH OF A FILE WE READ AT A TIME WHILE HASHING IT
+    static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    // FOR TURNING DIGEST BYTES INTO TEXT
+    static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // THE HASHES OF ALL THE FILES WE'VE READ SO FAR, KEYED
+    // BY THE ABSOLUTE PATHS OF THE FILES
+    private final ConcurrentHashMap<String, CachedHash> fileHashes;
+
+    /**
+     * This constructor sets up an empty cache of file hashes.
+     */
+    public ContentHash() {
+        fileHashes = new ConcurrentHashMap();
+    }
+
+    /**
+     * Gets the hash of the contents of fileToHash, reading the file
+     * only if it hasn't been hashed before or has changed since.
+     *
+     * @param fileToHash The file whose contents are to be hashed.
+     *
+     * @return The hash, as lower case hex text.
+     *
+     * @throws IOException Thrown when the file can't be read.
+     */
+    public String hashFile(File fileToHash) throws IOException {
+        String key = fileToHash.getAbsolutePath();
+        long lastModified = fileToHash.lastModified();
+        long length = fileToHash.length();
+        CachedHash cached = fileHashes.get(key);
+        if ((cached == null) || !cached.matches(lastModified, length)) {
+            cached = new CachedHash(hashFileContents(fileToHash), lastModified, length);
+            fileHashes.put(key, cached);
+        }
+        return cached.hash;
+    }
+
+    /**
+     * Forgets the hashes of all the files read so far, so that they will
+     * be read again the next time they are hashed, even if they look
+     * unchanged. This is for when a file may have been rewritten within
+     * the resolution of its last modified time.
+     */
+    public void clear() {
+        fileHashes.clear();
+    }
+
+    /**
+     * Reads and hashes the contents of fileToHash without using the cache.
+     *
+     * @param fileToHash The file whose contents are to be hashed.
+     *
+     * @return The hash, as lower case hex text.
+     *
+     * @throws IOException Thrown when the file can't be read.
+     */
+    public static String hashFileContents(File fileToHash) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        try (InputStream is = Files.newInputStream(fileToHash.toPath())) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hashes the UTF-8 encoding of textToHash.
+     *
+     * @param textToHash The text to hash.
+     *
+     * @return The hash, as lower case hex text.
+     */
+    public static String hashString(String textToHash) {
+        return hashBytes(textToHash.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Hashes bytesToHash.
+     *
+     * @param bytesToHash The bytes to hash.
+     *
+     * @return The hash, as lower case hex text.
+     */
+    public static String hashBytes(byte[] bytesToHash) {
+        return toHex(newDigest().digest(bytesToHash));
+    }
+
+    // EVERY JVM HAS TO PROVIDE SHA-256, SO THIS CAN'T REALLY FAIL
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[(i * 2) + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    // A FILE'S HASH ALONG WITH WHAT WE NEED TO KNOW
+    // TO DECIDE IF IT'S STILL UP TO DATE
+    private static class CachedHash {
+        final String hash;
+        final long lastModified;
+        final long length;
+
+        CachedHash(String initHash, long initLastModified, long initLength) {
+            hash = initHash;
+            lastModified = initLastModified;
+            length = initLength;
+        }
+
+        boolean matches(long testLastModified, long testLength) {
+            return (lastModified == testLastModified) && (length == testLength);
+        }
+    }
+}
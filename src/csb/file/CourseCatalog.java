@@ -0,0 +1,482 @@
+package csb.file;
+
+import csb.data.Course;
+import csb.data.CoursePage;
+import csb.data.Instructor;
+import csb.data.Subject;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.stream.JsonGenerator;
+
+/**
+ * This class keeps an index of every course in the courses directory in a
+ * single small file, so courses can be listed without opening and parsing
+ * every course file. Each course has an entry, keyed by its subject and
+ * number, with its title, semester, year, instructor, pages and lecture
+ * days, the last two as masks so they can be filtered on quickly, along with when
+ * its file was last modified and a hash of the file's contents, which are
+ * used to tell if the entry is still up to date.
+ *
+ * Note that entries are only updated when courses are saved through a
+ * CatalogedCourseFileManager, so files changed some other way can leave
+ * the catalog out of date. The verify and rebuild methods look at every
+ * course file, spreading the work across a fixed number of threads.
+ *
+ * @author Richard McKenna
+ */
+public class CourseCatalog {
+    // THE VERSION OF THE CATALOG FILE FORMAT, CATALOGS IN ANY OTHER
+    // VERSION ARE TREATED AS MISSING AND GET REBUILT
+    public static final int CATALOG_VERSION = 2;
+
+    // CATALOG FILE READING AND WRITING CONSTANTS
+    static final String JSON_VERSION = "version";
+    static final String JSON_COURSES = "courses";
+    static final String JSON_KEY = "key";
+    static final String JSON_FILE = "file";
+    static final String JSON_LAST_MODIFIED = "lastModified";
+    static final String JSON_CONTENT_HASH = "contentHash";
+    static final String JSON_PAGES_MASK = "pagesMask";
+    static final String JSON_LECTURE_DAYS_MASK = "lectureDaysMask";
+
+    // THIS GUY KNOWS HOW TO READ THE COURSE FILES
+    CourseFileManager courseIO;
+
+    // WHERE THE COURSE FILES ARE AND WHERE THEIR CATALOG GOES
+    File coursesDir;
+    String catalogPath;
+
+    // THE MOST COURSE FILES WE'LL LOOK AT THE SAME TIME
+    int maxThreads;
+
+    // ALL THE ENTRIES, IN KEY ORDER
+    TreeMap<String, Entry> entries;
+
+    /**
+     * This constructor sets up an empty catalog for the course files in
+     * initCoursesDir. Call load to read the catalog that's already saved.
+     *
+     * @param initCourseIO The object that reads and writes the course files.
+     * @param initCoursesDir Directory containing the course files.
+     * @param initCatalogPath Where the catalog is saved.
+     */
+    public CourseCatalog(CourseFileManager initCourseIO, String initCoursesDir, String initCatalogPath) {
+        courseIO = initCourseIO;
+        coursesDir = new File(initCoursesDir);
+        catalogPath = initCatalogPath;
+        maxThreads = Runtime.getRuntime().availableProcessors();
+        entries = new TreeMap();
+    }
+
+    /**
+     * Makes the key a course's entry is kept under, like CSE219.
+     *
+     * @param subject The course's subject.
+     * @param number The course's number.
+     *
+     * @return The key for the course.
+     */
+    public static String getCourseKey(Subject subject, int number) {
+        return "" + subject + number;
+    }
+
+    /**
+     * Gets the file a course is saved to by our CourseFileManager.
+     *
+     * @param course The course.
+     *
+     * @return Its course file.
+     */
+    public File getCourseFile(Course course) {
+        return new File(coursesDir, getCourseKey(course.getSubject(), course.getNumber())
+                + courseIO.getCourseFileExtension());
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList(entries.values());
+    }
+
+    public synchronized Entry getEntry(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Finds every course with all the pages in pagesMask and all the
+     * lecture days in lectureDaysMask, like all courses with a HWs page
+     * and Friday lectures, without loading any of them.
+     *
+     * @param pagesMask The pages to look for, see Course.maskOf, or 0 for
+     * courses with any pages.
+     * @param lectureDaysMask The lecture days to look for, or 0 for
+     * courses with any lecture days.
+     *
+     * @return The matching entries, in key order.
+     */
+    public synchronized List<Entry> findCourses(int pagesMask, int lectureDaysMask) {
+        ArrayList<Entry> found = new ArrayList();
+        for (Entry entry : entries.values()) {
+            if (((entry.pagesMask & pagesMask) == pagesMask)
+                    && ((entry.lectureDaysMask & lectureDaysMask) == lectureDaysMask)) {
+                found.add(entry);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Loads the saved catalog, replacing any entries we have.
+     *
+     * @return true if the catalog was loaded, false if it's missing,
+     * damaged or from another version, in which case it should be rebuilt.
+     */
+    public synchronized boolean load() {
+        entries.clear();
+        File catalogFile = new File(catalogPath);
+        if (!catalogFile.isFile()) {
+            return false;
+        }
+        try (   InputStream is = new BufferedInputStream(Files.newInputStream(catalogFile.toPath()),
+                        JsonFactories.FILE_BUFFER_SIZE);
+                JsonReader jsonReader = JsonFactories.READER_FACTORY.createReader(is)) {
+            JsonObject json = jsonReader.readObject();
+            if (json.getInt(JSON_VERSION) != CATALOG_VERSION) {
+                return false;
+            }
+            JsonArray coursesJson = json.getJsonArray(JSON_COURSES);
+            for (int i = 0; i < coursesJson.size(); i++) {
+                Entry entry = Entry.fromJson(coursesJson.getJsonObject(i));
+                entries.put(entry.key, entry);
+            }
+            return true;
+        } catch (IOException | JsonException | ClassCastException | NullPointerException
+                | IllegalArgumentException e) {
+            // A DAMAGED CATALOG IS THE SAME AS NO CATALOG
+            entries.clear();
+            return false;
+        }
+    }
+
+    /**
+     * Saves all the entries to the catalog file.
+     *
+     * @throws IOException Thrown when the catalog file can't be written.
+     */
+    public synchronized void save() throws IOException {
+        JsonCourseFileManager.writeJSONFile(catalogPath, jsonGenerator -> {
+            jsonGenerator.writeStartObject()
+                    .write(JSON_VERSION, CATALOG_VERSION)
+                    .writeStartArray(JSON_COURSES);
+            for (Entry entry : entries.values()) {
+                entry.writeTo(jsonGenerator);
+            }
+            jsonGenerator.writeEnd().writeEnd();
+        });
+    }
+
+    /**
+     * Updates the entry for savedCourse, which has just been saved to its
+     * course file, and then saves the catalog.
+     *
+     * @param savedCourse The course that was saved.
+     *
+     * @throws IOException Thrown when the course file can't be read or
+     * the catalog can't be saved.
+     */
+    public void update(Course savedCourse) throws IOException {
+        Entry entry = Entry.fromCourse(savedCourse, getCourseFile(savedCourse));
+        synchronized (this) {
+            entries.put(entry.key, entry);
+            save();
+        }
+    }
+
+    /**
+     * Throws away all the entries and makes new ones by loading every
+     * course file, and then saves the catalog. Note that files that can't
+     * be loaded won't have entries.
+     *
+     * @return The files that couldn't be loaded and why, in name order.
+     *
+     * @throws IOException Thrown when the courses directory can't be
+     * listed or the catalog can't be saved.
+     */
+    public Map<File, Exception> rebuild() throws IOException {
+        List<File> courseFiles = listCourseFiles();
+        ArrayList<Callable<Object>> tasks = new ArrayList();
+        for (File courseFile : courseFiles) {
+            tasks.add(() -> {
+                try {
+                    Course course = new Course(new Instructor("", ""));
+                    courseIO.loadCourse(course, courseFile.getPath());
+                    return Entry.fromCourse(course, courseFile);
+                } catch (IOException | RuntimeException e) {
+                    return e;
+                }
+            });
+        }
+
+        TreeMap<String, Entry> rebuiltEntries = new TreeMap();
+        LinkedHashMap<File, Exception> failures = new LinkedHashMap();
+        List<Object> results = runAll(tasks);
+        for (int i = 0; i < results.size(); i++) {
+            Object result = results.get(i);
+            if (result instanceof Entry) {
+                Entry entry = (Entry) result;
+                rebuiltEntries.put(entry.key, entry);
+            } else {
+                failures.put(courseFiles.get(i), (Exception) result);
+            }
+        }
+        synchronized (this) {
+            entries = rebuiltEntries;
+            save();
+        }
+        return failures;
+    }
+
+    /**
+     * Checks every entry against its course file, and every course file
+     * against the entries. Note that an entry whose file's modified time
+     * has changed is still up to date if the file's contents haven't.
+     *
+     * @return The keys of entries that are out of date or whose files are
+     * gone, and the names of course files with no entry, in that order.
+     * This is empty if the catalog is up to date.
+     *
+     * @throws IOException Thrown when the courses directory can't be listed.
+     */
+    public List<String> verify() throws IOException {
+        List<Entry> entriesToVerify = getEntries();
+        ArrayList<Callable<Object>> tasks = new ArrayList();
+        for (Entry entry : entriesToVerify) {
+            tasks.add(() -> entry.isUpToDate(new File(coursesDir, entry.fileName)));
+        }
+        ArrayList<String> problems = new ArrayList();
+        List<Object> results = runAll(tasks);
+        HashSet<String> catalogedFiles = new HashSet();
+        for (int i = 0; i < results.size(); i++) {
+            Entry entry = entriesToVerify.get(i);
+            catalogedFiles.add(entry.fileName);
+            if (!Boolean.TRUE.equals(results.get(i))) {
+                problems.add(entry.key);
+            }
+        }
+        for (File courseFile : listCourseFiles()) {
+            if (!catalogedFiles.contains(courseFile.getName())) {
+                problems.add(courseFile.getName());
+            }
+        }
+        return problems;
+    }
+
+    // ALL THE FILES IN THE COURSES DIRECTORY OUR CourseFileManager CAN LOAD
+    private List<File> listCourseFiles() throws IOException {
+        String courseFileExt = courseIO.getCourseFileExtension();
+        File[] courseFiles = coursesDir.listFiles((dir, name) -> name.endsWith(courseFileExt));
+        if (courseFiles == null) {
+            throw new IOException("Unable to list course files in " + coursesDir);
+        }
+        Arrays.sort(courseFiles);
+        return Arrays.asList(courseFiles);
+    }
+
+    // RUNS ALL THE tasks ON A POOL NO BIGGER THAN IT NEEDS TO BE, AND
+    // RETURNS WHAT EACH ONE RETURNED OR THREW, IN THE SAME ORDER
+    private List<Object> runAll(List<Callable<Object>> tasks) throws IOException {
+        ArrayList<Object> results = new ArrayList();
+        if (tasks.isEmpty()) {
+            return results;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(maxThreads, tasks.size())));
+        try {
+            for (Future<Object> future : pool.invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException ee) {
+                    results.add(ee.getCause());
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading course files", ie);
+        } finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * What the catalog knows about a single course.
+     */
+    public static class Entry {
+        final String key;
+        final String fileName;
+        final Subject subject;
+        final int number;
+        final String title;
+        final String semester;
+        final int year;
+        final String instructorName;
+        final int pagesMask;
+        final int lectureDaysMask;
+        final long lastModified;
+        final String contentHash;
+
+        Entry(String initFileName, Subject initSubject, int initNumber, String initTitle,
+                String initSemester, int initYear, String initInstructorName,
+                int initPagesMask, int initLectureDaysMask,
+                long initLastModified, String initContentHash) {
+            key = getCourseKey(initSubject, initNumber);
+            fileName = initFileName;
+            subject = initSubject;
+            number = initNumber;
+            title = initTitle;
+            semester = initSemester;
+            year = initYear;
+            instructorName = initInstructorName;
+            pagesMask = initPagesMask;
+            lectureDaysMask = initLectureDaysMask;
+            lastModified = initLastModified;
+            contentHash = initContentHash;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public Subject getSubject() {
+            return subject;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getSemester() {
+            return semester;
+        }
+
+        public int getYear() {
+            return year;
+        }
+
+        public String getInstructorName() {
+            return instructorName;
+        }
+
+        public int getPagesMask() {
+            return pagesMask;
+        }
+
+        public int getLectureDaysMask() {
+            return lectureDaysMask;
+        }
+
+        public boolean hasCoursePage(CoursePage page) {
+            return (pagesMask & Course.maskOf(page)) != 0;
+        }
+
+        public boolean hasLectureDay(DayOfWeek dayOfWeek) {
+            return (lectureDaysMask & Course.maskOf(dayOfWeek)) != 0;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        // MAKES AN ENTRY FOR course, WHICH IS IN courseFile
+        static Entry fromCourse(Course course, File courseFile) throws IOException {
+            // NOTE THAT WE GET THE TIME FIRST, SO IF THE FILE CHANGES WHILE
+            // WE'RE HASHING IT THE ENTRY WILL LOOK OUT OF DATE
+            long lastModified = courseFile.lastModified();
+            String contentHash = ContentHash.hashFileContents(courseFile);
+            return new Entry(courseFile.getName(), course.getSubject(), course.getNumber(), course.getTitle(),
+                    course.getSemester(), course.getYear(), course.getInstructor().getName(),
+                    course.getPagesMask(), course.getLectureDaysMask(), lastModified, contentHash);
+        }
+
+        static Entry fromJson(JsonObject json) {
+            return new Entry(json.getString(JSON_FILE),
+                    Subject.valueOf(json.getString(JsonCourseFileManager.JSON_SUBJECT)),
+                    json.getInt(JsonCourseFileManager.JSON_NUMBER),
+                    json.getString(JsonCourseFileManager.JSON_TITLE, ""),
+                    json.getString(JsonCourseFileManager.JSON_SEMESTER, ""),
+                    json.getInt(JsonCourseFileManager.JSON_YEAR),
+                    json.getString(JsonCourseFileManager.JSON_INSTRUCTOR_NAME, ""),
+                    json.getInt(JSON_PAGES_MASK),
+                    json.getInt(JSON_LECTURE_DAYS_MASK),
+                    json.getJsonNumber(JSON_LAST_MODIFIED).longValue(),
+                    json.getString(JSON_CONTENT_HASH));
+        }
+
+        void writeTo(JsonGenerator jsonGenerator) {
+            jsonGenerator.writeStartObject()
+                    .write(JSON_KEY, key)
+                    .write(JSON_FILE, fileName)
+                    .write(JsonCourseFileManager.JSON_SUBJECT, subject.toString())
+                    .write(JsonCourseFileManager.JSON_NUMBER, number)
+                    .write(JsonCourseFileManager.JSON_TITLE, textOf(title))
+                    .write(JsonCourseFileManager.JSON_SEMESTER, textOf(semester))
+                    .write(JsonCourseFileManager.JSON_YEAR, year)
+                    .write(JsonCourseFileManager.JSON_INSTRUCTOR_NAME, textOf(instructorName))
+                    .write(JSON_PAGES_MASK, pagesMask)
+                    .write(JSON_LECTURE_DAYS_MASK, lectureDaysMask)
+                    .write(JSON_LAST_MODIFIED, lastModified)
+                    .write(JSON_CONTENT_HASH, contentHash)
+                    .writeEnd();
+        }
+
+        // AN ENTRY IS UP TO DATE IF ITS FILE HASN'T BEEN TOUCHED, OR
+        // HAS BEEN TOUCHED BUT STILL HAS THE SAME CONTENTS
+        boolean isUpToDate(File courseFile) throws IOException {
+            if (!courseFile.isFile()) {
+                return false;
+            }
+            if (courseFile.lastModified() == lastModified) {
+                return true;
+            }
+            return ContentHash.hashFileContents(courseFile).equals(contentHash);
+        }
+
+        private static String textOf(String text) {
+            return (text == null) ? "" : text;
+        }
+
+        @Override
+        public String toString() {
+            return key + " " + title + " (" + semester + " " + year + ", " + instructorName + ")";
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package csb.file;
+
+import static csb.file.JsonCourseFileManager.*;
+import csb.data.Course;
+import csb.data.CoursePage;
+import csb.data.Instructor;
+import csb.data.Subject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Objects;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.JsonWriter;
+
+/**
+ * This class works out what changed between two versions of a course, as
+ * a JSON object holding just the fields that differ, and applies such
+ * changes to a course. The fields use the same names and values as in
+ * course files, so a diff from no course at all is the whole course.
+ *
+ * Note that a field's whole value is kept when it changes, so changing
+ * one page of a course keeps the whole pages array.
+ *
+ * @author Richard McKenna
+ */
+public class CourseDiff {
+    // THIS CLASS ONLY HAS STATIC METHODS
+    private CourseDiff() {
+    }
+
+    /**
+     * Works out the changes that turn before into after.
+     *
+     * @param before The course as it was, or null for a diff of everything.
+     * @param after The course as it is now.
+     *
+     * @return The fields of after that differ from before, which is empty
+     * when nothing changed.
+     */
+    public static JsonObject diff(Course before, Course after) {
+        JsonObjectBuilder changes = JsonFactories.BUILDER_FACTORY.createObjectBuilder();
+        boolean all = (before == null);
+        if (all || (before.getSubject() != after.getSubject())) {
+            addText(changes, JSON_SUBJECT, (after.getSubject() == null) ? null : after.getSubject().toString());
+        }
+        if (all || (before.getNumber() != after.getNumber())) {
+            changes.add(JSON_NUMBER, after.getNumber());
+        }
+        if (all || !Objects.equals(before.getTitle(), after.getTitle())) {
+            addText(changes, JSON_TITLE, after.getTitle());
+        }
+        if (all || (before.getPagesMask() != after.getPagesMask())) {
+            changes.add(JSON_PAGES, toJsonArray(after.getPages()));
+        }
+        if (all || !Objects.equals(before.getInstructor().getName(), after.getInstructor().getName())
+                || !Objects.equals(before.getInstructor().getHomepageURL(), after.getInstructor().getHomepageURL())) {
+            JsonObjectBuilder instructor = JsonFactories.BUILDER_FACTORY.createObjectBuilder();
+            addText(instructor, JSON_INSTRUCTOR_NAME, after.getInstructor().getName());
+            addText(instructor, JSON_HOMEPAGE_URL, after.getInstructor().getHomepageURL());
+            changes.add(JSON_INSTRUCTOR, instructor);
+        }
+        if (all || !Objects.equals(before.getStartingMonday(), after.getStartingMonday())) {
+            addDate(changes, JSON_STARTING_MONDAY, after.getStartingMonday());
+        }
+        if (all || !Objects.equals(before.getEndingFriday(), after.getEndingFriday())) {
+            addDate(changes, JSON_ENDING_FRIDAY, after.getEndingFriday());
+        }
+        if (all || (before.getLectureDaysMask() != after.getLectureDaysMask())) {
+            changes.add(JSON_LECTURE_DAYS, toJsonArray(after.getLectureDays()));
+        }
+        if (all || !Objects.equals(before.getSemester(), after.getSemester())) {
+            addText(changes, JSON_SEMESTER, after.getSemester());
+        }
+        if (all || (before.getYear() != after.getYear())) {
+            changes.add(JSON_YEAR, after.getYear());
+        }
+        return changes.build();
+    }
+
+    /**
+     * Applies changes made by diff to course.
+     *
+     * @param changes The changes to make.
+     * @param course The course to change.
+     *
+     * @throws IOException Thrown when changes has a value of the wrong
+     * type or one that isn't a subject, page or day of the week, in which
+     * case the course may have been partly changed.
+     */
+    public static void apply(JsonObject changes, Course course) throws IOException {
+        try {
+            if (changes.containsKey(JSON_SUBJECT)) {
+                String subject = getText(changes, JSON_SUBJECT);
+                course.setSubject((subject == null) ? null : Subject.valueOf(subject));
+            }
+            if (changes.containsKey(JSON_NUMBER)) {
+                course.setNumber(changes.getInt(JSON_NUMBER));
+            }
+            if (changes.containsKey(JSON_TITLE)) {
+                course.setTitle(getText(changes, JSON_TITLE));
+            }
+            if (changes.containsKey(JSON_PAGES)) {
+                course.clearPages();
+                for (JsonValue page : changes.getJsonArray(JSON_PAGES)) {
+                    course.addPage(CoursePage.valueOf(toText(page)));
+                }
+            }
+            if (changes.containsKey(JSON_INSTRUCTOR)) {
+                JsonObject instructor = changes.getJsonObject(JSON_INSTRUCTOR);
+                course.setInstructor(new Instructor(getText(instructor, JSON_INSTRUCTOR_NAME),
+                        getText(instructor, JSON_HOMEPAGE_URL)));
+            }
+            if (changes.containsKey(JSON_STARTING_MONDAY)) {
+                course.setStartingMonday(getDate(changes, JSON_STARTING_MONDAY));
+            }
+            if (changes.containsKey(JSON_ENDING_FRIDAY)) {
+                course.setEndingFriday(getDate(changes, JSON_ENDING_FRIDAY));
+            }
+            if (changes.containsKey(JSON_LECTURE_DAYS)) {
+                course.clearLectureDays();
+                for (JsonValue lectureDay : changes.getJsonArray(JSON_LECTURE_DAYS)) {
+                    course.addLectureDay(DayOfWeek.valueOf(toText(lectureDay)));
+                }
+            }
+            if (changes.containsKey(JSON_SEMESTER)) {
+                course.setSemester(getText(changes, JSON_SEMESTER));
+            }
+            if (changes.containsKey(JSON_YEAR)) {
+                course.setYear(changes.getInt(JSON_YEAR));
+            }
+        } catch (ClassCastException | IllegalArgumentException | NullPointerException | DateTimeException e) {
+            throw new IOException("Invalid course changes: " + e.getMessage(), e);
+        }
+    }
+
+    // changes AS ONE LINE OF A JOURNAL OR PATCH FILE
+    static byte[] toLine(JsonObject changes) {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        try (JsonWriter jsonWriter = JsonFactories.WRITER_FACTORY.createWriter(line, StandardCharsets.UTF_8)) {
+            jsonWriter.writeObject(changes);
+        }
+        line.write('\n');
+        return line.toByteArray();
+    }
+
+    // APPLIES EACH LINE OF lines TO course IN TURN, STOPPING AT THE FIRST
+    // ONE THAT ISN'T A COMPLETE SET OF CHANGES, LIKE ONE THAT WAS ONLY
+    // PARTLY WRITTEN, AND RETURNS HOW MANY LINES AND BYTES WERE APPLIED
+    static long[] applyLines(byte[] lines, Course course) {
+        Course changed = new Course(new Instructor("", ""));
+        long linesApplied = 0;
+        int lineStart = 0;
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i] != '\n') {
+                continue;
+            }
+            try (JsonReader jsonReader = JsonFactories.READER_FACTORY.createReader(
+                    new ByteArrayInputStream(lines, lineStart, i - lineStart), StandardCharsets.UTF_8)) {
+                JsonObject changes = jsonReader.readObject();
+                CourseRepository.copyCourse(course, changed);
+                apply(changes, changed);
+            } catch (JsonException | IOException e) {
+                // EVERYTHING FROM HERE ON CAN'T BE TRUSTED
+                break;
+            }
+            CourseRepository.copyCourse(changed, course);
+            linesApplied++;
+            lineStart = i + 1;
+        }
+        return new long[]{linesApplied, lineStart};
+    }
+
+    // TEXT MAY BE MISSING, LIKE THE TITLE OF A COURSE NOBODY'S TYPED IN YET
+    private static void addText(JsonObjectBuilder builder, String name, String text) {
+        if (text == null) {
+            builder.addNull(name);
+        } else {
+            builder.add(name, text);
+        }
+    }
+
+    private static String getText(JsonObject json, String name) {
+        return json.isNull(name) ? null : json.getString(name);
+    }
+
+    private static String toText(JsonValue value) {
+        return ((JsonString) value).getString();
+    }
+
+    private static void addDate(JsonObjectBuilder builder, String name, LocalDate date) {
+        if (date == null) {
+            builder.addNull(name);
+        } else {
+            builder.add(name, JsonFactories.BUILDER_FACTORY.createObjectBuilder()
+                    .add(JSON_YEAR, date.getYear())
+                    .add(JSON_MONTH, date.getMonthValue())
+                    .add(JSON_DAY, date.getDayOfMonth()));
+        }
+    }
+
+    private static LocalDate getDate(JsonObject json, String name) {
+        if (json.isNull(name)) {
+            return null;
+        }
+        JsonObject date = json.getJsonObject(name);
+        return LocalDate.of(date.getInt(JSON_YEAR), date.getInt(JSON_MONTH), date.getInt(JSON_DAY));
+    }
+
+    private static JsonArray toJsonArray(List<?> values) {
+        JsonArrayBuilder array = JsonFactories.BUILDER_FACTORY.createArrayBuilder();
+        for (Object value : values) {
+            array.add(value.toString());
+        }
+        return array.build();
+    }
+}
@@ -0,0 +1,459 @@
+package csb.file;
+
+import csb.data.Course;
+import csb.data.Instructor;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.json.JsonObject;
+
+/**
+ * This class keeps a journal of the edits made to the course being
+ * edited, so they aren't lost if the program dies before the course is
+ * saved. Each edit is written as one line holding just the fields that
+ * changed, after a first line holding the whole course, so replaying the
+ * journal gives back the course as it was at the last edit.
+ *
+ * Edits are written on a background thread, so recording one never
+ * waits on the disk. Edits that come in close together are written and
+ * synced to the disk together, so a burst of typing costs one sync rather
+ * than one per keystroke. Every so often the journal starts over with
+ * just the whole course, so it never gets long. Note that the course file
+ * itself is never touched, since the user may still decide not to keep
+ * the edits.
+ *
+ * Journals are hidden files in the courses directory, each with a name of
+ * its own. Any found at startup are from edits that never got saved,
+ * which recover replays so they can be offered to the user, who can then
+ * resume editing them. Their journals are kept until the user saves the
+ * course or decides not to keep the edits.
+ *
+ * @author Richard McKenna
+ */
+public class CourseEditJournal {
+    // THE EXTENSION OUR JOURNALS USE
+    public static final String JOURNAL_EXT = ".journal";
+
+    // HOW LONG WE WAIT FOR MORE EDITS BEFORE WRITING WHAT WE HAVE
+    public static final long GROUP_COMMIT_MILLIS = 25;
+
+    // WE START THE JOURNAL OVER AFTER THIS MANY EDITS
+    public static final int COMPACT_AFTER_EDITS = 100;
+
+    // OR ONCE ITS OLDEST UNSAVED EDIT IS THIS OLD
+    public static final long COMPACT_AFTER_MILLIS = 60000;
+
+    // HOW LONG flush WAITS FOR THE JOURNAL TO BE WRITTEN
+    public static final long FLUSH_TIMEOUT_MILLIS = 30000;
+
+    // WHERE THE JOURNALS GO
+    File coursesDir;
+
+    // THE JOURNAL OF THE COURSE BEING EDITED AND THE COURSE AS OF ITS LAST
+    // EDIT, WHICH IS NULL UNTIL SOMETHING IS WRITTEN TO IT. NOTE THAT
+    // THESE ARE GUARDED BY this
+    File journalFile;
+    Course lastRecorded;
+
+    // EVERYTHING THE WRITER THREAD HAS TO DO, IN ORDER
+    LinkedBlockingQueue<JournalOp> ops;
+    Thread writerThread;
+
+    // THE LAST THING THAT WENT WRONG WRITING, WHICH flush REPORTS, AND
+    // WHETHER THE JOURNAL HAS TO START OVER SINCE EDITS MAY HAVE BEEN LOST
+    volatile IOException writeFailure;
+    volatile boolean restartNeeded;
+
+    // BELOW IS ONLY EVER USED BY THE WRITER THREAD
+
+    // THE OPEN JOURNAL AND EDITS WAITING TO BE WRITTEN TO IT
+    FileChannel channel;
+    File channelFile;
+    ByteArrayOutputStream pendingEdits;
+
+    // THE COURSE AS OF THE LAST EDIT WRITTEN, AND HOW MANY EDITS HAVE BEEN
+    // WRITTEN SINCE THE JOURNAL WAS LAST STARTED OVER
+    Course latestCourse;
+    int editsSinceCompaction;
+    long firstEditTime;
+
+    /**
+     * This constructor sets up a journal for the courses in initCoursesDir.
+     * Note that nothing is journaled until open is called.
+     *
+     * @param initCoursesDir Directory where the journals go.
+     */
+    public CourseEditJournal(String initCoursesDir) {
+        coursesDir = new File(initCoursesDir);
+        ops = new LinkedBlockingQueue();
+        pendingEdits = new ByteArrayOutputStream();
+        writerThread = new Thread(this::writeLoop, "course-journal");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Starts journaling edits to course, throwing away the journal of
+     * whatever course was being edited before.
+     *
+     * @param course The course about to be edited.
+     */
+    public synchronized void open(Course course) {
+        discard();
+        journalFile = getJournalFile(course);
+    }
+
+    /**
+     * Loads the course recovered from a journal into courseToLoad and goes
+     * on journaling its edits to that same journal, throwing away the
+     * journal of whatever course was being edited before. Note that the
+     * recovered journal stays until the course is saved or discarded.
+     *
+     * @param recovered The course recovered from a journal.
+     * @param courseToLoad The course about to be edited.
+     */
+    public synchronized void resume(RecoveredCourse recovered, Course courseToLoad) {
+        CourseRepository.copyCourse(recovered.course, courseToLoad);
+        discard();
+        journalFile = recovered.journalFile;
+    }
+
+    /**
+     * Records course as it is now, if it's changed since it was last
+     * recorded. This returns right away, the edit is written later.
+     *
+     * @param course The course being edited.
+     */
+    public synchronized void record(Course course) {
+        if (journalFile == null) {
+            return;
+        }
+        if (restartNeeded) {
+            restartNeeded = false;
+            lastRecorded = null;
+        }
+        JsonObject changes = CourseDiff.diff(lastRecorded, course);
+        if (changes.isEmpty()) {
+            return;
+        }
+        boolean wholeCourse = (lastRecorded == null);
+        lastRecorded = copyOf(course);
+        ops.add(new JournalOp(wholeCourse ? JournalOp.START : JournalOp.EDIT, journalFile, CourseDiff.toLine(changes),
+                copyOf(course)));
+    }
+
+    /**
+     * Throws away the journal, like once its edits have been saved or the
+     * user has decided not to keep them. Edits recorded after this start
+     * a new journal.
+     */
+    public synchronized void discard() {
+        if (journalFile != null) {
+            ops.add(new JournalOp(JournalOp.DISCARD, journalFile, null, null));
+        }
+        lastRecorded = null;
+    }
+
+    /**
+     * Waits for everything recorded so far to be written to the disk.
+     *
+     * @throws IOException Thrown when something couldn't be written since
+     * the last flush.
+     */
+    public void flush() throws IOException {
+        JournalOp flushOp = new JournalOp(JournalOp.FLUSH, null, null, null);
+        ops.add(flushOp);
+        try {
+            flushOp.done.get(FLUSH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IOException("Unable to write the edit journal", e);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the edit journal", ie);
+        }
+        IOException failure = writeFailure;
+        writeFailure = null;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes everything recorded so far and then stops journaling.
+     *
+     * @throws IOException Thrown when something couldn't be written.
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            writerThread.interrupt();
+        }
+    }
+
+    /**
+     * Replays every journal left in coursesDir, getting each course as it
+     * was at its last recorded edit. Note that nothing is saved or deleted,
+     * since the user may still decide not to keep the edits, and that a
+     * journal that can't be replayed is left alone for next time.
+     *
+     * @param coursesDir Directory containing the course files and journals.
+     *
+     * @return The courses that were recovered, most recently edited first.
+     *
+     * @throws IOException Thrown when coursesDir can't be listed.
+     */
+    public static List<RecoveredCourse> recover(String coursesDir) throws IOException {
+        File[] journalFiles = new File(coursesDir).listFiles((dir, name) ->
+                name.startsWith(".") && name.endsWith(JOURNAL_EXT));
+        if (journalFiles == null) {
+            throw new IOException("Unable to list course journals in " + coursesDir);
+        }
+        Arrays.sort(journalFiles, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        ArrayList<RecoveredCourse> recovered = new ArrayList();
+        for (File journal : journalFiles) {
+            try {
+                Course course = replay(journal);
+                if (course != null) {
+                    recovered.add(new RecoveredCourse(journal, course));
+                }
+            } catch (IOException | RuntimeException e) {
+                // LEAVE IT FOR NEXT TIME
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * Gets the course as it was at the last edit in journal. Note that
+     * an edit that was only partly written, like when the program died
+     * while writing it, is left out along with everything after it.
+     *
+     * @param journal The journal to replay.
+     *
+     * @return The course, or null if the journal has no complete edits.
+     *
+     * @throws IOException Thrown when the journal can't be read.
+     */
+    public static Course replay(File journal) throws IOException {
+        Course course = new Course(new Instructor("", ""));
+        long[] applied = CourseDiff.applyLines(Files.readAllBytes(journal.toPath()), course);
+        return (applied[0] > 0) ? course : null;
+    }
+
+    // A NEW JOURNAL FOR course, WHICH IS NAMED AFTER IT AS IT IS WHEN IT'S
+    // OPENED AND WHEN, SO IT NEVER REPLACES ONE THAT HASN'T BEEN RECOVERED
+    File getJournalFile(Course course) {
+        String key = CourseCatalog.getCourseKey(course.getSubject(), course.getNumber());
+        for (long openTime = System.currentTimeMillis(); ; openTime++) {
+            File journal = new File(coursesDir, "." + key + "-" + openTime + JOURNAL_EXT);
+            if (!journal.exists()) {
+                return journal;
+            }
+        }
+    }
+
+    // AND HERE'S EVERYTHING THE WRITER THREAD DOES
+
+    private void writeLoop() {
+        ArrayList<JournalOp> batch = new ArrayList();
+        try {
+            while (true) {
+                // WAIT FOR SOMETHING TO DO AND THEN A LITTLE LONGER FOR ANY
+                // EDITS RIGHT BEHIND IT, UNLESS SOMEONE'S WAITING ON US
+                batch.add(ops.take());
+                long deadline = System.currentTimeMillis() + GROUP_COMMIT_MILLIS;
+                long waitLeft;
+                while ((batch.get(batch.size() - 1).kind != JournalOp.FLUSH)
+                        && ((waitLeft = deadline - System.currentTimeMillis()) > 0)) {
+                    JournalOp op = ops.poll(waitLeft, TimeUnit.MILLISECONDS);
+                    if (op == null) {
+                        break;
+                    }
+                    batch.add(op);
+                }
+                ops.drainTo(batch);
+                writeBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException ie) {
+            // WE'VE BEEN CLOSED
+        } finally {
+            closeChannel();
+        }
+    }
+
+    // DOES EVERYTHING IN batch AND THEN SYNCS IT ALL AT ONCE
+    private void writeBatch(List<JournalOp> batch) {
+        try {
+            for (JournalOp op : batch) {
+                if (op.kind == JournalOp.START) {
+                    startOver(op.journal, op.line);
+                    latestCourse = op.course;
+                } else if (op.kind == JournalOp.EDIT) {
+                    switchTo(op.journal);
+                    pendingEdits.write(op.line, 0, op.line.length);
+                    latestCourse = op.course;
+                    if (editsSinceCompaction++ == 0) {
+                        firstEditTime = System.currentTimeMillis();
+                    }
+                } else if (op.kind == JournalOp.DISCARD) {
+                    if (op.journal.equals(channelFile)) {
+                        pendingEdits.reset();
+                        closeChannel();
+                        latestCourse = null;
+                        editsSinceCompaction = 0;
+                    }
+                    Files.deleteIfExists(op.journal.toPath());
+                }
+            }
+            commit();
+
+            // EVERY SO OFTEN, START THE JOURNAL OVER WITH JUST THE WHOLE
+            // COURSE. NOTE THAT THE EDITS STAY UNSAVED, IT'S ONLY THE
+            // JOURNAL THAT GETS SHORTER
+            if ((latestCourse != null) && ((editsSinceCompaction >= COMPACT_AFTER_EDITS)
+                    || ((editsSinceCompaction > 0)
+                        && (System.currentTimeMillis() - firstEditTime >= COMPACT_AFTER_MILLIS)))) {
+                startOver(channelFile, CourseDiff.toLine(CourseDiff.diff(null, latestCourse)));
+            }
+        } catch (IOException | RuntimeException e) {
+            writeFailure = (e instanceof IOException) ? (IOException) e : new IOException(e);
+            restartNeeded = true;
+            pendingEdits.reset();
+            closeChannel();
+        }
+        for (JournalOp op : batch) {
+            if (op.kind == JournalOp.FLUSH) {
+                op.done.complete(null);
+            }
+        }
+    }
+
+    // REPLACES journal WITH ONE HOLDING JUST line, WHICH IS THE WHOLE
+    // COURSE. NOTE THAT THE NEW JOURNAL IS WRITTEN BESIDE THE OLD ONE AND
+    // MOVED OVER IT, SO THERE'S NEVER A MOMENT WITHOUT A USABLE JOURNAL
+    private void startOver(File journal, byte[] line) throws IOException {
+        pendingEdits.reset();
+        closeChannel();
+        Path journalPath = journal.toPath();
+        Path tempPath = journalPath.resolveSibling(journal.getName() + ".tmp");
+        try {
+            try (FileChannel tempChannel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                writeFully(tempChannel, line);
+                tempChannel.force(false);
+            }
+            Files.move(tempPath, journalPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+        switchTo(journal);
+        editsSinceCompaction = 0;
+    }
+
+    // MAKES SURE THE CHANNEL IS OPEN ON journal, WRITING OUT ANY EDITS
+    // FOR ANOTHER JOURNAL FIRST
+    private void switchTo(File journal) throws IOException {
+        if (journal.equals(channelFile) && (channel != null)) {
+            return;
+        }
+        commit();
+        closeChannel();
+        channel = FileChannel.open(journal.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        channelFile = journal;
+    }
+
+    // WRITES OUT ALL THE PENDING EDITS AND SYNCS THEM TO THE DISK
+    private void commit() throws IOException {
+        if ((channel == null) || (pendingEdits.size() == 0)) {
+            return;
+        }
+        writeFully(channel, pendingEdits.toByteArray());
+        pendingEdits.reset();
+        channel.force(false);
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ioe) {
+                // THERE'S NOTHING LEFT IN IT TO LOSE
+            }
+        }
+        channel = null;
+        channelFile = null;
+    }
+
+    private static void writeFully(FileChannel fileChannel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            fileChannel.write(buffer);
+        }
+    }
+
+    private static Course copyOf(Course course) {
+        Course copy = new Course(new Instructor("", ""));
+        CourseRepository.copyCourse(course, copy);
+        return copy;
+    }
+
+    /**
+     * A course replayed from a journal left by edits that never got saved,
+     * along with that journal.
+     */
+    public static class RecoveredCourse {
+        final File journalFile;
+        final Course course;
+
+        RecoveredCourse(File initJournalFile, Course initCourse) {
+            journalFile = initJournalFile;
+            course = initCourse;
+        }
+
+        public File getJournalFile() {
+            return journalFile;
+        }
+
+        public Course getCourse() {
+            return course;
+        }
+    }
+
+    // SOMETHING FOR THE WRITER THREAD TO DO
+    private static class JournalOp {
+        static final int START = 0;
+        static final int EDIT = 1;
+        static final int DISCARD = 2;
+        static final int FLUSH = 3;
+
+        final int kind;
+        final File journal;
+        final byte[] line;
+        final Course course;
+        final CompletableFuture<Void> done = new CompletableFuture();
+
+        JournalOp(int initKind, File initJournal, byte[] initLine, Course initCourse) {
+            kind = initKind;
+            journal = initJournal;
+            line = initLine;
+            course = initCourse;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package csb.file;
+
+import csb.data.Course;
+import csb.data.Instructor;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class converts course files between the JSON and binary formats.
+ * Which way a file gets converted is decided by its extension, so a .json
+ * file becomes a .csb file and a .csb file becomes a .json file.
+ *
+ * @author Richard McKenna
+ */
+public class CourseFileConverter {
+    // THESE DO THE ACTUAL LOADING AND SAVING
+    JsonCourseFileManager jsonFileManager;
+    BinaryCourseFileManager binaryFileManager;
+
+    /**
+     * This constructor sets up a converter with its own file managers.
+     */
+    public CourseFileConverter() {
+        jsonFileManager = new JsonCourseFileManager();
+        binaryFileManager = new BinaryCourseFileManager();
+    }
+
+    /**
+     * Converts the course in sourceFile into the other format, saving it
+     * to targetFile.
+     *
+     * @param sourceFile A .json or .csb course file.
+     * @param targetFile Where to save the course, replacing any file there.
+     *
+     * @throws IOException Thrown when sourceFile isn't a course file we
+     * know, or can't be loaded, or targetFile can't be saved.
+     */
+    public void convertCourse(File sourceFile, File targetFile) throws IOException {
+        Course course = new Course(new Instructor("", ""));
+        String sourcePath = sourceFile.getPath();
+        if (sourcePath.endsWith(JsonCourseFileManager.JSON_EXT)) {
+            jsonFileManager.loadCourse(course, sourcePath);
+            binaryFileManager.saveCourse(course, targetFile.getPath());
+        } else if (sourcePath.endsWith(BinaryCourseFileManager.BINARY_EXT)) {
+            binaryFileManager.loadCourse(course, sourcePath);
+            jsonFileManager.saveCourse(course, targetFile.getPath());
+        } else {
+            throw new IOException("Not a course file: " + sourcePath);
+        }
+    }
+
+    /**
+     * Converts the course in sourceFile into the other format, saving it
+     * next to sourceFile under the same name but with the other extension.
+     *
+     * @param sourceFile A .json or .csb course file.
+     *
+     * @return The converted file.
+     *
+     * @throws IOException Thrown when sourceFile can't be converted.
+     */
+    public File convertCourse(File sourceFile) throws IOException {
+        File targetFile = new File(sourceFile.getParentFile(), getConvertedName(sourceFile.getName()));
+        convertCourse(sourceFile, targetFile);
+        return targetFile;
+    }
+
+    /**
+     * Converts every course file in coursesDir whose name ends in fromExt
+     * into the other format, next to the original.
+     *
+     * @param coursesDir Directory containing the course files.
+     * @param fromExt The extension of the format being converted from.
+     *
+     * @return The converted files.
+     *
+     * @throws IOException Thrown when coursesDir can't be listed or any
+     * file can't be converted, in which case the files before it have
+     * already been converted.
+     */
+    public List<File> convertDirectory(String coursesDir, String fromExt) throws IOException {
+        File[] sourceFiles = new File(coursesDir).listFiles((dir, name) -> name.endsWith(fromExt));
+        if (sourceFiles == null) {
+            throw new IOException("Unable to list course files in " + coursesDir);
+        }
+        Arrays.sort(sourceFiles);
+        ArrayList<File> converted = new ArrayList();
+        for (File sourceFile : sourceFiles) {
+            converted.add(convertCourse(sourceFile));
+        }
+        return converted;
+    }
+
+    // THE NAME OF A COURSE FILE ONCE IT'S IN THE OTHER FORMAT
+    private static String getConvertedName(String fileName) throws IOException {
+        if (fileName.endsWith(JsonCourseFileManager.JSON_EXT)) {
+            return fileName.substring(0, fileName.length() - JsonCourseFileManager.JSON_EXT.length())
+                    + BinaryCourseFileManager.BINARY_EXT;
+        } else if (fileName.endsWith(BinaryCourseFileManager.BINARY_EXT)) {
+            return fileName.substring(0, fileName.length() - BinaryCourseFileManager.BINARY_EXT.length())
+                    + JsonCourseFileManager.JSON_EXT;
+        }
+        throw new IOException("Not a course file: " + fileName);
+    }
+}
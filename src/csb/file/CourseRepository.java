@@ -0,0 +1,274 @@
+package csb.file;
+
+import csb.data.Course;
+import csb.data.Instructor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This is a CourseFileManager that keeps the courses it loads in memory,
+ * so that opening or exporting the same course again doesn't have to read
+ * and parse its file again. The actual loading and saving is left to
+ * another CourseFileManager.
+ *
+ * A cached course is only used if its file still has the same modified
+ * time and size as when it was loaded, which only takes a quick look at
+ * the file rather than reading it. Only so many courses are kept, and when
+ * there are too many the one used least recently is dropped.
+ *
+ * Note that courses are mutable, so callers never get the cached course
+ * itself, just a copy of it, and that one repository may be shared by any
+ * number of threads.
+ *
+ * @author Richard McKenna
+ */
+public class CourseRepository implements CourseFileManager {
+    // HOW MANY COURSES WE KEEP BY DEFAULT
+    public static final int DEFAULT_MAX_COURSES = 64;
+
+    // HOW MANY LOCKS SAVES ARE SPREAD ACROSS, WHICH MUST BE A POWER OF TWO
+    static final int SAVE_LOCKS = 16;
+
+    // THIS GUY DOES ALL THE ACTUAL LOADING AND SAVING
+    CourseFileManager courseIO;
+
+    // WHERE courseIO SAVES COURSES
+    File coursesDir;
+
+    // THE CACHED COURSES BY THE ABSOLUTE PATHS OF THEIR FILES, IN THE
+    // ORDER THEY WERE LAST USED. NOTE THAT ALL ACCESS TO IT, EVEN JUST
+    // GETTING AN ENTRY, HAS TO BE SYNCHRONIZED ON IT SINCE THAT CHANGES
+    // THE ORDER
+    LinkedHashMap<String, CachedCourse> courses;
+
+    // A COURSE CAN ONLY BE SAVED WHILE HOLDING THE ONE OF THESE ASSIGNED
+    // TO ITS KEY, SO THAT WHAT WE CACHE FOR IT ALWAYS GOES WITH ITS FILE
+    Object[] saveLocks;
+
+    // FOR SEEING HOW WELL THE CACHE IS WORKING
+    long hits;
+    long misses;
+
+    /**
+     * This constructor sets up a repository that keeps up to
+     * DEFAULT_MAX_COURSES courses.
+     *
+     * @param initCourseIO The object that will be loading and saving.
+     * @param initCoursesDir The directory initCourseIO saves courses to.
+     */
+    public CourseRepository(CourseFileManager initCourseIO, String initCoursesDir) {
+        this(initCourseIO, initCoursesDir, DEFAULT_MAX_COURSES);
+    }
+
+    /**
+     * This constructor sets up a repository that keeps up to initMaxCourses
+     * courses.
+     *
+     * @param initCourseIO The object that will be loading and saving.
+     * @param initCoursesDir The directory initCourseIO saves courses to.
+     * @param initMaxCourses The most courses to keep in memory.
+     */
+    public CourseRepository(CourseFileManager initCourseIO, String initCoursesDir, int initMaxCourses) {
+        courseIO = initCourseIO;
+        coursesDir = new File(initCoursesDir);
+        saveLocks = new Object[SAVE_LOCKS];
+        for (int i = 0; i < SAVE_LOCKS; i++) {
+            saveLocks[i] = new Object();
+        }
+        int maxCourses = Math.max(1, initMaxCourses);
+        courses = new LinkedHashMap<String, CachedCourse>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedCourse> eldest) {
+                return size() > maxCourses;
+            }
+        };
+    }
+
+    /**
+     * Loads the course in coursePath into courseToLoad, using the cached
+     * copy if the file hasn't changed since it was cached.
+     *
+     * @param courseToLoad Course to load.
+     * @param coursePath File containing the data to load.
+     *
+     * @throws IOException Thrown when the file has to be loaded and can't be.
+     */
+    @Override
+    public void loadCourse(Course courseToLoad, String coursePath) throws IOException {
+        Path path = Paths.get(coursePath).toAbsolutePath().normalize();
+        String key = path.toString();
+        BasicFileAttributes attrs = readAttributes(path);
+
+        CachedCourse cached;
+        synchronized (courses) {
+            cached = courses.get(key);
+            if ((cached != null) && cached.matches(attrs)) {
+                hits++;
+                copyCourse(cached.course, courseToLoad);
+                return;
+            }
+            misses++;
+        }
+
+        // NOTE THAT WE LOAD INTO A COURSE OF OUR OWN, SO THE CALLER'S COURSE
+        // IS ONLY CHANGED IF THE LOAD WORKS
+        Course loadedCourse = new Course(new Instructor("", ""));
+        courseIO.loadCourse(loadedCourse, coursePath);
+        put(key, loadedCourse, attrs);
+        copyCourse(loadedCourse, courseToLoad);
+    }
+
+    /**
+     * Saves courseToSave and then caches it, so opening it again doesn't
+     * need to load it.
+     *
+     * @param courseToSave The course whose data we are saving.
+     *
+     * @throws IOException Thrown when the course can't be saved.
+     */
+    @Override
+    public void saveCourse(Course courseToSave) throws IOException {
+        Path path = new File(coursesDir, CourseCatalog.getCourseKey(courseToSave.getSubject(), courseToSave.getNumber())
+                + courseIO.getCourseFileExtension()).toPath().toAbsolutePath().normalize();
+        String key = path.toString();
+        Course savedCourse = new Course(new Instructor("", ""));
+        copyCourse(courseToSave, savedCourse);
+
+        // NOTE THAT OTHERWISE TWO SAVES OF THE SAME COURSE AT ONCE COULD
+        // LEAVE ONE'S COURSE CACHED WITH THE OTHER'S FILE ATTRIBUTES
+        synchronized (getSaveLock(key)) {
+            courseIO.saveCourse(courseToSave);
+            try {
+                put(key, savedCourse, readAttributes(path));
+            } catch (IOException ioe) {
+                // IT'S SAVED, IT JUST WON'T BE CACHED
+                invalidate(key);
+            }
+        }
+    }
+
+    @Override
+    public void saveLastInstructor(Instructor lastInstructor, String filePath) throws IOException {
+        courseIO.saveLastInstructor(lastInstructor, filePath);
+    }
+
+    @Override
+    public Instructor loadLastInstructor(String filePath) throws IOException {
+        return courseIO.loadLastInstructor(filePath);
+    }
+
+    @Override
+    public void saveSubjects(List<Object> subjects, String filePath) throws IOException {
+        courseIO.saveSubjects(subjects, filePath);
+    }
+
+    @Override
+    public ArrayList<String> loadSubjects(String filePath) throws IOException {
+        return courseIO.loadSubjects(filePath);
+    }
+
+    @Override
+    public String getCourseFileExtension() {
+        return courseIO.getCourseFileExtension();
+    }
+
+    /**
+     * Drops the cached course for coursePath, if there is one.
+     *
+     * @param coursePath The course's file.
+     */
+    public void invalidate(String coursePath) {
+        String key = Paths.get(coursePath).toAbsolutePath().normalize().toString();
+        synchronized (courses) {
+            courses.remove(key);
+        }
+    }
+
+    /**
+     * Drops all the cached courses.
+     */
+    public void clear() {
+        synchronized (courses) {
+            courses.clear();
+        }
+    }
+
+    public int getCachedCourseCount() {
+        synchronized (courses) {
+            return courses.size();
+        }
+    }
+
+    public long getHits() {
+        synchronized (courses) {
+            return hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (courses) {
+            return misses;
+        }
+    }
+
+    private Object getSaveLock(String key) {
+        int hash = key.hashCode();
+        return saveLocks[(hash ^ (hash >>> 16)) & (SAVE_LOCKS - 1)];
+    }
+
+    private void put(String key, Course course, BasicFileAttributes attrs) {
+        CachedCourse cached = new CachedCourse(course, attrs);
+        synchronized (courses) {
+            courses.put(key, cached);
+        }
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException nsfe) {
+            throw new IOException("No course file at " + path, nsfe);
+        }
+    }
+
+    // MAKES to THE SAME AS from, WITHOUT SHARING ANYTHING MUTABLE
+    static void copyCourse(Course from, Course to) {
+        to.setSubject(from.getSubject());
+        to.setNumber(from.getNumber());
+        to.setTitle(from.getTitle());
+        to.setSemester(from.getSemester());
+        to.setYear(from.getYear());
+        to.setPagesMask(from.getPagesMask());
+        to.setLectureDaysMask(from.getLectureDaysMask());
+        to.setInstructor(new Instructor(from.getInstructor().getName(), from.getInstructor().getHomepageURL()));
+        to.setStartingMonday(from.getStartingMonday());
+        to.setEndingFriday(from.getEndingFriday());
+    }
+
+    // A COURSE ALONG WITH WHAT WE NEED TO KNOW
+    // TO DECIDE IF IT'S STILL UP TO DATE
+    private static class CachedCourse {
+        final Course course;
+        final long lastModified;
+        final long size;
+
+        CachedCourse(Course initCourse, BasicFileAttributes attrs) {
+            course = initCourse;
+            lastModified = attrs.lastModifiedTime().toMillis();
+            size = attrs.size();
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return (lastModified == attrs.lastModifiedTime().toMillis()) && (size == attrs.size());
+        }
+    }
+}
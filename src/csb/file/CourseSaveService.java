@@ -0,0 +1,264 @@
+package csb.file;
+
+import csb.data.Course;
+import csb.data.Instructor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class saves courses and instructors on a background thread, so
+ * whoever asks for a save, like the user interface, never has to wait for
+ * the file to be written. What's saved is a copy of the course taken when
+ * the save is asked for, so the course can go on being edited right away.
+ *
+ * Saves are written one at a time, in the order they were asked for. If
+ * the same course is saved again before its earlier save has started,
+ * the two are combined into a single write of the newer copy.
+ *
+ * Note that the futures saves return are completed using the callback
+ * executor, so when that's the user interface thread anything chained on
+ * to them runs there too.
+ *
+ * A save that fails is remembered until a flush reports it, or until a
+ * later save of the same thing is written, so that no matter how soon it
+ * fails, whoever flushes before letting go of the course finds out.
+ *
+ * @author Richard McKenna
+ */
+public class CourseSaveService {
+    // HOW LONG flush WAITS FOR SAVES BY DEFAULT
+    public static final long FLUSH_TIMEOUT_MILLIS = 30000;
+
+    // THIS GUY DOES THE ACTUAL WRITING
+    CourseFileManager courseIO;
+
+    // WHERE WE REPORT BACK THAT SAVES ARE DONE
+    Executor callbackExecutor;
+
+    // THE ONE THREAD ALL THE WRITING HAPPENS ON
+    ExecutorService writer;
+
+    // SAVES THAT HAVEN'T STARTED YET, BY WHAT THEY'RE SAVING, WHICH IS
+    // WHAT LETS US COMBINE THEM. NOTE THAT ACCESS IS SYNCHRONIZED ON IT
+    HashMap<String, PendingSave> pendingSaves;
+
+    // EVERY SAVE THAT HASN'T FINISHED YET, FOR flush
+    ArrayList<CompletableFuture<Void>> unfinishedWrites;
+
+    // SAVES THAT FAILED AND NO FLUSH HAS REPORTED YET, BY WHAT THEY SAVE
+    HashMap<String, IOException> failedSaves;
+
+    /**
+     * This constructor sets up a save service that writes using
+     * initCourseIO and reports back using initCallbackExecutor.
+     *
+     * @param initCourseIO The object that will be writing the files.
+     * @param initCallbackExecutor Runs the completion of every save, like
+     * Platform::runLater for the user interface.
+     */
+    public CourseSaveService(CourseFileManager initCourseIO, Executor initCallbackExecutor) {
+        courseIO = initCourseIO;
+        callbackExecutor = initCallbackExecutor;
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "course-saver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pendingSaves = new HashMap();
+        unfinishedWrites = new ArrayList();
+        failedSaves = new HashMap();
+    }
+
+    /**
+     * Saves a copy of courseToSave in the background.
+     *
+     * @param courseToSave The course to save, which may go on being edited
+     * as soon as this returns.
+     *
+     * @return A future that completes once the course is saved, or
+     * completes exceptionally with the IOException that stopped it.
+     */
+    public CompletableFuture<Void> saveCourse(Course courseToSave) {
+        Course snapshot = new Course(new Instructor("", ""));
+        CourseRepository.copyCourse(courseToSave, snapshot);
+        String key = "course:" + CourseCatalog.getCourseKey(snapshot.getSubject(), snapshot.getNumber());
+        return submit(key, () -> courseIO.saveCourse(snapshot));
+    }
+
+    /**
+     * Saves a copy of lastInstructor to filePath in the background.
+     *
+     * @param lastInstructor The instructor to save.
+     * @param filePath Where to save it.
+     *
+     * @return A future that completes once the instructor is saved, or
+     * completes exceptionally with the IOException that stopped it.
+     */
+    public CompletableFuture<Void> saveLastInstructor(Instructor lastInstructor, String filePath) {
+        Instructor snapshot = new Instructor(lastInstructor.getName(), lastInstructor.getHomepageURL());
+        return submit("instructor:" + filePath, () -> courseIO.saveLastInstructor(snapshot, filePath));
+    }
+
+    /**
+     * Waits for every save asked for so far to be written, like before
+     * exiting. Note that this blocks, so the user interface should use
+     * whenFlushed instead.
+     *
+     * @throws IOException Thrown when any of them couldn't be saved, or
+     * they didn't all finish within FLUSH_TIMEOUT_MILLIS.
+     */
+    public void flush() throws IOException {
+        ArrayList<CompletableFuture<Void>> writes;
+        synchronized (pendingSaves) {
+            writes = new ArrayList(unfinishedWrites);
+        }
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MILLIS;
+        for (CompletableFuture<Void> write : writes) {
+            try {
+                write.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException ee) {
+                // IT'S REMEMBERED AS FAILED, SO IT'S REPORTED BELOW
+            } catch (TimeoutException te) {
+                throw new IOException("Timed out waiting for saves to finish", te);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for saves to finish", ie);
+            }
+        }
+        IOException failure = takeFailure();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Finds out when every save asked for so far has been written, without
+     * waiting for them.
+     *
+     * @return A future, completed using the callback executor, that completes
+     * once they're all written, or completes exceptionally with the
+     * IOException that stopped one of them, including any that failed
+     * before this was called and that no flush has reported yet.
+     */
+    public CompletableFuture<Void> whenFlushed() {
+        CompletableFuture<Void>[] writes;
+        synchronized (pendingSaves) {
+            writes = unfinishedWrites.toArray(new CompletableFuture[unfinishedWrites.size()]);
+        }
+        CompletableFuture<Void> flushed = new CompletableFuture();
+        CompletableFuture.allOf(writes).whenComplete((ignored, writeFailure) -> {
+            // EVERY FAILED WRITE IS REMEMBERED BEFORE IT COMPLETES
+            IOException failure = takeFailure();
+            callbackExecutor.execute(() -> {
+                if (failure == null) {
+                    flushed.complete(null);
+                } else {
+                    flushed.completeExceptionally(failure);
+                }
+            });
+        });
+        return flushed;
+    }
+
+    /**
+     * Stops taking saves once the ones already asked for are written.
+     */
+    public void shutdown() {
+        writer.shutdown();
+    }
+
+    // QUEUES write, OR IF THERE'S ALREADY ONE FOR key THAT HASN'T STARTED
+    // YET, HAS IT DO write INSTEAD OF WHAT IT WAS GOING TO DO
+    private CompletableFuture<Void> submit(String key, IOAction write) {
+        synchronized (pendingSaves) {
+            PendingSave pending = pendingSaves.get(key);
+            if (pending != null) {
+                pending.write = write;
+                return pending.result;
+            }
+            pending = new PendingSave(key, write);
+            pendingSaves.put(key, pending);
+            unfinishedWrites.add(pending.written);
+            writer.execute(pending::run);
+            return pending.result;
+        }
+    }
+
+    // RETURNS ONE OF THE SAVES THAT FAILED SINCE THE LAST FLUSH, IF ANY,
+    // AND FORGETS THEM ALL SINCE THEY'VE NOW BEEN REPORTED
+    private IOException takeFailure() {
+        synchronized (pendingSaves) {
+            if (failedSaves.isEmpty()) {
+                return null;
+            }
+            IOException failure = failedSaves.values().iterator().next();
+            failedSaves.clear();
+            return failure;
+        }
+    }
+
+    // SOMETHING TO WRITE THAT CAN FAIL
+    private interface IOAction {
+        void run() throws IOException;
+    }
+
+    // A SAVE THAT'S BEEN ASKED FOR BUT NOT WRITTEN YET
+    private class PendingSave {
+        final String key;
+        IOAction write;
+
+        // THIS COMPLETES ON THE WRITER THREAD, FOR flush, WHILE result
+        // COMPLETES ON THE CALLBACK EXECUTOR, FOR WHOEVER ASKED FOR THE SAVE
+        final CompletableFuture<Void> written = new CompletableFuture();
+        final CompletableFuture<Void> result = new CompletableFuture();
+
+        PendingSave(String initKey, IOAction initWrite) {
+            key = initKey;
+            write = initWrite;
+        }
+
+        void run() {
+            // ONCE WE START, ANOTHER SAVE OF THE SAME THING HAS TO BE A NEW ONE
+            IOAction writeToDo;
+            synchronized (pendingSaves) {
+                pendingSaves.remove(key);
+                writeToDo = write;
+            }
+            IOException failure = null;
+            try {
+                writeToDo.run();
+            } catch (IOException ioe) {
+                failure = ioe;
+            } catch (RuntimeException re) {
+                failure = new IOException(re);
+            }
+
+            // REMEMBER HOW IT WENT BEFORE IT'S NO LONGER UNFINISHED, SO
+            // THERE'S NO MOMENT WHEN A FLUSH CAN'T SEE A FAILURE
+            synchronized (pendingSaves) {
+                if (failure == null) {
+                    failedSaves.remove(key);
+                } else {
+                    failedSaves.put(key, failure);
+                }
+                unfinishedWrites.remove(written);
+            }
+            if (failure == null) {
+                callbackExecutor.execute(() -> result.complete(null));
+                written.complete(null);
+            } else {
+                IOException saveFailure = failure;
+                callbackExecutor.execute(() -> result.completeExceptionally(saveFailure));
+                written.completeExceptionally(saveFailure);
+            }
+        }
+    }
+}
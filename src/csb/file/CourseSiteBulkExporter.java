@@ -0,0 +1,154 @@
+package csb.file;
+
+import csb.data.Course;
+import csb.data.Instructor;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class exports the sites of many courses at once, like when all of
+ * a department's sites have to be regenerated at the start of a semester.
+ * It finds every course file in a directory, loads each one using a
+ * CourseFileManager, and then exports it using a CourseSiteExporter, with
+ * the courses spread across a fixed number of worker threads.
+ *
+ * @author Richard McKenna
+ */
+public class CourseSiteBulkExporter {
+    // THIS GUY KNOWS HOW TO READ COURSE DATA
+    CourseFileManager courseIO;
+
+    // AND THIS ONE KNOWS HOW TO EXPORT IT
+    CourseSiteExporter exporter;
+
+    // THE MOST COURSES WE'LL EXPORT AT THE SAME TIME
+    int maxThreads;
+
+    /**
+     * This constructor sets up a bulk exporter that uses one thread for
+     * each available processor.
+     *
+     * @param initCourseIO The object that will be loading course data.
+     * @param initExporter The object that will be exporting course sites.
+     */
+    public CourseSiteBulkExporter(CourseFileManager initCourseIO, CourseSiteExporter initExporter) {
+        this(initCourseIO, initExporter, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * This constructor sets up a bulk exporter that uses at most
+     * initMaxThreads threads.
+     *
+     * @param initCourseIO The object that will be loading course data.
+     * @param initExporter The object that will be exporting course sites.
+     * @param initMaxThreads The most courses to export at once.
+     */
+    public CourseSiteBulkExporter(CourseFileManager initCourseIO, CourseSiteExporter initExporter, int initMaxThreads) {
+        courseIO = initCourseIO;
+        exporter = initExporter;
+        maxThreads = Math.max(1, initMaxThreads);
+    }
+
+    /**
+     * Exports the site of every course file found in the coursesDir
+     * directory. Note that a course that fails to load or export will not
+     * stop the others, it will just be reported as a failure, and that a
+     * course whose site is already up to date will be skipped.
+     *
+     * @param coursesDir Directory containing the course files, like PATH_COURSES.
+     *
+     * @return A report with the result for every course file and the
+     * total time it took to export them all.
+     *
+     * @throws IOException Thrown when coursesDir can't be listed.
+     */
+    public BulkExportReport exportAllCourses(String coursesDir) throws IOException {
+        return exportCourses(findCourseFiles(coursesDir));
+    }
+
+    /**
+     * Exports the site of every course file in courseFiles.
+     *
+     * @param courseFiles The course files to load and export.
+     *
+     * @return A report with the result for every course file and the
+     * total time it took to export them all.
+     */
+    public BulkExportReport exportCourses(List<File> courseFiles) {
+        long startTime = System.nanoTime();
+        ArrayList<BulkExportReport.CourseResult> results = new ArrayList();
+
+        // ONE TASK PER COURSE FILE
+        ArrayList<Callable<BulkExportReport.CourseResult>> tasks = new ArrayList();
+        for (File courseFile : courseFiles) {
+            tasks.add(() -> exportCourseFile(courseFile));
+        }
+
+        // AND A POOL NO BIGGER THAN IT NEEDS TO BE TO RUN THEM
+        int threads = Math.max(1, Math.min(maxThreads, tasks.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<BulkExportReport.CourseResult>> futures = pool.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException ee) {
+                    results.add(new BulkExportReport.CourseResult(courseFiles.get(i), null, false, ee.getCause(), 0));
+                }
+            }
+        } catch (InterruptedException ie) {
+            // WE'LL REPORT WHATEVER FINISHED BEFORE WE WERE INTERRUPTED
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        long wallTime = (System.nanoTime() - startTime) / 1000000;
+        return new BulkExportReport(results, wallTime);
+    }
+
+    /**
+     * Lists all the course files in coursesDir that our CourseFileManager
+     * can load, in name order.
+     *
+     * @param coursesDir Directory containing the course files.
+     *
+     * @return All the course files found.
+     *
+     * @throws IOException Thrown when coursesDir can't be listed.
+     */
+    public List<File> findCourseFiles(String coursesDir) throws IOException {
+        File[] courseFiles = new File(coursesDir).listFiles((dir, name) ->
+                name.endsWith(courseIO.getCourseFileExtension()));
+        if (courseFiles == null) {
+            throw new IOException("Unable to list course files in " + coursesDir);
+        }
+        Arrays.sort(courseFiles);
+        return Arrays.asList(courseFiles);
+    }
+
+    // LOADS AND EXPORTS A SINGLE COURSE, THIS IS WHAT EACH WORKER DOES
+    private BulkExportReport.CourseResult exportCourseFile(File courseFile) {
+        long startTime = System.nanoTime();
+        Course course = new Course(new Instructor("", ""));
+        try {
+            courseIO.loadCourse(course, courseFile.getPath());
+            boolean exported = exporter.exportCourseSiteIfChanged(course);
+            return new BulkExportReport.CourseResult(courseFile, course, exported, null, elapsedMillis(startTime));
+        } catch (Exception e) {
+            return new BulkExportReport.CourseResult(courseFile, course, false, e, elapsedMillis(startTime));
+        }
+    }
+
+    private static long elapsedMillis(long startTime) {
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+}
@@ -0,0 +1,208 @@
+package csb.file;
+
+import static csb.file.CourseSiteExporter.CSS_DIR;
+import static csb.file.CourseSiteExporter.IMAGES_DIR;
+import static csb.file.CourseSiteExporter.SLASH;
+import csb.data.Course;
+import csb.data.CoursePage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * This class exports course sites straight into a ZIP archive, ready to be
+ * unzipped on the web host, without writing any of the sites to disk first.
+ * An archive may have one course's site or a whole semester's worth, each
+ * in its own directory just like in the sites directory.
+ *
+ * Note that every site in an archive gets the same base stylesheets and
+ * images, so these are read and prepared only once per archive and then
+ * written into each site from memory. Images are already compressed, so
+ * they are stored as is rather than being compressed again.
+ *
+ * @author Richard McKenna
+ */
+public class CourseSiteBundleExporter {
+    // IMAGES AND OTHER FILES THAT WON'T GET ANY SMALLER
+    static final List<String> STORED_EXTS = Arrays.asList(
+            ".png", ".jpg", ".jpeg", ".gif", ".ico", ".zip", ".gz");
+
+    // HOW MUCH OF THE ARCHIVE WE BUFFER BEFORE WRITING IT OUT
+    static final int BUNDLE_BUFFER_SIZE = 64 * 1024;
+
+    // THIS RENDERS THE PAGES THAT GO INTO EACH SITE
+    CourseSiteExporter exporter;
+
+    /**
+     * This constructor sets up a bundle exporter that builds its sites
+     * the same way initExporter does.
+     *
+     * @param initExporter The object that knows how to build course pages.
+     */
+    public CourseSiteBundleExporter(CourseSiteExporter initExporter) {
+        exporter = initExporter;
+    }
+
+    /**
+     * Exports the site for courseToExport into a new ZIP archive at
+     * bundleFile. Note that the archive is built under a temporary name
+     * and only moved into place once it's complete.
+     *
+     * @param courseToExport Course whose site is being exported.
+     * @param bundleFile Where to put the archive, replacing any file there.
+     *
+     * @throws IOException Thrown when the archive can't be built.
+     */
+    public void exportBundle(Course courseToExport, File bundleFile) throws IOException {
+        exportBundle(Collections.singletonList(courseToExport), bundleFile);
+    }
+
+    /**
+     * Exports the sites for all of coursesToExport into a new ZIP archive
+     * at bundleFile. Note that the archive is built under a temporary name
+     * and only moved into place once it's complete.
+     *
+     * @param coursesToExport Courses whose sites are being exported.
+     * @param bundleFile Where to put the archive, replacing any file there.
+     *
+     * @throws IOException Thrown when the archive can't be built.
+     */
+    public void exportBundle(List<Course> coursesToExport, File bundleFile) throws IOException {
+        File bundleDir = bundleFile.getAbsoluteFile().getParentFile();
+        Files.createDirectories(bundleDir.toPath());
+        Path tempPath = new File(bundleDir, "." + bundleFile.getName() + ".tmp").toPath();
+        try {
+            try (OutputStream os = Files.newOutputStream(tempPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                exportBundle(coursesToExport, os);
+            }
+            Files.move(tempPath, bundleFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Streams the sites for all of coursesToExport to out as a ZIP archive.
+     * Note that out is not closed, so more may be written to it afterwards.
+     *
+     * @param coursesToExport Courses whose sites are being exported.
+     * @param out Where to write the archive.
+     *
+     * @throws IOException Thrown when a page can't be built or the
+     * archive can't be written.
+     */
+    public void exportBundle(List<Course> coursesToExport, OutputStream out) throws IOException {
+        // THE SAME BASE FILES GO IN EVERY SITE, SO GET THEM READY JUST ONCE
+        List<BundledAsset> assets = new ArrayList();
+        loadAssets(CSS_DIR, assets);
+        loadAssets(IMAGES_DIR, assets);
+
+        // NOTE THAT WE FINISH THE ZIP STREAM RATHER THAN CLOSE IT, SINCE
+        // CLOSING IT WOULD CLOSE out
+        ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(out, BUNDLE_BUFFER_SIZE));
+        PageOutputBuffer page = new PageOutputBuffer(CourseSiteExporter.PAGE_BUFFER_SIZE);
+        ArrayList<String> sitesAdded = new ArrayList();
+        for (Course course : coursesToExport) {
+            String siteDir = exporter.getSiteDirName(course) + SLASH;
+            if (sitesAdded.contains(siteDir)) {
+                throw new IOException("More than one site for " + siteDir + " in the same bundle");
+            }
+            sitesAdded.add(siteDir);
+
+            // EACH SITE GETS ITS OWN DIRECTORY WITH ITS ASSETS IN IT
+            addDirectory(zos, siteDir);
+            addDirectory(zos, siteDir + CSS_DIR + SLASH);
+            addDirectory(zos, siteDir + IMAGES_DIR + SLASH);
+            for (BundledAsset asset : assets) {
+                asset.addTo(zos, siteDir);
+            }
+
+            // AND ITS PAGES, WHICH GO STRAIGHT FROM MEMORY INTO THE ARCHIVE
+            for (CoursePage coursePage : exporter.getExportedPages(course)) {
+                page.reset();
+                exporter.renderPage(course, coursePage, page);
+                zos.putNextEntry(new ZipEntry(siteDir + exporter.getPageFileName(coursePage)));
+                page.writeTo(zos);
+                zos.closeEntry();
+            }
+        }
+        zos.finish();
+        zos.flush();
+    }
+
+    // READS ALL THE BASE FILES THAT GO IN THE assetDir DIRECTORY OF EVERY SITE
+    private void loadAssets(String assetDir, List<BundledAsset> assets) throws IOException {
+        for (File assetFile : exporter.listBaseAssets(assetDir)) {
+            assets.add(new BundledAsset(assetDir + SLASH + assetFile.getName(), assetFile));
+        }
+    }
+
+    private static void addDirectory(ZipOutputStream zos, String dirPath) throws IOException {
+        ZipEntry entry = new ZipEntry(dirPath);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(0);
+        entry.setCompressedSize(0);
+        entry.setCrc(0);
+        zos.putNextEntry(entry);
+        zos.closeEntry();
+    }
+
+    // A BASE FILE READ INTO MEMORY, ALONG WITH EVERYTHING WE NEED
+    // TO KNOW TO ADD IT TO THE ARCHIVE AS MANY TIMES AS WE LIKE
+    private static class BundledAsset {
+        String path;
+        byte[] data;
+        long crc;
+        long lastModified;
+        boolean stored;
+
+        BundledAsset(String initPath, File assetFile) throws IOException {
+            path = initPath;
+            data = Files.readAllBytes(assetFile.toPath());
+            lastModified = assetFile.lastModified();
+            stored = isStored(assetFile.getName());
+            CRC32 crc32 = new CRC32();
+            crc32.update(data);
+            crc = crc32.getValue();
+        }
+
+        void addTo(ZipOutputStream zos, String siteDir) throws IOException {
+            ZipEntry entry = new ZipEntry(siteDir + path);
+            entry.setTime(lastModified);
+            if (stored) {
+                // STORED ENTRIES HAVE TO SAY WHAT'S IN THEM UP FRONT
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(data.length);
+                entry.setCompressedSize(data.length);
+                entry.setCrc(crc);
+            }
+            zos.putNextEntry(entry);
+            zos.write(data);
+            zos.closeEntry();
+        }
+
+        static boolean isStored(String fileName) {
+            String lowerName = fileName.toLowerCase(Locale.ENGLISH);
+            for (String ext : STORED_EXTS) {
+                if (lowerName.endsWith(ext)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -4,32 +4,35 @@ import static csb.CSB_StartupConstants.PATH_SITES;
 import csb.data.Course;
 import csb.data.CoursePage;
 import csb.data.Instructor;
+import csb.data.Subject;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
 import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.swing.text.html.HTML;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Result;
-import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 /**
@@ -86,11 +89,70 @@ public class CourseSiteExporter {
     public static final String DASH = " - ";
     public static final String LINE_BREAK = "<br />";
 
+    // HOW MUCH OF A PAGE WE BUFFER BEFORE WRITING IT TO ITS FILE
+    public static final int PAGE_BUFFER_SIZE = 16 * 1024;
+
+    // THIS GOES INTO EVERY SITE MANIFEST. NOTE THAT IT MUST BE CHANGED
+    // WHENEVER A CHANGE TO THIS CLASS CHANGES THE FILES IT EXPORTS,
+    // OTHERWISE EXISTING SITES WILL BE CONSIDERED UP TO DATE
+    public static final int EXPORTER_VERSION = 3;
+
     // THESE ARE THE DIRECTORIES WHERE OUR BASE SCHEDULE
     // FILE IS AND WHERE OUR COURSE SITES WILL BE EXPORTED TO
     String baseDir;
     String sitesDir;
 
+    // THIS KEEPS THE PARSED BASE PAGES SO WE DON'T HAVE
+    // TO PARSE THEM AGAIN FOR EVERY EXPORT
+    SiteTemplateCache templateCache;
+
+    // AND THIS WRITES OUR FINISHED PAGES TO THEIR FILES
+    HtmlDocumentWriter htmlWriter;
+
+    // THIS HASHES THE BASE FILES SO WE CAN TELL WHEN THEY CHANGE
+    ContentHash contentHash;
+
+    // AND THIS KEEPS ONE COPY OF EACH STYLESHEET AND IMAGE FOR ALL SITES
+    SharedAssetStore assetStore;
+
+    /**
+     * The ways this exporter can build pages. DOM fills in a copy of the
+     * parsed template, while COMPILED streams a precompiled version of the
+     * template straight into the page, which is much faster. Note that both
+     * produce exactly the same pages, and that COMPILED falls back to DOM
+     * for any page it can't produce exactly.
+     */
+    public enum RenderingEngine {
+        DOM,
+        COMPILED
+    }
+
+    // THE ENGINE WE'RE USING
+    RenderingEngine renderingEngine;
+
+    // THE COMPILED TEMPLATES, KEYED BY TEMPLATE FILE PATH
+    ConcurrentHashMap<String, CompiledPageTemplate> compiledTemplates;
+
+    // IF WE HAVE ONE OF THESE, EXPORTED SITES GET GZIPPED COPIES OF
+    // THEIR PAGES AND STYLESHEETS FOR WEB SERVERS TO SEND AS IS
+    SitePrecompressor precompressor;
+
+    // THE THREADS THAT RENDER THE PAGES OF A SITE AT THE SAME TIME, WHICH
+    // ALL EXPORTERS SHARE. NOTE THAT THEY'RE DAEMON THREADS, SO THEY NEVER
+    // KEEP THE APPLICATION RUNNING, AND THAT THEY ONLY GET MADE ONCE NEEDED
+    private static class PageRenderPool {
+        static final ExecutorService POOL = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), r -> {
+                    Thread thread = new Thread(r, "CourseSiteExporter");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    // ONE LOCK PER SITE DIRECTORY SO THAT EXPORTS OF DIFFERENT
+    // SITES CAN RUN AT ONCE BUT EXPORTS OF THE SAME ONE CAN'T
+    ConcurrentHashMap<String, Object> siteLocks;
+
     /**
      * This constructor initializes this exporter to load the schedule
      * page from the initBaseDir and export course pages to directories
@@ -104,13 +166,65 @@ public class CourseSiteExporter {
     public CourseSiteExporter(String initBaseDir, String initSitesDir) {
         baseDir = initBaseDir;
         sitesDir = initSitesDir;
+        templateCache = new SiteTemplateCache();
+        htmlWriter = new HtmlDocumentWriter();
+        contentHash = new ContentHash();
+        assetStore = new SharedAssetStore(initSitesDir, contentHash);
+        renderingEngine = RenderingEngine.COMPILED;
+        compiledTemplates = new ConcurrentHashMap();
+        siteLocks = new ConcurrentHashMap();
+    }
+
+    public String getBaseDir() {
+        return baseDir;
+    }
+
+    public String getSitesDir() {
+        return sitesDir;
+    }
+
+    /**
+     * Forgets everything this exporter knows about the base files, like
+     * parsed and compiled templates and file hashes, so they will all be
+     * read again. Note this should be done whenever the base files are
+     * known to have changed, since a file rewritten quickly enough can
+     * look unchanged.
+     */
+    public void clearCaches() {
+        templateCache.clear();
+        compiledTemplates.clear();
+        contentHash.clear();
+    }
+
+    public RenderingEngine getRenderingEngine() {
+        return renderingEngine;
+    }
+
+    public void setRenderingEngine(RenderingEngine initRenderingEngine) {
+        renderingEngine = initRenderingEngine;
+    }
+
+    public SitePrecompressor getPrecompressor() {
+        return precompressor;
+    }
+
+    /**
+     * Turns precompression of exported sites on, or off if
+     * initPrecompressor is null. Note that sites exported before this
+     * changed will be exported again the next time they're exported.
+     *
+     * @param initPrecompressor What to compress sites with, or null.
+     */
+    public void setPrecompressor(SitePrecompressor initPrecompressor) {
+        precompressor = initPrecompressor;
     }
 
     /**
      * This method is the facade to a lot of work done to export the site. It
      * will setup the necessary course directory if it doesn't already exist
      * and copy the needed stylesheets and images and will then export the
-     * necessary pages.
+     * necessary pages. Note that if nothing has changed since the site was
+     * last exported, nothing will be done.
      * 
      * @param courseToExport Course whose site is being built.
      * 
@@ -118,18 +232,143 @@ public class CourseSiteExporter {
      * creating the course site directory and/or files.
      */
     public void exportCourseSite(Course courseToExport) throws IOException {
+        exportCourseSiteIfChanged(courseToExport);
+    }
+
+    /**
+     * This method exports the site for courseToExport, but only if the
+     * course, the base files, or this exporter have changed since the site
+     * was last exported, which we know by comparing against the manifest
+     * saved in the site's directory.
+     * 
+     * @param courseToExport Course whose site is being built.
+     * 
+     * @return true if the site was exported, false if it was already
+     * up to date and so was skipped.
+     * 
+     * @throws IOException This exception is thrown when a problem occurs
+     * creating the course site directory and/or files.
+     */
+    public boolean exportCourseSiteIfChanged(Course courseToExport) throws IOException {
         // GET THE DIRECTORY TO EXPORT THE SITE
-        String courseExportPath = (new File(sitesDir) + SLASH)
-                + courseToExport.getSubject() + courseToExport.getNumber();
+        String courseExportPath = (new File(sitesDir) + SLASH) + getSiteDirName(courseToExport);
+        File courseExportDir = new File(courseExportPath);
 
-        // FIRST EXPORT ANCILLARY FILES LIKE STYLE SHEETS AND IMAGES. NOTE
-        // THAT THIS ONLY NEEDS TO BE DONE ONCE FOR EACH COURSE
-        if (!new File(courseExportPath).exists()) {
-            setupCourseSite(courseExportPath);
+        // ONLY ONE EXPORT OF A GIVEN SITE AT A TIME. StagedSite LOCKS
+        // OUT OTHER PROGRAMS, BUT OUR OWN THREADS HAVE TO TAKE TURNS HERE
+        synchronized (siteLocks.computeIfAbsent(courseExportDir.getAbsolutePath(), path -> new Object())) {
+            return exportStagedSite(courseToExport, courseExportDir);
         }
+    }
 
-        // EXPORT THE schedule.html PAGE
-        exportSchedulePage(courseToExport, courseExportPath);        
+    // EXPORTS THE SITE FOR courseToExport INTO A STAGING DIRECTORY AND THEN
+    // SWAPS IT IN FOR THE LIVE ONE, SO THE LIVE ONE IS NEVER HALF BUILT
+    private boolean exportStagedSite(Course courseToExport, File courseExportDir) throws IOException {
+        // FIRST PUT BACK ANY SITE A CRASHED EXPORT LEFT OUT OF PLACE
+        StagedSite.recover(courseExportDir);
+
+        // THEN SEE IF WE NEED TO DO ANYTHING AT ALL
+        SiteManifest manifest = buildManifest(courseToExport);
+        SiteManifest oldManifest = SiteManifest.load(courseExportDir);
+        if (manifest.equals(oldManifest) && pagesExist(manifest, courseExportDir)) {
+            return false;
+        }
+
+        // BUILD THE NEW SITE FROM SCRATCH NEXT TO THE LIVE ONE
+        StagedSite stagedSite = StagedSite.begin(courseExportDir);
+        File stagingDir = stagedSite.getStagingDir();
+        try {
+            // EXPORT ANCILLARY FILES LIKE STYLE SHEETS AND IMAGES, WHICH
+            // ARE ONLY LINKS INTO THE SHARED STORE SO THIS IS CHEAP
+            setupCourseSite(stagingDir.getPath());
+
+            // EXPORT ALL THE PAGES
+            exportPages(courseToExport, stagingDir.getPath());
+
+            // KEEP ANYTHING ELSE THAT WAS IN THE SITE, EXCEPT THE OLD MANIFEST,
+            // PAGES WE EXPORTED BEFORE BUT NO LONGER DO, AND GZIPPED FILES,
+            // WHICH ARE REDONE BELOW IF WE STILL WANT THEM
+            Map<String, String> oldCompressedHashes = (oldManifest == null)
+                    ? Collections.emptyMap() : oldManifest.getCompressedHashes();
+            HashSet<String> replacedPaths = new HashSet();
+            replacedPaths.add(SiteManifest.MANIFEST_FILE);
+            if (oldManifest != null) {
+                replacedPaths.addAll(oldManifest.getExportedPages());
+            }
+            for (String path : oldCompressedHashes.keySet()) {
+                replacedPaths.add(path + SitePrecompressor.GZIP_EXT);
+            }
+            stagedSite.carryOver(replacedPaths);
+
+            // THEN GZIP WHAT NEEDS IT, REUSING WHAT WE CAN FROM THE LIVE SITE
+            SitePrecompressor sitePrecompressor = precompressor;
+            if (sitePrecompressor != null) {
+                manifest.setCompressedHashes(sitePrecompressor.compressSite(
+                        stagingDir, oldCompressedHashes, courseExportDir));
+            }
+
+            // RECORD WHAT WE BUILT IT FROM AND PUT IT LIVE
+            manifest.save(stagingDir);
+            stagedSite.commit();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // THE LIVE SITE HASN'T BEEN TOUCHED, SO JUST CLEAN UP
+            stagedSite.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * This function exports all the pages of the courseToExport course's
+     * site, meaning its schedule page and every other page it has, which
+     * are all built at the same time.
+     * 
+     * @param courseToExport Course whose site we are to export.
+     * @param courseExportPath The directory where courseToExport's site
+     * pages are to be exported to.
+     * 
+     * @throws IOException Thrown when there is a problem exporting
+     * any of the pages for this site.
+     */
+    public void exportPages(Course courseToExport, String courseExportPath)
+            throws IOException {
+        // ONE TASK PER PAGE, ALL OF WHICH SHARE THE SAME COURSE. NOTE THAT
+        // WE DO THE FIRST ONE OURSELVES RATHER THAN JUST WAIT
+        List<CoursePage> pages = getExportedPages(courseToExport);
+        ArrayList<Future<Void>> futures = new ArrayList();
+        for (CoursePage page : pages.subList(1, pages.size())) {
+            futures.add(PageRenderPool.POOL.submit(() -> {
+                exportPage(courseToExport, page, courseExportPath);
+                return null;
+            }));
+        }
+        IOException firstException = null;
+        try {
+            exportPage(courseToExport, pages.get(0), courseExportPath);
+        } catch (IOException | RuntimeException e) {
+            firstException = (e instanceof IOException) ? (IOException) e : new IOException(e);
+        }
+
+        // THEN WAIT FOR THE REST, EVEN IF ONE FAILED, SO NONE ARE STILL
+        // WRITING ONCE WE'VE RETURNED
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                if (firstException == null) {
+                    firstException = new IOException("Interrupted while exporting " + courseExportPath);
+                }
+            } catch (ExecutionException ee) {
+                if (firstException == null) {
+                    Throwable cause = ee.getCause();
+                    firstException = (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+                }
+            }
+        }
+        if (firstException != null) {
+            throw firstException;
+        }
     }
 
     /**
@@ -145,16 +384,80 @@ public class CourseSiteExporter {
      */
     public void exportSchedulePage(Course courseToExport, String courseExportPath)
             throws IOException {
+        exportPage(courseToExport, CoursePage.SCHEDULE, courseExportPath);
+    }
+
+    /**
+     * This function exports a single page of the courseToExport course's
+     * site, built from the base page of the same name.
+     * 
+     * @param courseToExport Course whose site we are to export.
+     * @param pageToExport Which page to export.
+     * @param courseExportPath The directory where courseToExport's site
+     * pages are to be exported to.
+     * 
+     * @throws IOException Thrown when there is a problem exporting
+     * the page.
+     */
+    public void exportPage(Course courseToExport, CoursePage pageToExport, String courseExportPath)
+            throws IOException {
+        // BUILD THE PAGE IN MEMORY
+        PageOutputBuffer page = new PageOutputBuffer(PAGE_BUFFER_SIZE);
+        renderPage(courseToExport, pageToExport, page);
+
+        // AND SAVE IT TO A FILE
+        savePage(page, courseExportPath + SLASH + getLink(pageToExport));
+    }
+
+    /**
+     * This function builds the schedule.html page for the courseToExport
+     * course's site in memory, without saving it anywhere.
+     * 
+     * @param courseToExport Course whose schedule page we are to build.
+     * @param page Where the page is to be written to.
+     * 
+     * @throws IOException Thrown when there is a problem building
+     * the schedule page for this site.
+     */
+    public void renderSchedulePage(Course courseToExport, PageOutputBuffer page)
+            throws IOException {
+        renderPage(courseToExport, CoursePage.SCHEDULE, page);
+    }
+
+    /**
+     * This function builds a single page of the courseToExport course's
+     * site in memory, without saving it anywhere, like when it's going
+     * straight into an archive. Note that many pages may be built at once,
+     * even for the same course, so long as no one changes the course.
+     * 
+     * @param courseToExport Course whose page we are to build.
+     * @param pageToRender Which page to build.
+     * @param page Where the page is to be written to.
+     * 
+     * @throws IOException Thrown when there is a problem building
+     * the page.
+     */
+    public void renderPage(Course courseToExport, CoursePage pageToRender, PageOutputBuffer page)
+            throws IOException {
         try {
-            // NOW THAT EVERYTHING IS SETUP, BUILD THE PAGE DOCUMENT
-            Document scheduleDoc = buildSchedulePage(courseToExport);
+            // IF WE CAN, STREAM THE PAGE FROM THE COMPILED TEMPLATE
+            if ((renderingEngine == RenderingEngine.COMPILED) && canRenderCompiled(courseToExport)) {
+                CompiledPageTemplate compiledPage = getCompiledPage(pageToRender);
+                int start = page.size();
+                if ((compiledPage != null) && compiledPage.render(courseToExport, page)) {
+                    return;
+                }
+                page.truncate(start);
+            }
+
+            // OTHERWISE BUILD THE PAGE DOCUMENT
+            Document pageDoc = buildPage(courseToExport, pageToRender);
 
-            // AND SAVE IT TO A FILE
-            saveDocument(scheduleDoc, courseExportPath + SLASH + SCHEDULE_PAGE);
+            // AND WRITE IT OUT
+            htmlWriter.write(pageDoc, page);
             
             // NOTE THAT IF ANYTHING GOES WRONG WE WILL REFLECT AND/OR PASS ALL EXCEPTIONS
-        } catch(    TransformerException 
-                |   SAXException
+        } catch(    SAXException
                 |   ParserConfigurationException exception) {
             // WE ARE GOING TO REFLECT ALL OF THESE EXCEPTIONS AS
             // IOExceptions, WHICH WE'LL HANDLE TOGETHER
@@ -162,6 +465,44 @@ public class CourseSiteExporter {
         }
     }
 
+    /**
+     * Gets all the pages that are exported for the courseToExport course's
+     * site, in navigation bar order. Note that this is every page the course
+     * has, plus the schedule page, which every site gets.
+     * 
+     * @param courseToExport Course whose site is being exported.
+     * 
+     * @return The pages of the course's site.
+     */
+    public List<CoursePage> getExportedPages(Course courseToExport) {
+        EnumSet<CoursePage> pages = EnumSet.of(CoursePage.SCHEDULE);
+        pages.addAll(courseToExport.getPages());
+        return new ArrayList(pages);
+    }
+
+    /**
+     * Gets the name of the file a page is exported to.
+     * 
+     * @param page The page whose file we want.
+     * 
+     * @return The page's file name, like schedule.html.
+     */
+    public String getPageFileName(CoursePage page) {
+        return getLink(page);
+    }
+
+    /**
+     * Gets the name of the directory the courseToExport course's site goes
+     * in, inside the sites directory or a site bundle.
+     * 
+     * @param courseToExport Course whose site we want the directory of.
+     * 
+     * @return The site's directory name, like CSE219.
+     */
+    public String getSiteDirName(Course courseToExport) {
+        return "" + courseToExport.getSubject() + courseToExport.getNumber();
+    }
+
     /**
      * Builds and returns the path to access the type of page denoted by cP
      * for the given course argument.
@@ -186,70 +527,151 @@ public class CourseSiteExporter {
     
     // BELOW ARE ALL THE PRIVATE HELPER METHODS
 
-    // BUILDS A SCHEDULE PAGE AND RETURNS IT AS A SINGLE Document
-    private Document buildSchedulePage(Course courseToExport) throws SAXException, TransformerException, IOException, ParserConfigurationException {
-        // MAKE A PATH FOR THE SCHEDULE PAGE
-        String schedulePath = baseDir + SLASH + SCHEDULE_PAGE;
+    // BUILDS A PAGE AND RETURNS IT AS A SINGLE Document
+    private Document buildPage(Course courseToExport, CoursePage pageToBuild) throws SAXException, IOException, ParserConfigurationException {
+        // MAKE A PATH FOR THE BASE PAGE
+        String pagePath = baseDir + SLASH + getLink(pageToBuild);
+
+        // NOW GET OUR OWN COPY OF THE DOCUMENT
+        Document pageDoc = templateCache.getTemplate(pagePath);
 
-        // NOW LOAD THE DOCUMENT
-        DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-        Document scheduleDoc = docBuilder.parse(schedulePath);
+        // AND FIND ALL THE ELEMENTS WE'LL BE ADDING TO
+        HashMap<String, Element> idIndex = buildIdIndex(pageDoc);
 
         // UPDATE THE PAGE HEADER
-        Node titleNode = scheduleDoc.getElementsByTagName(HTML.Tag.TITLE.toString()).item(0);
+        Node titleNode = pageDoc.getElementsByTagName(HTML.Tag.TITLE.toString()).item(0);
         titleNode.setTextContent(courseToExport.getSubject() + " "
                 + courseToExport.getNumber());
 
         // SET THE BANNER
-        setBanner(scheduleDoc, courseToExport);
+        setBanner(pageDoc, idIndex, courseToExport);
 
-        // NOW BUILD THE SCHEDULE TABLE
-        fillScheduleTable(scheduleDoc, courseToExport);
+        // NOW BUILD THE SCHEDULE TABLE, IF THIS IS THE SCHEDULE PAGE
+        if (pageToBuild == CoursePage.SCHEDULE) {
+            fillScheduleTable(pageDoc, idIndex, courseToExport);
+        }
         
         // AND ADD THE INSTRUCTOR
-        appendInstructor(scheduleDoc, courseToExport.getInstructor());
+        appendInstructor(pageDoc, idIndex, courseToExport.getInstructor());
         
         
         
         
         
-        setNavBar(scheduleDoc, courseToExport);
+        setNavBar(pageDoc, idIndex, courseToExport, pageToBuild);
 
         // AND RETURN THE FULL PAGE DOM
-        return scheduleDoc;
+        return pageDoc;
     }
     
+    // MAKES THE MANIFEST DESCRIBING WHAT courseToExport's SITE WOULD BE BUILT FROM
+    private SiteManifest buildManifest(Course courseToExport) throws IOException {
+        String courseHash = ContentHash.hashString(getCourseFingerprint(courseToExport));
+        List<CoursePage> pages = getExportedPages(courseToExport);
+        StringBuilder templates = new StringBuilder();
+        for (CoursePage page : pages) {
+            File templateFile = new File(baseDir + SLASH + getLink(page));
+            templates.append(templateFile.getName()).append(' ')
+                    .append(templateFile.isFile() ? contentHash.hashFile(templateFile) : "").append('\n');
+        }
+        String templateHash = ContentHash.hashString(templates.toString());
+        String assetsHash = ContentHash.hashString(
+                getDirFingerprint(new File(baseDir + SLASH + CSS_DIR))
+                + getDirFingerprint(new File(baseDir + SLASH + IMAGES_DIR)));
+        SiteManifest manifest = new SiteManifest(EXPORTER_VERSION, courseHash, templateHash, assetsHash);
+        manifest.setPrecompressed(precompressor != null);
+        ArrayList<String> pageFiles = new ArrayList();
+        for (CoursePage page : pages) {
+            pageFiles.add(getLink(page));
+        }
+        manifest.setExportedPages(pageFiles);
+        return manifest;
+    }
+
+    // TESTS TO SEE IF ALL THE PAGES manifest SAYS WE EXPORT ARE IN siteDir
+    private boolean pagesExist(SiteManifest manifest, File siteDir) {
+        for (String pageFile : manifest.getExportedPages()) {
+            if (!new File(siteDir, pageFile).exists()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // LISTS EVERYTHING ABOUT THE COURSE THAT COULD CHANGE ITS SITE. NOTE
+    // THAT THE PAGES ARE SORTED SINCE THEIR ORDER DOESN'T MATTER
+    private String getCourseFingerprint(Course course) {
+        List<CoursePage> pages = new ArrayList(course.getPages());
+        Collections.sort(pages);
+        List<DayOfWeek> lectureDays = new ArrayList(course.getLectureDays());
+        Collections.sort(lectureDays);
+        Instructor instructor = course.getInstructor();
+        StringBuilder sb = new StringBuilder();
+        sb.append(course.getSubject()).append('\n')
+                .append(course.getNumber()).append('\n')
+                .append(course.getTitle()).append('\n')
+                .append(course.getSemester()).append('\n')
+                .append(course.getYear()).append('\n')
+                .append(course.getStartingMonday()).append('\n')
+                .append(course.getEndingFriday()).append('\n')
+                .append(instructor == null ? null : instructor.getName()).append('\n')
+                .append(instructor == null ? null : instructor.getHomepageURL()).append('\n')
+                .append(pages).append('\n')
+                .append(lectureDays).append('\n');
+        return sb.toString();
+    }
+
+    // LISTS THE NAME AND HASH OF EVERY FILE IN dir, IN NAME ORDER
+    private String getDirFingerprint(File dir) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isFile()) {
+                    sb.append(file.getName()).append(' ')
+                            .append(contentHash.hashFile(file)).append('\n');
+                }
+            }
+        }
+        return sb.toString();
+    }
+
     // INITIALIZES ALL THE HELPER FILES AND DIRECTORIES, LIKE FOR CSS
     private void setupCourseSite(String exportPath) throws IOException {
         // FIRST MAKE THE FOLDERS
         File siteDir = new File(exportPath);
-        siteDir.mkdir();
+        siteDir.mkdirs();
         File cssDir = new File(exportPath + SLASH + CSS_DIR);
         cssDir.mkdir();
         File imagesDir = new File(exportPath + SLASH + IMAGES_DIR);
         imagesDir.mkdir();
 
-        // THEN COPY THE STYLESHEETS OVER
-        File baseCSSDir = new File(baseDir + "/" + CSS_DIR);
-        File[] cssFiles = baseCSSDir.listFiles();
-        for (int i = 0; i < cssFiles.length; i++) {
-            File cssFile = new File(cssDir + SLASH + cssFiles[i].getName());
-            Files.copy(cssFiles[i].toPath(), cssFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        // THEN LINK THE STYLESHEETS IN FROM THE SHARED STORE
+        for (File cssFile : listBaseAssets(CSS_DIR)) {
+            assetStore.linkAsset(cssFile, new File(cssDir, cssFile.getName()));
         }
 
-        // AND THEN COPY THE IMAGES OVER
-        File baseImagesDir = new File(baseDir + "/" + IMAGES_DIR);
-        File[] imageFiles = baseImagesDir.listFiles();
-        for (int i = 0; i < imageFiles.length; i++) {
-            File imageFile = new File(imagesDir + "/" + imageFiles[i].getName());
-            Files.copy(imageFiles[i].toPath(), imageFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        // AND THEN THE IMAGES
+        for (File imageFile : listBaseAssets(IMAGES_DIR)) {
+            assetStore.linkAsset(imageFile, new File(imagesDir, imageFile.getName()));
         }
     }
 
+    // LISTS THE BASE FILES THAT GO IN THE assetDir DIRECTORY OF EVERY SITE
+    File[] listBaseAssets(String assetDir) throws IOException {
+        File baseAssetDir = new File(baseDir + SLASH + assetDir);
+        File[] assetFiles = baseAssetDir.listFiles(File::isFile);
+        if (assetFiles == null) {
+            throw new IOException("Unable to list base files in " + baseAssetDir);
+        }
+        Arrays.sort(assetFiles);
+        return assetFiles;
+    }
+
     // APPENDS THE ISNTRUCTOR TO THE BOTTOM OF THE PAGE
-    private void appendInstructor(Document pageDoc, Instructor courseInstructor) {
-        Node instructorSpan = (Element)getNodeWithId(pageDoc, HTML.Tag.SPAN.toString(), ID_INSTRUCTOR_LINK);
+    private void appendInstructor(Document pageDoc, HashMap<String, Element> idIndex, Instructor courseInstructor) {
+        Node instructorSpan = idIndex.get(ID_INSTRUCTOR_LINK);
         Element instructorLinkElement = pageDoc.createElement(HTML.Tag.A.toString());
         instructorLinkElement.setAttribute(HTML.Attribute.HREF.toString(), courseInstructor.getHomepageURL());
         instructorLinkElement.setTextContent(courseInstructor.getName());
@@ -257,7 +679,8 @@ public class CourseSiteExporter {
     }
 
     // FILLS IN THE SCHEDULE PAGE'S SCHEDULE TABLE
-    private void fillScheduleTable(Document scheduleDoc, Course courseToExport) {
+    private void fillScheduleTable(Document scheduleDoc, HashMap<String, Element> idIndex, Course courseToExport) {
+        Node scheduleTableNode = idIndex.get(ID_SCHEDULE);
         LocalDate countingDate = courseToExport.getStartingMonday().minusDays(0);
         while (countingDate.isBefore(courseToExport.getEndingFriday())
                 || countingDate.isEqual(courseToExport.getEndingFriday())) {
@@ -291,7 +714,6 @@ public class CourseSiteExporter {
             
             // AND PUT IT IN THE TABLE
             //Appends the new row we created into the schedule 
-            Node scheduleTableNode = getNodeWithId(scheduleDoc, HTML.Tag.TABLE.toString(), ID_SCHEDULE);
             scheduleTableNode.appendChild(dowRowHeaderElement);
             scheduleTableNode.appendChild(row);
         }
@@ -305,34 +727,42 @@ public class CourseSiteExporter {
         tableRow.appendChild(dayOfWeekHeader);
     }
 
-    // FINDS AND RETURNS A NODE IN A DOCUMENT OF A CERTAIN TYPE WITH A CERTIAN ID
-    private Node getNodeWithId(Document doc, String tagType, String searchID) {
-        NodeList divNodes = doc.getElementsByTagName(tagType);
-        for (int i = 0; i < divNodes.getLength(); i++) {
-            Node testNode = divNodes.item(i);
-            Node testAttr = testNode.getAttributes().getNamedItem(HTML.Attribute.ID.toString());
-            if (testAttr.getNodeValue().equals(searchID)) {
-                return testNode;
+    // MAPS THE ID OF EVERY ELEMENT IN doc THAT HAS ONE TO THAT ELEMENT,
+    // WHICH TAKES A SINGLE WALK THROUGH THE DOCUMENT TREE. NOTE THAT IF
+    // TWO ELEMENTS SHARE AN ID, THE FIRST ONE IN THE DOCUMENT WINS
+    private HashMap<String, Element> buildIdIndex(Document doc) {
+        HashMap<String, Element> idIndex = new HashMap();
+        String idAttr = HTML.Attribute.ID.toString();
+        ArrayDeque<Node> nodesToVisit = new ArrayDeque();
+        nodesToVisit.push(doc.getDocumentElement());
+        while (!nodesToVisit.isEmpty()) {
+            Node node = nodesToVisit.pop();
+            Element element = (Element) node;
+            String id = element.getAttribute(idAttr);
+            if (!id.isEmpty() && !idIndex.containsKey(id)) {
+                idIndex.put(id, element);
+            }
+
+            // PUSH THE CHILDREN IN REVERSE SO WE VISIT THEM IN DOCUMENT ORDER
+            for (Node child = node.getLastChild(); child != null; child = child.getPreviousSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    nodesToVisit.push(child);
+                }
             }
         }
-        return null;
+        return idIndex;
     }
 
-    // SAVES THE DOCUMENT OBJECT TO A FILE, WHICH WOULD BE AN HTIM FILE
-    private void saveDocument(Document doc, String outputFilePath)
-            throws TransformerException, TransformerConfigurationException {
-        TransformerFactory factory = TransformerFactory.newInstance();
-        Transformer transformer = factory.newTransformer();
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-        Result result = new StreamResult(new File(outputFilePath));
-        Source source = new DOMSource(doc);
-        transformer.transform(source, result);
+    // SAVES A PAGE RENDERED FROM A COMPILED TEMPLATE TO ITS FILE
+    private void savePage(PageOutputBuffer page, String outputFilePath) throws IOException {
+        try (OutputStream os = Files.newOutputStream(Paths.get(outputFilePath))) {
+            page.writeTo(os);
+        }
     }
 
     // SETS THE COURSE PAGE BANNER
-    private void setBanner(Document doc, Course courseToExport) {
-        Node bannerNode = getNodeWithId(doc, HTML.Tag.DIV.toString(), ID_BANNER);
+    private void setBanner(Document doc, HashMap<String, Element> idIndex, Course courseToExport) {
+        Node bannerNode = idIndex.get(ID_BANNER);
         String bannerText = courseToExport.getSubject().toString() + " " + courseToExport.getNumber() + " - ";
         String bannerTitle = courseToExport.getTitle();
         
@@ -369,11 +799,12 @@ public class CourseSiteExporter {
     }
     
     //Puts links into navBar
-    private void setNavBar(Document doc, Course courseToExport) {
+    private void setNavBar(Document doc, HashMap<String, Element> idIndex, Course courseToExport, CoursePage currentPage) {
         
-        Node navBar = getNodeWithId(doc, HTML.Tag.DIV.toString(), ID_NAVBAR);
-    //Received list from course class to use to put into navBar     
-        List<CoursePage> pages = courseToExport.getPages();
+        Node navBar = idIndex.get(ID_NAVBAR);
+    //Received list from course class to use to put into navBar, NOTE THAT
+    //WE SORT OUR OWN COPY SINCE OTHER PAGES MAY BE USING THE SAME COURSE
+        List<CoursePage> pages = new ArrayList(courseToExport.getPages());
       
         Collections.sort(pages);
         
@@ -385,39 +816,37 @@ public class CourseSiteExporter {
             if (getLink(pages.get(i)).equals("index.html"))
             {
                 link.setAttribute(HTML.Attribute.ID.toString(), ID_HOME_LINK);
-                link.setAttribute(HTML.Attribute.CLASS.toString(), CLASS_NAV);
                
             }
             
             else if (getLink(pages.get(i)).equals("schedule.html"))
             {
                 link.setAttribute(HTML.Attribute.ID.toString(), ID_SCHEDULE_LINK);
-                link.setAttribute(HTML.Attribute.CLASS.toString(), CLASS_OPEN_NAV);
                 
             }
             
             else if (getLink(pages.get(i)).equals("syllabus.html"))
             {
                 link.setAttribute(HTML.Attribute.ID.toString(), ID_SYLLABUS_LINK);
-                link.setAttribute(HTML.Attribute.CLASS.toString(), CLASS_NAV);
                 
             }
             
             else if (getLink(pages.get(i)).equals("hws.html"))
             {
                 link.setAttribute(HTML.Attribute.ID.toString(), ID_HWS_LINK);
-                link.setAttribute(HTML.Attribute.CLASS.toString(), CLASS_NAV);
                 
             }
             
             else if (getLink(pages.get(i)).equals("projects.html"))
             {
                 link.setAttribute(HTML.Attribute.ID.toString(), ID_PROJECTS_LINK);
-                link.setAttribute(HTML.Attribute.CLASS.toString(), CLASS_NAV);
                 
             }
             
             
+            // THE LINK TO THE PAGE WE'RE ON IS THE OPEN ONE
+            link.setAttribute(HTML.Attribute.CLASS.toString(),
+                    (pages.get(i) == currentPage) ? CLASS_OPEN_NAV : CLASS_NAV);
             link.setTextContent(pages.get(i).toString());
             navBar.appendChild(link);
         }
@@ -438,6 +867,189 @@ public class CourseSiteExporter {
        rowElement.appendChild(columnDayNum);
        
     }
-    
-    
+
+    // BELOW ARE THE HELPERS FOR THE COMPILED RENDERING ENGINE. NOTE THAT EACH
+    // SLOT RENDERER MUST WRITE EXACTLY WHAT THE DOM HELPER ABOVE WITH THE
+    // SAME PURPOSE ADDS TO THE PAGE, IN THE SAME ORDER, SO IF ONE OF THOSE
+    // CHANGES, ITS RENDERER MUST CHANGE TOO
+
+    // GETS THE COMPILED SCHEDULE PAGE, COMPILING IT IF IT'S NEW OR HAS CHANGED,
+    // OR RETURNS null IF THE TEMPLATE IS MISSING ONE OF THE ELEMENTS WE FILL IN
+    private CompiledPageTemplate getCompiledPage(CoursePage pageToRender)
+            throws SAXException, IOException, ParserConfigurationException {
+        String pagePath = baseDir + SLASH + getLink(pageToRender);
+        File pageFile = new File(pagePath);
+        CompiledPageTemplate compiledPage = compiledTemplates.get(pagePath);
+        if ((compiledPage == null) || !compiledPage.isCompiledFrom(pageFile)) {
+            boolean isSchedulePage = (pageToRender == CoursePage.SCHEDULE);
+            Document pageDoc = templateCache.getTemplate(pagePath);
+            HashMap<String, Element> idIndex = buildIdIndex(pageDoc);
+            Node titleNode = pageDoc.getElementsByTagName(HTML.Tag.TITLE.toString()).item(0);
+            Element bannerNode = idIndex.get(ID_BANNER);
+            Element scheduleTableNode = idIndex.get(ID_SCHEDULE);
+            Element instructorSpan = idIndex.get(ID_INSTRUCTOR_LINK);
+            Element navBar = idIndex.get(ID_NAVBAR);
+            if ((titleNode == null) || (bannerNode == null) || (isSchedulePage && (scheduleTableNode == null))
+                    || (instructorSpan == null) || (navBar == null)) {
+                return null;
+            }
+
+            // THESE ARE THE SAME PLACES buildPage FILLS IN
+            HashMap<Node, CompiledPageTemplate.Slot> slots = new HashMap();
+            slots.put(titleNode, new CompiledPageTemplate.Slot(CompiledPageTemplate.SlotMode.REPLACE, this::renderTitle));
+            slots.put(bannerNode, new CompiledPageTemplate.Slot(CompiledPageTemplate.SlotMode.APPEND, this::renderBanner));
+            if (isSchedulePage) {
+                slots.put(scheduleTableNode, new CompiledPageTemplate.Slot(CompiledPageTemplate.SlotMode.APPEND, this::renderScheduleRows));
+            }
+            slots.put(instructorSpan, new CompiledPageTemplate.Slot(CompiledPageTemplate.SlotMode.APPEND, this::renderInstructor));
+            slots.put(navBar, new CompiledPageTemplate.Slot(CompiledPageTemplate.SlotMode.APPEND,
+                    (writer, state, depth, course) -> renderNavBar(writer, state, depth, course, pageToRender)));
+            compiledPage = CompiledPageTemplate.compile(pageFile, pageDoc, slots, makeProbeCourse(), htmlWriter);
+            compiledTemplates.put(pagePath, compiledPage);
+        }
+        return compiledPage;
+    }
+
+    // A TYPICAL COURSE, WHICH IS WHAT THE COMPILED TEMPLATES ARE SHAPED FOR
+    private Course makeProbeCourse() {
+        Course probeCourse = new Course(new Instructor("Instructor", "http://www.stonybrook.edu"));
+        probeCourse.setSubject(Subject.values()[0]);
+        probeCourse.setNumber(100);
+        probeCourse.setTitle("Title");
+        probeCourse.setSemester("Fall");
+        probeCourse.setYear(2000);
+        probeCourse.setScheduleDates(LocalDate.of(2000, 8, 28), LocalDate.of(2000, 9, 1));
+        for (CoursePage page : CoursePage.values()) {
+            probeCourse.addPage(page);
+        }
+        return probeCourse;
+    }
+
+    // TESTS TO SEE IF THE COURSE HAS EVERYTHING THE SLOT RENDERERS NEED,
+    // THE DOM PATH IS LEFT TO DEAL WITH ANY COURSE THAT DOESN'T
+    private boolean canRenderCompiled(Course course) {
+        Instructor instructor = course.getInstructor();
+        return (course.getSubject() != null)
+                && (course.getTitle() != null)
+                && (course.getSemester() != null)
+                && (course.getStartingMonday() != null)
+                && (course.getEndingFriday() != null)
+                && (instructor != null)
+                && (instructor.getName() != null)
+                && (instructor.getHomepageURL() != null);
+    }
+
+    // RENDERS WHAT buildPage PUTS IN THE TITLE
+    private boolean renderTitle(HtmlDocumentWriter writer, HtmlDocumentWriter.PageState state,
+            int depth, Course course) throws IOException {
+        String title = course.getSubject() + " " + course.getNumber();
+        writer.writeText(state, title);
+        return !title.isEmpty();
+    }
+
+    // RENDERS WHAT setBanner ADDS
+    private boolean renderBanner(HtmlDocumentWriter writer, HtmlDocumentWriter.PageState state,
+            int depth, Course course) throws IOException {
+        writer.writeText(state, course.getSubject().toString() + " " + course.getNumber() + " - ");
+        writer.writeText(state, course.getSemester() + " " + Integer.toString(course.getYear()));
+        String br = HTML.Tag.BR.toString();
+        int brFlags = writer.startElement(state, br, depth);
+        writer.finishStartTag(state, brFlags, false);
+        writer.endElement(state, br, brFlags, false);
+        writer.writeText(state, course.getTitle());
+        return true;
+    }
+
+    // RENDERS WHAT fillScheduleTable ADDS
+    private boolean renderScheduleRows(HtmlDocumentWriter writer, HtmlDocumentWriter.PageState state,
+            int depth, Course course) throws IOException {
+        String tr = HTML.Tag.TR.toString();
+        String th = HTML.Tag.TH.toString();
+        String td = HTML.Tag.TD.toString();
+        String strong = HTML.Tag.STRONG.toString();
+        String[] dayOfWeekHeaders = {MONDAY_HEADER, TUESDAY_HEADER, WEDNESDAY_HEADER, THURSDAY_HEADER, FRIDAY_HEADER};
+        boolean wroteRows = false;
+        LocalDate countingDate = course.getStartingMonday();
+        while (!countingDate.isAfter(course.getEndingFriday())) {
+            // THE DAY OF WEEK HEADER ROW
+            int trFlags = writer.startElement(state, tr, depth);
+            writer.finishStartTag(state, trFlags, true);
+            for (String dayOfWeekHeader : dayOfWeekHeaders) {
+                int thFlags = writer.startElement(state, th, depth + 1);
+                writer.writeAttribute(state.out, th, HTML.Attribute.CLASS.toString(), CLASS_SCH);
+                writer.finishStartTag(state, thFlags, true);
+                writer.writeText(state, dayOfWeekHeader);
+                writer.endElement(state, th, thFlags, true);
+            }
+            writer.endElement(state, tr, trFlags, true);
+
+            // AND THE ROW OF DATES FOR THE WEEK
+            trFlags = writer.startElement(state, tr, depth);
+            writer.finishStartTag(state, trFlags, true);
+            for (int i = 0; i < dayOfWeekHeaders.length; i++) {
+                int tdFlags = writer.startElement(state, td, depth + 1);
+                writer.writeAttribute(state.out, td, HTML.Attribute.CLASS.toString(), CLASS_SCH);
+                writer.finishStartTag(state, tdFlags, true);
+                int strongFlags = writer.startElement(state, strong, depth + 2);
+                writer.finishStartTag(state, strongFlags, true);
+                writer.writeText(state, countingDate.getMonthValue() + "/" + countingDate.getDayOfMonth());
+                writer.endElement(state, strong, strongFlags, true);
+                writer.endElement(state, td, tdFlags, true);
+                countingDate = countingDate.plusDays(1);
+            }
+            writer.endElement(state, tr, trFlags, true);
+
+            // SKIP THE WEEKEND
+            countingDate = countingDate.plusDays(2);
+            wroteRows = true;
+        }
+        return wroteRows;
+    }
+
+    // RENDERS WHAT appendInstructor ADDS
+    private boolean renderInstructor(HtmlDocumentWriter writer, HtmlDocumentWriter.PageState state,
+            int depth, Course course) throws IOException {
+        Instructor instructor = course.getInstructor();
+        String a = HTML.Tag.A.toString();
+        int aFlags = writer.startElement(state, a, depth);
+        writer.writeAttribute(state.out, a, HTML.Attribute.HREF.toString(), instructor.getHomepageURL());
+        boolean hasName = !instructor.getName().isEmpty();
+        writer.finishStartTag(state, aFlags, hasName);
+        writer.writeText(state, instructor.getName());
+        writer.endElement(state, a, aFlags, hasName);
+        return true;
+    }
+
+    // RENDERS WHAT setNavBar ADDS, NOTE THAT THE DOM KEEPS ATTRIBUTES
+    // SORTED BY NAME, SO THAT'S THE ORDER WE HAVE TO WRITE THEM IN
+    private boolean renderNavBar(HtmlDocumentWriter writer, HtmlDocumentWriter.PageState state,
+            int depth, Course course, CoursePage currentPage) throws IOException {
+        List<CoursePage> pages = new ArrayList(course.getPages());
+        Collections.sort(pages);
+        String a = HTML.Tag.A.toString();
+        for (CoursePage page : pages) {
+            String id;
+            String linkClass = (page == currentPage) ? CLASS_OPEN_NAV : CLASS_NAV;
+            if (page == CoursePage.INDEX) {
+                id = ID_HOME_LINK;
+            } else if (page == CoursePage.SCHEDULE) {
+                id = ID_SCHEDULE_LINK;
+            } else if (page == CoursePage.SYLLABUS) {
+                id = ID_SYLLABUS_LINK;
+            } else if (page == CoursePage.HWS) {
+                id = ID_HWS_LINK;
+            } else {
+                id = ID_PROJECTS_LINK;
+            }
+            String pageName = page.toString();
+            int aFlags = writer.startElement(state, a, depth);
+            writer.writeAttribute(state.out, a, HTML.Attribute.CLASS.toString(), linkClass);
+            writer.writeAttribute(state.out, a, HTML.Attribute.HREF.toString(), getLink(page));
+            writer.writeAttribute(state.out, a, HTML.Attribute.ID.toString(), id);
+            writer.finishStartTag(state, aFlags, !pageName.isEmpty());
+            writer.writeText(state, pageName);
+            writer.endElement(state, a, aFlags, !pageName.isEmpty());
+        }
+        return !pages.isEmpty();
+    }
 }
@@ -0,0 +1,272 @@
+package csb.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * This class keeps exported course sites up to date while it runs. It
+ * watches the course files and the base site files, and when a course
+ * file changes it exports just that course's site, while when a base file
+ * changes it exports every site, each of which is skipped if it doesn't
+ * use what changed.
+ *
+ * Note that files usually change in bursts, like when an editor saves a
+ * file in several steps or a whole directory of templates is copied in,
+ * so changes are gathered up until things have been quiet for a moment
+ * and are then all handled at once.
+ *
+ * @author Richard McKenna
+ */
+public class CourseSiteWatcher {
+    // HOW LONG THINGS HAVE TO BE QUIET BEFORE WE EXPORT
+    public static final long QUIET_PERIOD_MILLIS = 150;
+
+    // THE LONGEST WE'LL PUT OFF EXPORTING WHILE CHANGES KEEP COMING
+    public static final long MAX_DELAY_MILLIS = 2000;
+
+    // THIS DOES ALL THE ACTUAL EXPORTING
+    CourseSiteBulkExporter bulkExporter;
+    CourseSiteExporter exporter;
+
+    // THE DIRECTORIES WE WATCH
+    File coursesDir;
+    File baseDir;
+
+    // ONLY CHANGES TO COURSE FILES WITH THIS EXTENSION MATTER
+    String courseFileExt;
+
+    // WHERE THE COURSES WE EXPORT ARE CACHED, IF THEY ARE. WE KNOW EXACTLY
+    // WHICH COURSE FILES CHANGED, SO WE DROP THOSE RATHER THAN TRUSTING
+    // MODIFIED TIMES, WHICH MAY ONLY BE TO THE SECOND
+    CourseRepository repository;
+
+    // THIS GETS TOLD ABOUT EVERY EXPORT WE DO, IF THERE IS ONE
+    Consumer<BulkExportReport> listener;
+
+    // THE OPERATING SYSTEM TELLS US ABOUT CHANGES THROUGH THIS, AND THE
+    // KEYS TELL US WHICH DIRECTORY EACH CHANGE HAPPENED IN
+    volatile WatchService watchService;
+    HashMap<WatchKey, Path> watchedDirs;
+
+    /**
+     * This constructor sets up a watcher for the course files in
+     * initCoursesDir, which get exported by initExporter. Note that
+     * nothing is watched until watch is called.
+     *
+     * @param initCourseIO The object that will be loading course data.
+     * @param initExporter The object that will be exporting course sites,
+     * whose base directory will also be watched.
+     * @param initCoursesDir Directory containing the course files.
+     */
+    public CourseSiteWatcher(CourseFileManager initCourseIO, CourseSiteExporter initExporter, String initCoursesDir) {
+        this(initCourseIO, initExporter, initCoursesDir, null);
+    }
+
+    /**
+     * This constructor sets up a watcher like the one above, for when
+     * initCourseIO loads courses through initRepository, whose cached
+     * copies of changed courses are dropped before they're exported.
+     *
+     * @param initCourseIO The object that will be loading course data.
+     * @param initExporter The object that will be exporting course sites,
+     * whose base directory will also be watched.
+     * @param initCoursesDir Directory containing the course files.
+     * @param initRepository The repository initCourseIO loads through, or
+     * null if there isn't one.
+     */
+    public CourseSiteWatcher(CourseFileManager initCourseIO, CourseSiteExporter initExporter, String initCoursesDir,
+            CourseRepository initRepository) {
+        exporter = initExporter;
+        repository = initRepository;
+        bulkExporter = new CourseSiteBulkExporter(initCourseIO, initExporter);
+        coursesDir = new File(initCoursesDir).getAbsoluteFile();
+        baseDir = new File(initExporter.getBaseDir()).getAbsoluteFile();
+        courseFileExt = initCourseIO.getCourseFileExtension();
+        watchedDirs = new HashMap();
+    }
+
+    public void setListener(Consumer<BulkExportReport> initListener) {
+        listener = initListener;
+    }
+
+    /**
+     * Exports every course that needs it and then keeps exporting courses
+     * as their files or the base files change, until stop is called.
+     * Note that this doesn't return until then, so it should usually be
+     * run on a thread of its own.
+     *
+     * @throws IOException Thrown when the directories can't be watched.
+     */
+    public void watch() throws IOException {
+        WatchService service = FileSystems.getDefault().newWatchService();
+        watchService = service;
+        try {
+            register(coursesDir.toPath());
+            registerAll(baseDir.toPath());
+
+            // FIRST CATCH UP ON ANYTHING THAT CHANGED WHILE WE WEREN'T WATCHING
+            export(bulkExporter.exportAllCourses(coursesDir.getPath()));
+
+            // AND THEN WAIT FOR MORE CHANGES
+            while (watchService != null) {
+                WatchKey key = service.take();
+                PendingChanges changes = new PendingChanges();
+                long firstChangeTime = System.currentTimeMillis();
+                while (key != null) {
+                    collectChanges(key, changes);
+                    long waitLeft = MAX_DELAY_MILLIS - (System.currentTimeMillis() - firstChangeTime);
+                    key = (waitLeft > 0)
+                            ? service.poll(Math.min(QUIET_PERIOD_MILLIS, waitLeft), TimeUnit.MILLISECONDS)
+                            : null;
+                }
+                exportChanges(changes);
+            }
+        } catch (ClosedWatchServiceException cwse) {
+            // WE WERE STOPPED
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            watchService = null;
+            watchedDirs.clear();
+            service.close();
+        }
+    }
+
+    /**
+     * Stops watching, making watch return once it's done with any export
+     * it's in the middle of.
+     */
+    public void stop() {
+        WatchService service = watchService;
+        watchService = null;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException ioe) {
+                // IT'S CLOSED AS FAR AS WE'RE CONCERNED
+            }
+        }
+    }
+
+    // ADDS WHAT HAPPENED IN THE DIRECTORY OF key TO changes
+    private void collectChanges(WatchKey key, PendingChanges changes) throws IOException {
+        Path dir = watchedDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // IF WE MISSED SOME CHANGES WE HAVE TO ASSUME EVERYTHING CHANGED
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changes.everything = true;
+                changes.missedChanges = true;
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path changedPath = dir.resolve((Path) event.context());
+            String fileName = changedPath.getFileName().toString();
+            if (isIgnored(fileName)) {
+                continue;
+            }
+            if (changedPath.startsWith(baseDir.toPath())) {
+                // NEW BASE DIRECTORIES HAVE TO BE WATCHED TOO
+                if ((event.kind() == StandardWatchEventKinds.ENTRY_CREATE) && Files.isDirectory(changedPath)) {
+                    registerAll(changedPath);
+                }
+                changes.everything = true;
+            } else if (fileName.endsWith(courseFileExt)
+                    && (event.kind() != StandardWatchEventKinds.ENTRY_DELETE)) {
+                changes.courseFiles.add(changedPath.toString());
+            } else if (fileName.endsWith(courseFileExt + PatchingCourseFileManager.PATCH_EXT)
+                    && (event.kind() != StandardWatchEventKinds.ENTRY_DELETE)) {
+                // A NEW PATCH CHANGES THE COURSE IT'S FOR
+                String courseFile = changedPath.toString();
+                changes.courseFiles.add(courseFile.substring(0, courseFile.length() - PatchingCourseFileManager.PATCH_EXT.length()));
+            }
+        }
+
+        // A KEY WHOSE DIRECTORY IS GONE STOPS WORKING
+        if (!key.reset()) {
+            watchedDirs.remove(key);
+        }
+    }
+
+    // EXPORTS WHATEVER changes SAY NEEDS IT
+    private void exportChanges(PendingChanges changes) throws IOException {
+        if (repository != null) {
+            if (changes.missedChanges) {
+                repository.clear();
+            }
+            for (String courseFile : changes.courseFiles) {
+                repository.invalidate(courseFile);
+            }
+        }
+        if (changes.everything) {
+            // SOME BASE FILE CHANGED, SO LET EACH SITE'S MANIFEST DECIDE
+            exporter.clearCaches();
+            export(bulkExporter.exportAllCourses(coursesDir.getPath()));
+        } else if (!changes.courseFiles.isEmpty()) {
+            ArrayList<File> courseFiles = new ArrayList();
+            for (String courseFile : changes.courseFiles) {
+                if (new File(courseFile).isFile()) {
+                    courseFiles.add(new File(courseFile));
+                }
+            }
+            if (!courseFiles.isEmpty()) {
+                export(bulkExporter.exportCourses(courseFiles));
+            }
+        }
+    }
+
+    private void export(BulkExportReport report) {
+        Consumer<BulkExportReport> exportListener = listener;
+        if (exportListener != null) {
+            exportListener.accept(report);
+        }
+    }
+
+    private void register(Path dir) throws IOException {
+        WatchKey key = dir.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+        watchedDirs.put(key, dir);
+    }
+
+    // WATCHING ISN'T RECURSIVE, SO EVERY DIRECTORY UNDER dir IS WATCHED ON ITS OWN
+    private void registerAll(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) throws IOException {
+                register(subDir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // HIDDEN FILES AND EDITOR BACKUPS, WHICH NEVER END UP IN A SITE
+    private static boolean isIgnored(String fileName) {
+        return fileName.startsWith(".") || fileName.endsWith("~");
+    }
+
+    // THE CHANGES GATHERED UP SINCE WE LAST EXPORTED
+    private static class PendingChanges {
+        boolean everything;
+        boolean missedChanges;
+        TreeSet<String> courseFiles = new TreeSet();
+    }
+}
@@ -0,0 +1,247 @@
+package csb.file;
+
+import csb.data.Course;
+import csb.data.Instructor;
+import csb.data.Subject;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class keeps many courses in memory so that any number of threads
+ * can get and save them at once, like for a service where many people
+ * edit different courses at the same time. The actual loading and saving
+ * is left to a CourseFileManager, which has to be safe to use from many
+ * threads at once, like a JsonCourseFileManager. Note that wrapping it in
+ * a CatalogedCourseFileManager works, but every save then waits for the
+ * catalog, which is rewritten whole each time, so saves of different
+ * courses end up happening one at a time anyway.
+ *
+ * Every course has a version, which changes each time it's saved or
+ * loaded again. A save says which version it was based on, and it's
+ * refused with a StaleCourseException if the course has been saved by
+ * anyone else since. Note that versions are unique across the whole
+ * store, so an old version can never come back around and let a stale
+ * save through.
+ *
+ * Getting a course that's already in memory never waits for anything,
+ * since what's kept is never changed, just replaced when the course is
+ * saved. Saving a course only locks that course, or rather the one of
+ * the store's locks it's assigned to, so saves of different courses
+ * almost never wait for each other.
+ *
+ * Note that versions only last as long as the store does, and that this
+ * assumes nothing else is saving these courses.
+ *
+ * @author Richard McKenna
+ */
+public class CourseStore {
+    // THE VERSION OF A COURSE THAT HASN'T BEEN SAVED YET
+    public static final long NEW_COURSE = 0;
+
+    // HOW MANY LOCKS WE HAVE FOR EACH AVAILABLE PROCESSOR, WHICH KEEPS THE
+    // CHANCE OF TWO COURSES BEING SAVED AT ONCE SHARING A LOCK LOW
+    static final int LOCKS_PER_PROCESSOR = 8;
+
+    // THIS GUY DOES ALL THE ACTUAL LOADING AND SAVING
+    CourseFileManager courseIO;
+
+    // WHERE courseIO SAVES COURSES
+    File coursesDir;
+
+    // EVERY COURSE WE'VE LOADED OR SAVED, BY ITS KEY, LIKE CSE219
+    ConcurrentHashMap<String, VersionedCourse> courses;
+
+    // A COURSE CAN ONLY BE SAVED WHILE HOLDING THE WRITE LOCK ASSIGNED TO
+    // ITS KEY, AND ONLY LOADED WHILE HOLDING ITS READ LOCK. NOTE THAT THERE
+    // ARE A POWER OF TWO OF THEM, SO ONE CAN BE PICKED USING A MASK
+    ReadWriteLock[] locks;
+
+    // THE LAST VERSION GIVEN TO ANY COURSE
+    AtomicLong lastVersion;
+
+    /**
+     * This constructor sets up a store with LOCKS_PER_PROCESSOR locks for
+     * each available processor.
+     *
+     * @param initCourseIO The object that will be loading and saving.
+     * @param initCoursesDir The directory initCourseIO saves courses to.
+     */
+    public CourseStore(CourseFileManager initCourseIO, String initCoursesDir) {
+        this(initCourseIO, initCoursesDir, Runtime.getRuntime().availableProcessors() * LOCKS_PER_PROCESSOR);
+    }
+
+    /**
+     * This constructor sets up a store with at least initLockCount locks.
+     *
+     * @param initCourseIO The object that will be loading and saving.
+     * @param initCoursesDir The directory initCourseIO saves courses to.
+     * @param initLockCount The fewest locks to spread the courses across.
+     */
+    public CourseStore(CourseFileManager initCourseIO, String initCoursesDir, int initLockCount) {
+        courseIO = initCourseIO;
+        coursesDir = new File(initCoursesDir);
+        courses = new ConcurrentHashMap();
+        lastVersion = new AtomicLong(NEW_COURSE);
+        int lockCount = 1;
+        while (lockCount < initLockCount) {
+            lockCount *= 2;
+        }
+        locks = new ReadWriteLock[lockCount];
+        for (int i = 0; i < lockCount; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Gets a course, loading it if it isn't in memory yet.
+     *
+     * @param subject The course's subject.
+     * @param number The course's number.
+     *
+     * @return A copy of the course along with its version, or null if
+     * there's no such course.
+     *
+     * @throws IOException Thrown when the course has to be loaded and can't be.
+     */
+    public VersionedCourse getCourse(Subject subject, int number) throws IOException {
+        String key = CourseCatalog.getCourseKey(subject, number);
+        VersionedCourse current = courses.get(key);
+        if (current == null) {
+            ReadWriteLock lock = getLock(key);
+            lock.readLock().lock();
+            try {
+                current = load(key);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        return (current == null) ? null : current.copy();
+    }
+
+    /**
+     * Saves a course, as long as it hasn't been saved by anyone else since
+     * the version it was based on.
+     *
+     * @param courseToSave The course to save.
+     * @param expectedVersion The version courseToSave was based on, or
+     * NEW_COURSE if it's a new course.
+     *
+     * @return The course's new version.
+     *
+     * @throws StaleCourseException Thrown when the course is now some
+     * other version, in which case nothing is saved.
+     * @throws IOException Thrown when the course can't be saved.
+     */
+    public long saveCourse(Course courseToSave, long expectedVersion) throws IOException {
+        String key = CourseCatalog.getCourseKey(courseToSave.getSubject(), courseToSave.getNumber());
+        Course savedCourse = copyOf(courseToSave);
+        ReadWriteLock lock = getLock(key);
+        lock.writeLock().lock();
+        try {
+            VersionedCourse current = load(key);
+            long currentVersion = (current == null) ? NEW_COURSE : current.version;
+            if (currentVersion != expectedVersion) {
+                throw new StaleCourseException(key, expectedVersion, currentVersion);
+            }
+            courseIO.saveCourse(savedCourse);
+
+            // ONLY NOW CAN ANYONE ELSE SEE IT
+            VersionedCourse saved = new VersionedCourse(savedCourse, lastVersion.incrementAndGet());
+            courses.put(key, saved);
+            return saved.version;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops a course from memory, like after its file was changed by
+     * something else, so it's loaded again next time, as a new version.
+     * Note that this means saves based on the old version will be refused.
+     *
+     * @param subject The course's subject.
+     * @param number The course's number.
+     */
+    public void invalidate(Subject subject, int number) {
+        String key = CourseCatalog.getCourseKey(subject, number);
+        ReadWriteLock lock = getLock(key);
+        lock.writeLock().lock();
+        try {
+            courses.remove(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int getCourseCount() {
+        return courses.size();
+    }
+
+    // GETS THE COURSE FOR key, LOADING IT IF WE DON'T HAVE IT YET, WHICH
+    // MUST ONLY BE DONE HOLDING ONE OF ITS LOCKS. NOTE THAT TWO THREADS
+    // HOLDING THE READ LOCK MAY BOTH LOAD IT, IN WHICH CASE ONLY THE FIRST
+    // ONE KEEPS IT
+    private VersionedCourse load(String key) throws IOException {
+        VersionedCourse current = courses.get(key);
+        if (current != null) {
+            return current;
+        }
+        File courseFile = new File(coursesDir, key + courseIO.getCourseFileExtension());
+        if (!courseFile.exists()) {
+            return null;
+        }
+        Course loadedCourse = new Course(new Instructor("", ""));
+        courseIO.loadCourse(loadedCourse, courseFile.getPath());
+        VersionedCourse loaded = new VersionedCourse(loadedCourse, lastVersion.incrementAndGet());
+        VersionedCourse raced = courses.putIfAbsent(key, loaded);
+        return (raced == null) ? loaded : raced;
+    }
+
+    private ReadWriteLock getLock(String key) {
+        int hash = key.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (locks.length - 1)];
+    }
+
+    private static Course copyOf(Course course) {
+        Course copy = new Course(new Instructor("", ""));
+        CourseRepository.copyCourse(course, copy);
+        return copy;
+    }
+
+    /**
+     * A course as it was at some version.
+     */
+    public static class VersionedCourse {
+        // NOTE THAT THIS IS NEVER CHANGED ONCE IT'S IN THE STORE
+        final Course course;
+        final long version;
+
+        VersionedCourse(Course initCourse, long initVersion) {
+            course = initCourse;
+            version = initVersion;
+        }
+
+        /**
+         * @return The course, which the caller is free to change.
+         */
+        public Course getCourse() {
+            return course;
+        }
+
+        /**
+         * @return The version to pass to saveCourse when saving this course.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        // A COPY THE CALLER CAN HAVE
+        VersionedCourse copy() {
+            return new VersionedCourse(copyOf(course), version);
+        }
+    }
+}
@@ -0,0 +1,597 @@
+package csb.file;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * This class writes an HTML Document directly to a Writer by walking
+ * its nodes. It produces exactly what the JDK's indenting html output
+ * method used to produce for our pages, i.e. a line break before
+ * block-level tags, named entities for special characters, URL escaping
+ * of link attributes, and the Content-Type META tag at the top of the
+ * head, but without building a Transformer for every page. Note that
+ * an instance keeps no state between pages, so one writer can be
+ * shared by all exports, even concurrent ones.
+ *
+ * @author Richard McKenna
+ */
+public class HtmlDocumentWriter {
+    // THIS IS THE ONLY ENCODING WE EXPORT PAGES WITH
+    public static final String ENCODING = "UTF-8";
+
+    // THIS IS WHAT GETS PUT AT THE TOP OF EVERY head ELEMENT
+    static final String META_CONTENT_TYPE = "<META http-equiv=\"Content-Type\" content=\"text/html; charset=" + ENCODING + "\">";
+
+    // THESE DESCRIBE HOW EACH TYPE OF ELEMENT MUST BE WRITTEN
+    static final int FLAG_BLOCK = 1;
+    static final int FLAG_EMPTY = 2;
+    static final int FLAG_RAW = 4;
+    static final int FLAG_WHITESPACE_SENSITIVE = 8;
+    static final int FLAG_HEAD = 16;
+
+    // ELEMENTS WE DON'T KNOW ABOUT ARE TREATED AS BLOCKS
+    static final int FLAGS_UNKNOWN = FLAG_BLOCK;
+
+    // THE FLAGS FOR ALL THE HTML 4 ELEMENTS, KEYED BY UPPER CASE NAME
+    // AS WELL AS BY LOWER CASE NAME, SINCE THAT'S WHAT OUR PAGES USE
+    static final HashMap<String, Integer> ELEMENT_FLAGS = new HashMap();
+
+    // ATTRIBUTES THAT HOLD URLS, WHICH GET URL ESCAPED, AND BOOLEAN
+    // ATTRIBUTES, WHICH GET MINIMIZED, AS UPPER CASE ELEMENT.ATTRIBUTE
+    static final HashSet<String> URL_ATTRIBUTES = new HashSet();
+    static final HashSet<String> BOOLEAN_ATTRIBUTES = new HashSet();
+
+    // THE LOWER CASE NAMES OF ALL THE ATTRIBUTES IN THE TWO SETS ABOVE, SO
+    // THAT MOST ATTRIBUTES, LIKE class AND id, CAN SKIP LOOKING IN THEM
+    static final HashSet<String> SPECIAL_ATTRIBUTE_NAMES = new HashSet();
+
+    // THE NAMED ENTITIES WE USE FOR ESCAPING, INDEXED BY CHARACTER
+    static final String[] ENTITIES = new String[0x2700];
+
+    static {
+        int inline = 0;
+        for (String name : new String[]{"TT", "I", "B", "U", "S", "STRIKE", "BIG", "SMALL", "EM", "STRONG", "DFN", "CODE",
+            "SAMP", "KBD", "VAR", "CITE", "ABBR", "ACRONYM", "SUP", "SUB", "SPAN", "BDO", "A", "Q", "INS", "DEL", "LABEL",
+            "SELECT", "OPTGROUP", "OPTION", "TEXTAREA", "LEGEND", "BUTTON", "TH", "TD", "FONT", "NOBR"}) {
+            ELEMENT_FLAGS.put(name, inline);
+        }
+        for (String name : new String[]{"FRAMESET", "NOFRAMES", "CENTER", "DIR", "MENU", "BODY", "ADDRESS", "DIV", "MAP",
+            "P", "H1", "H2", "H3", "H4", "H5", "H6", "PRE", "BLOCKQUOTE", "DL", "DT", "DD", "OL", "UL", "LI", "FORM",
+            "FIELDSET", "TABLE", "CAPTION", "THEAD", "TFOOT", "TBODY", "COLGROUP", "TR", "TITLE", "NOSCRIPT", "HTML",
+            "IFRAME", "LAYER", "ILAYER"}) {
+            ELEMENT_FLAGS.put(name, FLAG_BLOCK);
+        }
+        for (String name : new String[]{"FRAME", "ISINDEX", "BR", "AREA", "LINK", "HR", "COL", "META"}) {
+            ELEMENT_FLAGS.put(name, FLAG_BLOCK | FLAG_EMPTY);
+        }
+        for (String name : new String[]{"BASEFONT", "PARAM", "INPUT", "BASE"}) {
+            ELEMENT_FLAGS.put(name, FLAG_EMPTY);
+        }
+        ELEMENT_FLAGS.put("APPLET", FLAG_WHITESPACE_SENSITIVE);
+        ELEMENT_FLAGS.put("OBJECT", FLAG_WHITESPACE_SENSITIVE);
+        ELEMENT_FLAGS.put("IMG", FLAG_EMPTY | FLAG_WHITESPACE_SENSITIVE);
+        ELEMENT_FLAGS.put("STYLE", FLAG_BLOCK | FLAG_RAW);
+        ELEMENT_FLAGS.put("SCRIPT", FLAG_RAW);
+        ELEMENT_FLAGS.put("HEAD", FLAG_BLOCK | FLAG_HEAD);
+
+        for (String attribute : new String[]{"A.HREF", "A.NAME", "AREA.HREF", "BASE.HREF", "BLOCKQUOTE.CITE", "DEL.CITE",
+            "DIV.SRC", "FORM.ACTION", "FRAME.SRC", "FRAME.LONGDESC", "HEAD.PROFILE", "IFRAME.SRC", "IFRAME.LONGDESC",
+            "ILAYER.SRC", "IMG.SRC", "IMG.LONGDESC", "IMG.USEMAP", "INPUT.SRC", "INPUT.USEMAP", "INS.CITE", "LAYER.SRC",
+            "LINK.HREF", "OBJECT.CLASSID", "OBJECT.CODEBASE", "OBJECT.DATA", "OBJECT.ARCHIVE", "OBJECT.USEMAP", "Q.CITE",
+            "SCRIPT.SRC", "SCRIPT.FOR"}) {
+            URL_ATTRIBUTES.add(attribute);
+        }
+        for (String attribute : new String[]{"AREA.NOHREF", "BUTTON.DISABLED", "DIR.COMPACT", "DIV.NOWRAP", "DL.COMPACT",
+            "FRAME.NORESIZE", "HR.NOSHADE", "IMG.ISMAP", "INPUT.CHECKED", "INPUT.DISABLED", "INPUT.ISMAP", "INPUT.READONLY",
+            "MENU.COMPACT", "OBJECT.DECLARE", "OL.COMPACT", "OPTGROUP.DISABLED", "OPTION.SELECTED", "OPTION.DISABLED",
+            "SCRIPT.DEFER", "SELECT.DISABLED", "SELECT.MULTIPLE", "TABLE.NOWRAP", "TD.NOWRAP", "TEXTAREA.DISABLED",
+            "TEXTAREA.READONLY", "TH.NOWRAP", "TR.NOWRAP", "UL.COMPACT"}) {
+            BOOLEAN_ATTRIBUTES.add(attribute);
+        }
+        for (String name : new ArrayList<String>(ELEMENT_FLAGS.keySet())) {
+            ELEMENT_FLAGS.put(name.toLowerCase(Locale.ENGLISH), ELEMENT_FLAGS.get(name));
+        }
+        for (String attribute : URL_ATTRIBUTES) {
+            SPECIAL_ATTRIBUTE_NAMES.add(attribute.substring(attribute.indexOf('.') + 1).toLowerCase(Locale.ENGLISH));
+        }
+        for (String attribute : BOOLEAN_ATTRIBUTES) {
+            SPECIAL_ATTRIBUTE_NAMES.add(attribute.substring(attribute.indexOf('.') + 1).toLowerCase(Locale.ENGLISH));
+        }
+
+        // THE CHARACTER ENTITIES THE JDK'S HTML OUTPUT USES, WHICH ARE THE
+        // HTML 4 ONES MINUS GREEK LETTERS AND A FEW LATIN EXTENDED ONES
+        ENTITIES['"'] = "quot";
+        ENTITIES['&'] = "amp";
+        ENTITIES['<'] = "lt";
+        ENTITIES['>'] = "gt";
+        defineEntities(160, "nbsp iexcl cent pound curren yen brvbar sect uml copy ordf laquo not shy reg macr deg plusmn "
+                + "sup2 sup3 acute micro para middot cedil sup1 ordm raquo frac14 frac12 frac34 iquest Agrave Aacute Acirc "
+                + "Atilde Auml Aring AElig Ccedil Egrave Eacute Ecirc Euml Igrave Iacute Icirc Iuml ETH Ntilde Ograve Oacute "
+                + "Ocirc Otilde Ouml times Oslash Ugrave Uacute Ucirc Uuml Yacute THORN szlig agrave aacute acirc atilde auml "
+                + "aring aelig ccedil egrave eacute ecirc euml igrave iacute icirc iuml eth ntilde ograve oacute ocirc otilde "
+                + "ouml divide oslash ugrave uacute ucirc uuml yacute thorn yuml");
+        defineEntities(8194, "ensp emsp");
+        defineEntities(8204, "zwnj zwj lrm rlm");
+        defineEntities(8211, "ndash mdash");
+        defineEntities(8216, "lsquo rsquo sbquo");
+        defineEntities(8220, "ldquo rdquo bdquo");
+        defineEntities(8224, "dagger Dagger bull");
+        defineEntities(8242, "prime Prime");
+        defineEntities(8249, "lsaquo rsaquo");
+        defineEntities(8592, "larr uarr rarr darr harr");
+        defineEntities(8656, "lArr uArr rArr dArr hArr");
+        defineEntities(8706, "part exist");
+        defineEntities(8711, "nabla isin notin");
+        defineEntities(8721, "sum minus");
+        defineEntities(8743, "and or cap cup int");
+        defineEntities(8800, "ne equiv");
+        defineEntities(8804, "le ge");
+        defineEntities(8834, "sub sup nsub");
+        defineEntities(8838, "sube supe");
+        defineEntities(8968, "lceil rceil lfloor rfloor");
+        defineEntities(9001, "lang rang");
+        String[] singles = {"8201 thinsp", "8230 hellip", "8240 permil", "8254 oline", "8260 frasl", "8364 euro",
+            "8465 image", "8472 weierp", "8476 real", "8482 trade", "8501 alefsym", "8629 crarr", "8704 forall",
+            "8709 empty", "8715 ni", "8719 prod", "8727 lowast", "8730 radic", "8733 prop", "8734 infin", "8736 ang",
+            "8756 there4", "8764 sim", "8773 cong", "8776 asymp", "8853 oplus", "8855 otimes", "8869 perp", "8901 sdot",
+            "9674 loz", "9824 spades", "9827 clubs", "9829 hearts", "9830 diams"};
+        for (String single : singles) {
+            int space = single.indexOf(' ');
+            ENTITIES[Integer.parseInt(single.substring(0, space))] = single.substring(space + 1);
+        }
+    }
+
+    // HELPER FOR FILLING IN A RUN OF ENTITIES FOR CONSECUTIVE CHARACTERS
+    private static void defineEntities(int firstChar, String names) {
+        int ch = firstChar;
+        for (String name : names.split(" ")) {
+            ENTITIES[ch++] = name;
+        }
+    }
+
+    // THIS IS USED TO END EVERY LINE WE WRITE
+    String lineSeparator;
+
+    /**
+     * This constructor sets up a writer that ends lines using the
+     * platform's line separator, just like the Transformer did.
+     */
+    public HtmlDocumentWriter() {
+        this(System.getProperty("line.separator"));
+    }
+
+    /**
+     * This constructor sets up a writer that ends lines using
+     * initLineSeparator.
+     *
+     * @param initLineSeparator Text to use for ending each line.
+     */
+    public HtmlDocumentWriter(String initLineSeparator) {
+        lineSeparator = initLineSeparator;
+    }
+
+    /**
+     * Writes the full doc argument as HTML to the out argument. Note
+     * that the caller is responsible for buffering, flushing, and
+     * closing out, which must encode its characters using ENCODING.
+     *
+     * @param doc The page to write.
+     * @param out Where to write it.
+     *
+     * @throws IOException Thrown when writing to out fails.
+     */
+    public void write(Document doc, Writer out) throws IOException {
+        PageState state = new PageState(out);
+        for (Node child = doc.getFirstChild(); child != null; child = child.getNextSibling()) {
+            writeNode(state, child, 0);
+        }
+        endDocument(state);
+    }
+
+    // NOTE THAT THE PACKAGE-PRIVATE METHODS BELOW ARE THE PIECES A PAGE
+    // IS WRITTEN WITH, WHICH THE CompiledPageTemplate ALSO USES SO THAT
+    // ITS PAGES COME OUT EXACTLY THE SAME AS THE ONES WE WRITE
+
+    // FINISHES A PAGE ONCE ALL ITS NODES HAVE BEEN WRITTEN
+    void endDocument(PageState state) throws IOException {
+        if (!state.prevText) {
+            state.out.write(lineSeparator);
+        }
+    }
+
+    // WRITES ANY KIND OF NODE WE MIGHT FIND IN A PAGE
+    void writeNode(PageState state, Node node, int depth) throws IOException {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                writeElement(state, node, depth);
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                writeText(state, node.getNodeValue());
+                break;
+            case Node.COMMENT_NODE:
+                writeComment(state, node.getNodeValue(), depth);
+                break;
+            case Node.ENTITY_REFERENCE_NODE:
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    writeNode(state, child, depth);
+                }
+                break;
+            default:
+                // DOCTYPES AND PROCESSING INSTRUCTIONS NEVER MADE IT INTO OUR PAGES
+                break;
+        }
+    }
+
+    // WRITES AN ELEMENT, ITS ATTRIBUTES, AND EVERYTHING INSIDE IT
+    private void writeElement(PageState state, Node element, int depth) throws IOException {
+        String name = element.getNodeName();
+        int flags = startElement(state, name, depth);
+        writeAttributes(state.out, name, element.getAttributes());
+        boolean hasChildren = finishStartTag(state, flags, hasContent(element));
+
+        // THEN ITS CONTENTS
+        boolean isRaw = (flags & FLAG_RAW) != 0;
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (isRaw && (child.getNodeType() == Node.TEXT_NODE)) {
+                writeRawText(state, child.getNodeValue());
+            } else {
+                writeNode(state, child, depth + 1);
+            }
+        }
+
+        // AND FINALLY THE END TAG
+        endElement(state, name, flags, hasChildren);
+    }
+
+    // WRITES THE START OF AN ELEMENT'S START TAG, UP TO ITS ATTRIBUTES,
+    // AND RETURNS THE FLAGS DESCRIBING HOW THE REST MUST BE WRITTEN
+    int startElement(PageState state, String name, int depth) throws IOException {
+        Writer out = state.out;
+        int flags = getElementFlags(name);
+        boolean isBlock = (flags & FLAG_BLOCK) != 0;
+
+        // BREAK THE LINE BEFORE THE START TAG IF NEEDED
+        if (state.preserve) {
+            state.preserve = false;
+        } else if ((depth > 0) && (!state.inBlock || isBlock)) {
+            state.startNewLine = true;
+            out.write(lineSeparator);
+        }
+        state.inBlock = !isBlock;
+        state.prevText = false;
+
+        // NOW THE START TAG
+        out.write('<');
+        out.write(name);
+        return flags;
+    }
+
+    // CLOSES THE START TAG, RETURNING WHETHER THE ELEMENT WILL END UP
+    // WITH ANYTHING INSIDE IT, WHICH THE head ALWAYS DOES
+    boolean finishStartTag(PageState state, int flags, boolean hasChildren) throws IOException {
+        Writer out = state.out;
+        out.write('>');
+        if ((flags & FLAG_HEAD) != 0) {
+            if (state.startNewLine) {
+                out.write(lineSeparator);
+            }
+            out.write(META_CONTENT_TYPE);
+            return true;
+        }
+        return hasChildren;
+    }
+
+    // WRITES AN ELEMENT'S END TAG, NOTE THAT AN EMPTY ELEMENT ONLY
+    // GETS ONE IF SOMEONE PUT SOMETHING INSIDE IT ANYWAY
+    void endElement(PageState state, String name, int flags, boolean hasChildren) throws IOException {
+        Writer out = state.out;
+        boolean isBlock = (flags & FLAG_BLOCK) != 0;
+        boolean shouldBreak = false;
+        if (state.preserve) {
+            state.preserve = false;
+        } else if (!state.inBlock || isBlock) {
+            state.startNewLine = true;
+            shouldBreak = true;
+        }
+        if (hasChildren && shouldBreak) {
+            out.write(lineSeparator);
+        }
+        state.inBlock = !isBlock;
+        if (hasChildren || ((flags & FLAG_EMPTY) == 0)) {
+            out.write("</");
+            out.write(name);
+            out.write('>');
+        }
+        if ((flags & FLAG_WHITESPACE_SENSITIVE) != 0) {
+            state.preserve = true;
+        }
+        state.prevText = false;
+    }
+
+    // GETS THE FLAGS DESCRIBING HOW THE elementName ELEMENT IS WRITTEN
+    static int getElementFlags(String elementName) {
+        Integer flagsValue = ELEMENT_FLAGS.get(elementName);
+        if (flagsValue == null) {
+            flagsValue = ELEMENT_FLAGS.get(elementName.toUpperCase(Locale.ENGLISH));
+        }
+        return (flagsValue == null) ? FLAGS_UNKNOWN : flagsValue;
+    }
+
+    // WRITES ALL THE ATTRIBUTES OF AN ELEMENT, IN DOCUMENT ORDER
+    void writeAttributes(Writer out, String elementName, NamedNodeMap attributes) throws IOException {
+        if (attributes == null) {
+            return;
+        }
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            writeAttribute(out, elementName, attribute.getName(), attribute.getValue());
+        }
+    }
+
+    // WRITES A SINGLE ATTRIBUTE OF THE elementName ELEMENT
+    void writeAttribute(Writer out, String elementName, String name, String value) throws IOException {
+        boolean isBoolean = false;
+        boolean isURL = false;
+        if (SPECIAL_ATTRIBUTE_NAMES.contains(name.toLowerCase(Locale.ENGLISH))) {
+            String key = (elementName + "." + name).toUpperCase(Locale.ENGLISH);
+            isBoolean = BOOLEAN_ATTRIBUTES.contains(key);
+            isURL = URL_ATTRIBUTES.contains(key);
+        }
+        out.write(' ');
+        if (isBoolean && (value.isEmpty() || value.equalsIgnoreCase(name))) {
+            out.write(name);
+        } else {
+            out.write(name);
+            out.write("=\"");
+            if (isURL) {
+                writeURLAttributeValue(out, value);
+            } else {
+                writeAttributeValue(out, value);
+            }
+            out.write('"');
+        }
+    }
+
+    // WRITES TEXT FOUND INSIDE ELEMENTS, ESCAPING AS NEEDED
+    void writeText(PageState state, String text) throws IOException {
+        if (text.isEmpty()) {
+            return;
+        }
+        Writer out = state.out;
+
+        // ANY REAL TEXT MEANS WE SHOULDN'T ADD A LINE BREAK
+        // BEFORE THE NEXT TAG, SINCE THAT WOULD CHANGE THE TEXT
+        if (!isWhitespace(text)) {
+            state.preserve = true;
+        }
+
+        int length = text.length();
+        int cleanStart = 0;
+        for (int i = 0; i < length; i++) {
+            char ch = text.charAt(i);
+            String replacement = null;
+            int consumed = 1;
+            if (ch == '\n') {
+                replacement = lineSeparator;
+            } else if (ch == '"') {
+                // QUOTES NEED NO ESCAPING IN TEXT
+            } else if ((ch < ENTITIES.length) && (ENTITIES[ch] != null)) {
+                replacement = "&" + ENTITIES[ch] + ";";
+            } else if (isControlCharacter(ch) || (ch == '\r')) {
+                replacement = "&#" + (int) ch + ";";
+            } else if (Character.isHighSurrogate(ch)) {
+                if ((i + 1 >= length) || !Character.isLowSurrogate(text.charAt(i + 1))) {
+                    throw new IOException("Invalid UTF-16 surrogate detected: " + Integer.toHexString(ch));
+                }
+                replacement = "&#" + text.codePointAt(i) + ";";
+                consumed = 2;
+            }
+            if (replacement != null) {
+                out.write(text, cleanStart, i - cleanStart);
+                out.write(replacement);
+                i += consumed - 1;
+                cleanStart = i + 1;
+            }
+        }
+        out.write(text, cleanStart, length - cleanStart);
+        state.prevText = true;
+    }
+
+    // WRITES THE TEXT OF A script OR style ELEMENT, WHICH MUST NOT BE ESCAPED
+    private void writeRawText(PageState state, String text) throws IOException {
+        state.preserve = true;
+        state.out.write(text.replace("\n", lineSeparator));
+        state.prevText = true;
+    }
+
+    // WRITES A COMMENT, MAKING SURE ITS CONTENTS CAN'T END IT EARLY
+    private void writeComment(PageState state, String comment, int depth) throws IOException {
+        Writer out = state.out;
+        if (state.startNewLine && !state.preserve && !state.prevText && (depth > 0)) {
+            out.write(lineSeparator);
+        }
+        out.write("<!--");
+        boolean wasDash = false;
+        for (int i = 0; i < comment.length(); i++) {
+            char ch = comment.charAt(i);
+            if (wasDash && (ch == '-')) {
+                out.write(" -");
+            } else {
+                out.write(ch);
+            }
+            wasDash = (ch == '-');
+        }
+        if (comment.endsWith("-")) {
+            out.write(' ');
+        }
+        out.write("-->");
+        state.startNewLine = true;
+    }
+
+    // WRITES A REGULAR ATTRIBUTE VALUE
+    private void writeAttributeValue(Writer out, String value) throws IOException {
+        // MOST VALUES, LIKE CLASS NAMES, HAVE NOTHING TO ESCAPE
+        if (isPlainAttributeValue(value)) {
+            out.write(value);
+            return;
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char ch = value.charAt(i);
+            if ((ch == '<') || (ch == '>')) {
+                out.write(ch);
+            } else if ((ch == '&') && (i + 1 < length) && (value.charAt(i + 1) == '{')) {
+                // THIS IS HOW SCRIPT ENTITIES ARE WRITTEN, SO LEAVE IT
+                out.write(ch);
+            } else if ((ch < ENTITIES.length) && (ENTITIES[ch] != null)) {
+                out.write('&');
+                out.write(ENTITIES[ch]);
+                out.write(';');
+            } else if ((ch < 0x20) && (ch != '\t') && (ch != '\n') && (ch != '\r')) {
+                out.write("&#" + (int) ch + ";");
+            } else if (Character.isHighSurrogate(ch)) {
+                if ((i + 1 >= length) || !Character.isLowSurrogate(value.charAt(i + 1))) {
+                    throw new IOException("Invalid UTF-16 surrogate detected: " + Integer.toHexString(ch));
+                }
+                // THE TRANSFORMER WROTE THE PAIR FOLLOWED BY A REFERENCE TO
+                // ITS FIRST HALF, WHICH WE KEEP SO PAGES DON'T CHANGE
+                out.write(ch);
+                out.write(value.charAt(i + 1));
+                out.write("&#" + (int) ch + ";");
+                i++;
+            } else {
+                out.write(ch);
+            }
+        }
+    }
+
+    // WRITES AN ATTRIBUTE VALUE THAT IS A URL, WHICH MEANS PERCENT
+    // ENCODING ANYTHING OUTSIDE OF PRINTABLE ASCII AS UTF-8
+    private void writeURLAttributeValue(Writer out, String value) throws IOException {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char ch = value.charAt(i);
+            if ((ch < 32) || (ch > 126)) {
+                if (Character.isHighSurrogate(ch) && (i + 1 < length)) {
+                    writePercentEncoded(out, value.substring(i, i + 2));
+                    i++;
+                } else {
+                    writePercentEncoded(out, String.valueOf(ch));
+                }
+            } else if (ch == '"') {
+                out.write("%22");
+            } else if (ch == '&') {
+                out.write("&amp;");
+            } else {
+                out.write(ch);
+            }
+        }
+    }
+
+    // WRITES THE UTF-8 BYTES OF THE TEXT ARGUMENT AS %XX ESCAPES
+    private void writePercentEncoded(Writer out, String text) throws IOException {
+        for (byte b : text.getBytes(ENCODING)) {
+            out.write('%');
+            out.write(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)));
+            out.write(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+        }
+    }
+
+    // TESTS TO SEE IF THE ELEMENT HAS ANYTHING INSIDE IT THAT WILL
+    // ACTUALLY BE WRITTEN, NOTE THAT EMPTY TEXT NODES DON'T COUNT
+    static boolean hasContent(Node element) {
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            short type = child.getNodeType();
+            if ((type == Node.ELEMENT_NODE) || (type == Node.COMMENT_NODE)) {
+                return true;
+            } else if (((type == Node.TEXT_NODE) || (type == Node.CDATA_SECTION_NODE))
+                    && !child.getNodeValue().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // TESTS TO SEE IF THE VALUE IS ALL PRINTABLE ASCII THAT NEEDS NO ESCAPING
+    private static boolean isPlainAttributeValue(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if ((ch < 0x20) || (ch > 0x7E) || (ch == '&') || (ch == '"')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // TESTS FOR THE CONTROL CHARACTERS THAT CAN'T BE WRITTEN AS IS
+    private static boolean isControlCharacter(char ch) {
+        return ((ch >= 0x01) && (ch <= 0x1F) && (ch != '\t') && (ch != '\n') && (ch != '\r'))
+                || ((ch >= 0x7F) && (ch <= 0x9F));
+    }
+
+    // TESTS TO SEE IF THE TEXT IS NOTHING BUT WHITESPACE
+    private static boolean isWhitespace(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if ((ch != ' ') && (ch != '\n') && (ch != '\r') && (ch != '\t')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // THE STATE WE NEED TO TRACK WHILE WRITING A SINGLE PAGE
+    static class PageState {
+        // WHERE THE PAGE IS GOING, NOTE THAT THIS MAY BE SWITCHED PART
+        // WAY THROUGH A PAGE, LIKE WHEN COMPILING A TEMPLATE
+        Writer out;
+
+        // ARE WE INSIDE AN INLINE ELEMENT, WHERE LINE BREAKS AREN'T ADDED
+        boolean inBlock;
+
+        // DID WE JUST WRITE SOMETHING A LINE BREAK WOULD CHANGE
+        boolean preserve;
+
+        // WAS THE LAST THING WE WROTE TEXT
+        boolean prevText;
+
+        // HAVE WE STARTED BREAKING LINES YET
+        boolean startNewLine;
+
+        PageState(Writer initOut) {
+            out = initOut;
+        }
+
+        // MAKES A COPY OF JUST THE FORMATTING STATE, WITHOUT THE OUTPUT
+        PageState snapshot() {
+            PageState copy = new PageState(null);
+            copy.setTo(this);
+            return copy;
+        }
+
+        // TAKES ON THE FORMATTING STATE OF other, KEEPING OUR OWN OUTPUT
+        void setTo(PageState other) {
+            inBlock = other.inBlock;
+            preserve = other.preserve;
+            prevText = other.prevText;
+            startNewLine = other.startNewLine;
+        }
+
+        // TESTS TO SEE IF other WOULD FORMAT WHAT COMES NEXT THE SAME WAY
+        boolean sameAs(PageState other) {
+            return (inBlock == other.inBlock)
+                    && (preserve == other.preserve)
+                    && (prevText == other.prevText)
+                    && (startNewLine == other.startNewLine);
+        }
+    }
+}
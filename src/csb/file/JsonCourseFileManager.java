@@ -1,28 +1,34 @@
 package csb.file;
 
 import static csb.CSB_StartupConstants.PATH_COURSES;
+import static csb.file.JsonFactories.*;
 import csb.data.Course;
 import csb.data.CoursePage;
 import csb.data.Instructor;
 import csb.data.Semester;
-import csb.data.Subject;
 import csb.gui.CSB_GUI;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
-import javax.json.Json;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
-import javax.json.JsonWriter;
 import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
 
 /**
  * This is a CourseFileManager that uses the JSON file format to 
@@ -51,8 +57,13 @@ public class JsonCourseFileManager implements CourseFileManager {
     public static String JSON_LECTURE_DAYS = "lectureDays";
     public static String JSON_EXT = ".json";
     public static String SLASH = "/";
-    
-  
+
+    // FOR NAMING THE TEMPORARY FILES WE SAVE TO
+    static final AtomicLong tempFileCounter = new AtomicLong();
+
+    // THIS LOADS COURSES IN A SINGLE PASS OVER THEIR FILES
+    JsonCourseStreamReader courseReader = new JsonCourseStreamReader();
+
 
     /**
      * This method saves all the data associated with a course to
@@ -67,44 +78,45 @@ public class JsonCourseFileManager implements CourseFileManager {
     public void saveCourse(Course courseToSave) throws IOException {
         // BUILD THE FILE PATH
         String courseListing = "" + courseToSave.getSubject() + courseToSave.getNumber();
-        String jsonFilePath = PATH_COURSES + SLASH + courseListing + JSON_EXT;
-        
-        // INIT THE WRITER
-        OutputStream os = new FileOutputStream(jsonFilePath);
-        JsonWriter jsonWriter = Json.createWriter(os);  
-        
-        // MAKE A JSON ARRAY FOR THE PAGES ARRAY
-        JsonArray pagesJsonArray = makePagesJsonArray(courseToSave.getPages());
-        
-        // AND AN OBJECT FOR THE INSTRUCTOR
-        JsonObject instructorJsonObject = makeInstructorJsonObject(courseToSave.getInstructor());
-        
-        // ONE FOR EACH OF OUR DATES
-        JsonObject startingMondayJsonObject = makeLocalDateJsonObject(courseToSave.getStartingMonday());
-        JsonObject endingFridayJsonObject = makeLocalDateJsonObject(courseToSave.getEndingFriday());
-        
-        // AND THE LECTURE DAYS ARRAY
-        JsonArray lectureDaysJsonArray = makeLectureDaysJsonArray(courseToSave.getLectureDays());
-        
-        
-        
-        
-        // NOW BUILD THE COURSE USING EVERYTHING WE'VE ALREADY MADE
-        JsonObject courseJsonObject = Json.createObjectBuilder()
-                                    .add(JSON_SUBJECT, courseToSave.getSubject().toString())
-                                    .add(JSON_NUMBER, courseToSave.getNumber())
-                                    .add(JSON_TITLE, courseToSave.getTitle())
-                                    .add(JSON_PAGES, pagesJsonArray)
-                                    .add(JSON_INSTRUCTOR, instructorJsonObject)
-                                    .add(JSON_STARTING_MONDAY, startingMondayJsonObject)
-                                    .add(JSON_ENDING_FRIDAY, endingFridayJsonObject)
-                                    .add(JSON_LECTURE_DAYS, lectureDaysJsonArray)
-                                    .add(JSON_SEMESTER, courseToSave.getSemester())
-                                    .add(JSON_YEAR, courseToSave.getYear())
-                .build();
-        
-        // AND SAVE EVERYTHING AT ONCE
-        jsonWriter.writeObject(courseJsonObject);
+        saveCourse(courseToSave, PATH_COURSES + SLASH + courseListing + JSON_EXT);
+    }
+    
+    /**
+     * This method saves all the data associated with a course to the
+     * JSON file at jsonFilePath.
+     * 
+     * @param courseToSave The course whose data we are saving.
+     * 
+     * @param jsonFilePath Where to save it, replacing any file there.
+     * 
+     * @throws IOException Thrown when there are issues writing
+     * to the JSON file.
+     */
+    public void saveCourse(Course courseToSave, String jsonFilePath) throws IOException {
+        // STREAM THE COURSE STRAIGHT INTO THE FILE
+        writeJSONFile(jsonFilePath, jsonGenerator -> {
+            jsonGenerator.writeStartObject()
+                    .write(JSON_SUBJECT, courseToSave.getSubject().toString())
+                    .write(JSON_NUMBER, courseToSave.getNumber())
+                    .write(JSON_TITLE, courseToSave.getTitle());
+            
+            // THE PAGES ARRAY
+            writeStringArray(jsonGenerator, JSON_PAGES, courseToSave.getPages());
+            
+            // AN OBJECT FOR THE INSTRUCTOR
+            writeInstructor(jsonGenerator.writeStartObject(JSON_INSTRUCTOR), courseToSave.getInstructor());
+            
+            // ONE FOR EACH OF OUR DATES
+            writeLocalDate(jsonGenerator, JSON_STARTING_MONDAY, courseToSave.getStartingMonday());
+            writeLocalDate(jsonGenerator, JSON_ENDING_FRIDAY, courseToSave.getEndingFriday());
+            
+            // AND THE LECTURE DAYS ARRAY
+            writeStringArray(jsonGenerator, JSON_LECTURE_DAYS, courseToSave.getLectureDays());
+            
+            jsonGenerator.write(JSON_SEMESTER, courseToSave.getSemester())
+                    .write(JSON_YEAR, courseToSave.getYear())
+                    .writeEnd();
+        });
     }
     
     /**
@@ -117,57 +129,9 @@ public class JsonCourseFileManager implements CourseFileManager {
      */
     @Override
     public void loadCourse(Course courseToLoad, String jsonFilePath) throws IOException {
-        // LOAD THE JSON FILE WITH ALL THE DATA
-        JsonObject json = loadJSONFile(jsonFilePath);
-        
-        // NOW LOAD THE COURSE
-        courseToLoad.setSubject(Subject.valueOf(json.getString(JSON_SUBJECT)));
-        courseToLoad.setNumber(json.getInt(JSON_NUMBER));
-        courseToLoad.setTitle(json.getString(JSON_TITLE));
-        
-        
-        
-        
-        courseToLoad.setSemester((json.getString(JSON_SEMESTER)));
-        courseToLoad.setYear(json.getInt(JSON_YEAR));
-        
-        
-        
-        // GET THE PAGES TO INCLUDE 
-        courseToLoad.clearPages();
-        JsonArray jsonPagesArray = json.getJsonArray(JSON_PAGES);
-        for (int i = 0; i < jsonPagesArray.size(); i++)
-            courseToLoad.addPage(CoursePage.valueOf(jsonPagesArray.getString(i)));
-        
-        // GET THE LECTURE DAYS TO INCLUDE
-        courseToLoad.clearLectureDays();
-        JsonArray jsonLectureDaysArray = json.getJsonArray(JSON_LECTURE_DAYS);
-        for (int i = 0; i < jsonLectureDaysArray.size(); i++)
-            courseToLoad.addLectureDay(DayOfWeek.valueOf(jsonLectureDaysArray.getString(i)));
-
-        // LOAD AND SET THE INSTRUCTOR
-        JsonObject jsonInstructor = json.getJsonObject(JSON_INSTRUCTOR);
-        Instructor instructor = new Instructor( jsonInstructor.getString(JSON_INSTRUCTOR_NAME),
-                                                jsonInstructor.getString(JSON_HOMEPAGE_URL));
-        courseToLoad.setInstructor(instructor);
-        
-        JsonObject startingMonday = json.getJsonObject(JSON_STARTING_MONDAY);
-        int year = startingMonday.getInt(JSON_YEAR);
-        int month = startingMonday.getInt(JSON_MONTH);
-        int day = startingMonday.getInt(JSON_DAY);
-        courseToLoad.setStartingMonday(LocalDate.of(year, month, day));
-        
-        JsonObject endingFriday = json.getJsonObject(JSON_ENDING_FRIDAY);
-        year = endingFriday.getInt(JSON_YEAR);
-        month = endingFriday.getInt(JSON_MONTH);
-        day = endingFriday.getInt(JSON_DAY);
-        courseToLoad.setEndingFriday(LocalDate.of(year, month, day));
-        
-        
-        
-        
-        
-        
+        // READ THE COURSE STRAIGHT FROM THE FILE RATHER THAN LOADING
+        // THE WHOLE FILE AS JSON OBJECTS FIRST
+        courseReader.loadCourse(courseToLoad, jsonFilePath);
     }
     
     /**
@@ -179,10 +143,8 @@ public class JsonCourseFileManager implements CourseFileManager {
      */
     @Override
     public void saveLastInstructor(Instructor lastInstructor, String jsonFilePath) throws IOException {
-        OutputStream os = new FileOutputStream(jsonFilePath);
-        JsonWriter jsonWriter = Json.createWriter(os); 
-        JsonObject instructorJsonObject = makeInstructorJsonObject(lastInstructor);
-        jsonWriter.writeObject(instructorJsonObject);
+        writeJSONFile(jsonFilePath, jsonGenerator ->
+                writeInstructor(jsonGenerator.writeStartObject(), lastInstructor));
     }
     
     /**
@@ -206,10 +168,11 @@ public class JsonCourseFileManager implements CourseFileManager {
      */
     @Override
     public void saveSubjects(List<Object> subjects, String jsonFilePath) throws IOException {
-        JsonObject arrayObject = buildJsonArrayObject(subjects);
-        OutputStream os = new FileOutputStream(jsonFilePath);
-        JsonWriter jsonWriter = Json.createWriter(os);  
-        jsonWriter.writeObject(arrayObject);        
+        writeJSONFile(jsonFilePath, jsonGenerator -> {
+            jsonGenerator.writeStartObject();
+            writeStringArray(jsonGenerator, JSON_SUBJECTS, subjects);
+            jsonGenerator.writeEnd();
+        });
     }
     
     /**
@@ -223,18 +186,66 @@ public class JsonCourseFileManager implements CourseFileManager {
         return loadArrayFromJSONFile(jsonFilePath, JSON_SUBJECTS);
     }
     
+    @Override
+    public String getCourseFileExtension() {
+        return JSON_EXT;
+    }
+    
     // AND HERE ARE THE PRIVATE HELPER METHODS TO HELP THE PUBLIC ONES
     
     // LOADS A JSON FILE AS A SINGLE OBJECT AND RETURNS IT
     private JsonObject loadJSONFile(String jsonFilePath) throws IOException {
-        InputStream is = new FileInputStream(jsonFilePath);
-        JsonReader jsonReader = Json.createReader(is);
-        JsonObject json = jsonReader.readObject();
-        jsonReader.close();
-        is.close();
-        return json;
+        try (   InputStream is = new BufferedInputStream(Files.newInputStream(Paths.get(jsonFilePath)), FILE_BUFFER_SIZE);
+                JsonReader jsonReader = READER_FACTORY.createReader(is)) {
+            return jsonReader.readObject();
+        }
     }    
     
+    // WRITES A JSON FILE USING content TO GENERATE WHAT GOES IN IT. NOTE
+    // THAT IT'S WRITTEN UNDER A TEMPORARY NAME AND ONLY REPLACES THE OLD
+    // FILE ONCE IT'S COMPLETE, SO A FAILED SAVE NEVER LEAVES HALF A FILE
+    static void writeJSONFile(String jsonFilePath, Consumer<JsonGenerator> content) throws IOException {
+        Path jsonPath = Paths.get(jsonFilePath).toAbsolutePath();
+        Path tempPath = jsonPath.resolveSibling(
+                "." + jsonPath.getFileName() + "." + tempFileCounter.incrementAndGet() + ".tmp");
+        try {
+            try (   OutputStream os = new BufferedOutputStream(Files.newOutputStream(tempPath), FILE_BUFFER_SIZE);
+                    JsonGenerator jsonGenerator = GENERATOR_FACTORY.createGenerator(os)) {
+                content.accept(jsonGenerator);
+            } catch (JsonException je) {
+                throw new IOException("Unable to write " + jsonFilePath + ": " + je.getMessage(), je);
+            }
+            Files.move(tempPath, jsonPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+    
+    // WRITES AN ARRAY OF THE TEXT OF ALL THE data TO THE OBJECT BEING GENERATED
+    private void writeStringArray(JsonGenerator jsonGenerator, String name, List<?> data) {
+        jsonGenerator.writeStartArray(name);
+        for (Object d : data) {
+            jsonGenerator.write(d.toString());
+        }
+        jsonGenerator.writeEnd();
+    }
+    
+    // WRITES THE FIELDS OF THE PROVIDED INSTRUCTOR TO THE OBJECT JUST STARTED
+    private void writeInstructor(JsonGenerator jsonGenerator, Instructor instructor) {
+        jsonGenerator.write(JSON_INSTRUCTOR_NAME, instructor.getName())
+                .write(JSON_HOMEPAGE_URL, instructor.getHomepageURL())
+                .writeEnd();
+    }
+    
+    // WRITES AN OBJECT FOR THE PROVIDED DATE
+    private void writeLocalDate(JsonGenerator jsonGenerator, String name, LocalDate dateToSave) {
+        jsonGenerator.writeStartObject(name)
+                .write(JSON_YEAR, dateToSave.getYear())
+                .write(JSON_MONTH, dateToSave.getMonthValue())
+                .write(JSON_DAY, dateToSave.getDayOfMonth())
+                .writeEnd();
+    }
+    
     // LOADS AN ARRAY OF A SPECIFIC NAME FROM A JSON FILE AND
     // RETURNS IT AS AN ArrayList FULL OF THE DATA FOUND
     private ArrayList<String> loadArrayFromJSONFile(String jsonFilePath, String arrayName) throws IOException {
@@ -247,23 +258,6 @@ public class JsonCourseFileManager implements CourseFileManager {
         return items;
     }
     
-    // MAKES AND RETURNS A JSON OBJECT FOR THE PROVIDED INSTRUCTOR
-    private JsonObject makeInstructorJsonObject(Instructor instructor) {
-        JsonObject jso = Json.createObjectBuilder().add(JSON_INSTRUCTOR_NAME, instructor.getName())
-                                                   .add(JSON_HOMEPAGE_URL, instructor.getHomepageURL())
-                                                   .build(); 
-        return jso;                
-    }
-
-    // MAKES AND RETURNS A JSON OBJECT FOR THE PROVIDED DATE
-    private JsonObject makeLocalDateJsonObject(LocalDate dateToSave) {
-        JsonObject jso = Json.createObjectBuilder().add(JSON_YEAR, dateToSave.getYear())
-                                                   .add(JSON_MONTH, dateToSave.getMonthValue())
-                                                   .add(JSON_DAY, dateToSave.getDayOfMonth())
-                                                   .build(); 
-        return jso;
-    }
-    
     // BUILDS AND RETURNS THE INSTRUCTOR FOUND IN THE JSON OBJECT
     public Instructor buildInstructorJsonObject(JsonObject json) {
         Instructor instructor = new Instructor( json.getString(JSON_INSTRUCTOR_NAME),
@@ -273,7 +267,7 @@ public class JsonCourseFileManager implements CourseFileManager {
 
     // BUILDS AND RETURNS A JsonArray CONTAINING ALL THE PAGES FOR THIS COURSE
     public JsonArray makePagesJsonArray(List<CoursePage> data) {
-        JsonArrayBuilder jsb = Json.createArrayBuilder();
+        JsonArrayBuilder jsb = BUILDER_FACTORY.createArrayBuilder();
         for (CoursePage cP : data) {
            jsb.add(cP.toString());
         }
@@ -283,7 +277,7 @@ public class JsonCourseFileManager implements CourseFileManager {
 
     // BUILDS AND RETURNS A JsonArray CONTAINING ALL THE LECTURE DAYS FOR THIS COURSE
     public JsonArray makeLectureDaysJsonArray(List<DayOfWeek> data) {
-        JsonArrayBuilder jsb = Json.createArrayBuilder();
+        JsonArrayBuilder jsb = BUILDER_FACTORY.createArrayBuilder();
         for (DayOfWeek dow : data) {
             jsb.add(dow.toString());
         }
@@ -293,7 +287,7 @@ public class JsonCourseFileManager implements CourseFileManager {
 
     // BUILDS AND RETURNS A JsonArray CONTAINING THE PROVIDED DATA
     public JsonArray buildJsonArray(List<Object> data) {
-        JsonArrayBuilder jsb = Json.createArrayBuilder();
+        JsonArrayBuilder jsb = BUILDER_FACTORY.createArrayBuilder();
         for (Object d : data) {
            jsb.add(d.toString());
         }
@@ -305,7 +299,7 @@ public class JsonCourseFileManager implements CourseFileManager {
     // THAT CONTAINS THE PROVIDED DATA
     public JsonObject buildJsonArrayObject(List<Object> data) {
         JsonArray jA = buildJsonArray(data);
-        JsonObject arrayObject = Json.createObjectBuilder().add(JSON_SUBJECTS, jA).build();
+        JsonObject arrayObject = BUILDER_FACTORY.createObjectBuilder().add(JSON_SUBJECTS, jA).build();
         return arrayObject;
     }
 
@@ -0,0 +1,248 @@
+package csb.file;
+
+import static csb.file.JsonCourseFileManager.*;
+import static csb.file.JsonFactories.PARSER_FACTORY;
+import csb.data.Course;
+import csb.data.CoursePage;
+import csb.data.Instructor;
+import csb.data.Subject;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+
+/**
+ * This class loads courses saved by JsonCourseFileManager in a single
+ * forward pass over the file, filling in the course as each field goes by
+ * rather than first building the whole file as a tree of JSON objects.
+ * Fields it doesn't know about are skipped over without being kept, so
+ * how long loading takes depends on the size of the file and not on
+ * how it's nested.
+ *
+ * Note that the course is only changed once the whole file has been read
+ * successfully, so a course that fails to load is left as it was.
+ *
+ * @author Richard McKenna
+ */
+public class JsonCourseStreamReader {
+    /**
+     * Loads the courseToLoad course from the JSON file at jsonFilePath.
+     *
+     * @param courseToLoad Course to load.
+     * @param jsonFilePath File containing the data to load.
+     *
+     * @throws IOException Thrown when the file can't be read, isn't JSON,
+     * or is missing some of the course.
+     */
+    public void loadCourse(Course courseToLoad, String jsonFilePath) throws IOException {
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(Paths.get(jsonFilePath)), JsonFactories.FILE_BUFFER_SIZE)) {
+            loadCourse(courseToLoad, is);
+        } catch (IOException ioe) {
+            throw new IOException(jsonFilePath + ": " + ioe.getMessage(), ioe);
+        }
+    }
+
+    /**
+     * Loads the courseToLoad course from JSON text read from is. Note
+     * that is isn't closed.
+     *
+     * @param courseToLoad Course to load.
+     * @param is Where to read the course from.
+     *
+     * @throws IOException Thrown when the text can't be read, isn't JSON,
+     * or is missing some of the course.
+     */
+    public void loadCourse(Course courseToLoad, InputStream is) throws IOException {
+        JsonParser parser = PARSER_FACTORY.createParser(is);
+        try {
+            new CourseFields().read(parser).applyTo(courseToLoad);
+        } catch (JsonException | NoSuchElementException e) {
+            throw new IOException("Invalid course file: " + e.getMessage(), e);
+        }
+        // NOTE THAT WE DON'T CLOSE THE PARSER SINCE THAT WOULD CLOSE is
+    }
+
+    // EVERYTHING IN A COURSE FILE, AS READ SO FAR
+    private static class CourseFields {
+        String subject;
+        Integer number;
+        String title;
+        String semester;
+        Integer year;
+        ArrayList<String> pages;
+        ArrayList<String> lectureDays;
+        String instructorName;
+        String homepageURL;
+        LocalDate startingMonday;
+        LocalDate endingFriday;
+
+        // READS ALL THE FIELDS OF THE COURSE OBJECT, WHICH MAY BE IN ANY ORDER
+        CourseFields read(JsonParser parser) throws IOException {
+            expect(parser, JsonParser.Event.START_OBJECT, "the course");
+            JsonParser.Event event;
+            while ((event = parser.next()) == JsonParser.Event.KEY_NAME) {
+                String key = parser.getString();
+                if (key.equals(JSON_SUBJECT)) {
+                    subject = readString(parser, key);
+                } else if (key.equals(JSON_NUMBER)) {
+                    number = readInt(parser, key);
+                } else if (key.equals(JSON_TITLE)) {
+                    title = readString(parser, key);
+                } else if (key.equals(JSON_SEMESTER)) {
+                    semester = readString(parser, key);
+                } else if (key.equals(JSON_YEAR)) {
+                    year = readInt(parser, key);
+                } else if (key.equals(JSON_PAGES)) {
+                    pages = readStringArray(parser, key);
+                } else if (key.equals(JSON_LECTURE_DAYS)) {
+                    lectureDays = readStringArray(parser, key);
+                } else if (key.equals(JSON_INSTRUCTOR)) {
+                    readInstructor(parser);
+                } else if (key.equals(JSON_STARTING_MONDAY)) {
+                    startingMonday = readDate(parser, key);
+                } else if (key.equals(JSON_ENDING_FRIDAY)) {
+                    endingFriday = readDate(parser, key);
+                } else {
+                    skipValue(parser);
+                }
+            }
+            if (event != JsonParser.Event.END_OBJECT) {
+                throw new IOException("Unexpected " + event + " in the course");
+            }
+            return this;
+        }
+
+        // SETS EVERYTHING WE READ INTO THE COURSE, BUT ONLY IF WE READ IT ALL
+        void applyTo(Course course) throws IOException {
+            Subject courseSubject = Subject.valueOf(require(subject, JSON_SUBJECT));
+            ArrayList<CoursePage> coursePages = new ArrayList();
+            for (String page : require(pages, JSON_PAGES)) {
+                coursePages.add(CoursePage.valueOf(page));
+            }
+            ArrayList<DayOfWeek> courseLectureDays = new ArrayList();
+            for (String lectureDay : require(lectureDays, JSON_LECTURE_DAYS)) {
+                courseLectureDays.add(DayOfWeek.valueOf(lectureDay));
+            }
+            Instructor instructor = new Instructor(require(instructorName, JSON_INSTRUCTOR_NAME),
+                    require(homepageURL, JSON_HOMEPAGE_URL));
+
+            course.setSubject(courseSubject);
+            course.setNumber(require(number, JSON_NUMBER));
+            course.setTitle(require(title, JSON_TITLE));
+            course.setSemester(require(semester, JSON_SEMESTER));
+            course.setYear(require(year, JSON_YEAR));
+            course.clearPages();
+            for (CoursePage page : coursePages) {
+                course.addPage(page);
+            }
+            course.clearLectureDays();
+            for (DayOfWeek lectureDay : courseLectureDays) {
+                course.addLectureDay(lectureDay);
+            }
+            course.setInstructor(instructor);
+            course.setStartingMonday(require(startingMonday, JSON_STARTING_MONDAY));
+            course.setEndingFriday(require(endingFriday, JSON_ENDING_FRIDAY));
+        }
+
+        // READS THE INSTRUCTOR OBJECT
+        void readInstructor(JsonParser parser) throws IOException {
+            expect(parser, JsonParser.Event.START_OBJECT, JSON_INSTRUCTOR);
+            while (parser.next() == JsonParser.Event.KEY_NAME) {
+                String key = parser.getString();
+                if (key.equals(JSON_INSTRUCTOR_NAME)) {
+                    instructorName = readString(parser, key);
+                } else if (key.equals(JSON_HOMEPAGE_URL)) {
+                    homepageURL = readString(parser, key);
+                } else {
+                    skipValue(parser);
+                }
+            }
+        }
+    }
+
+    // READS A DATE OBJECT WITH year, month AND day FIELDS
+    private static LocalDate readDate(JsonParser parser, String name) throws IOException {
+        expect(parser, JsonParser.Event.START_OBJECT, name);
+        Integer year = null;
+        Integer month = null;
+        Integer day = null;
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            String key = parser.getString();
+            if (key.equals(JSON_YEAR)) {
+                year = readInt(parser, key);
+            } else if (key.equals(JSON_MONTH)) {
+                month = readInt(parser, key);
+            } else if (key.equals(JSON_DAY)) {
+                day = readInt(parser, key);
+            } else {
+                skipValue(parser);
+            }
+        }
+        return LocalDate.of(require(year, name + "." + JSON_YEAR),
+                require(month, name + "." + JSON_MONTH),
+                require(day, name + "." + JSON_DAY));
+    }
+
+    private static ArrayList<String> readStringArray(JsonParser parser, String name) throws IOException {
+        expect(parser, JsonParser.Event.START_ARRAY, name);
+        ArrayList<String> values = new ArrayList();
+        JsonParser.Event event;
+        while ((event = parser.next()) != JsonParser.Event.END_ARRAY) {
+            if (event != JsonParser.Event.VALUE_STRING) {
+                throw new IOException("Expected only text in " + name + " but found " + event);
+            }
+            values.add(parser.getString());
+        }
+        return values;
+    }
+
+    private static String readString(JsonParser parser, String name) throws IOException {
+        expect(parser, JsonParser.Event.VALUE_STRING, name);
+        return parser.getString();
+    }
+
+    private static int readInt(JsonParser parser, String name) throws IOException {
+        expect(parser, JsonParser.Event.VALUE_NUMBER, name);
+        return parser.getInt();
+    }
+
+    private static void expect(JsonParser parser, JsonParser.Event expected, String name) throws IOException {
+        JsonParser.Event event = parser.next();
+        if (event != expected) {
+            throw new IOException("Expected " + expected + " for " + name + " but found " + event);
+        }
+    }
+
+    private static <T> T require(T value, String name) throws IOException {
+        if (value == null) {
+            throw new IOException("Missing " + name);
+        }
+        return value;
+    }
+
+    // SKIPS OVER THE NEXT VALUE, HOWEVER BIG IT IS, WITHOUT KEEPING ANY OF IT
+    private static void skipValue(JsonParser parser) {
+        int depth = 0;
+        do {
+            switch (parser.next()) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        } while (depth > 0);
+    }
+}
@@ -0,0 +1,36 @@
+package csb.file;
+
+import java.util.Collections;
+import javax.json.Json;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonReaderFactory;
+import javax.json.JsonWriterFactory;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.json.stream.JsonParserFactory;
+
+/**
+ * This class keeps the factories we use for reading and writing all of
+ * our JSON files. Every call to a Json.create method looks up the JSON
+ * provider all over again, which is slow, so we look up each factory just
+ * once instead. Note that the factories are safe to share across threads,
+ * unlike the readers, writers, parsers and generators they make.
+ *
+ * @author Richard McKenna
+ */
+public class JsonFactories {
+    // FOR STREAMING JSON IN AND OUT
+    public static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(Collections.emptyMap());
+    public static final JsonGeneratorFactory GENERATOR_FACTORY = Json.createGeneratorFactory(Collections.emptyMap());
+
+    // FOR READING AND WRITING WHOLE JSON OBJECTS
+    public static final JsonReaderFactory READER_FACTORY = Json.createReaderFactory(Collections.emptyMap());
+    public static final JsonWriterFactory WRITER_FACTORY = Json.createWriterFactory(Collections.emptyMap());
+    public static final JsonBuilderFactory BUILDER_FACTORY = Json.createBuilderFactory(Collections.emptyMap());
+
+    // HOW MUCH OF A JSON FILE WE BUFFER WHILE READING OR WRITING IT
+    public static final int FILE_BUFFER_SIZE = 8 * 1024;
+
+    // THIS CLASS ONLY HAS CONSTANTS
+    private JsonFactories() {
+    }
+}
@@ -0,0 +1,191 @@
+package csb.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * This class collects a page in memory as UTF-8 bytes. Text written to it
+ * is encoded as it arrives, and bytes that were already encoded, like the
+ * static parts of a compiled template, can be added directly, so a page
+ * can be built without any intermediate Strings and then written to its
+ * file all at once.
+ *
+ * @author Richard McKenna
+ */
+public class PageOutputBuffer extends Writer {
+    // THE ENCODED PAGE SO FAR
+    private byte[] bytes;
+    private int count;
+
+    // THE FIRST HALF OF A SURROGATE PAIR WHOSE SECOND HALF
+    // HASN'T BEEN WRITTEN YET, OR 0 IF THERE ISN'T ONE
+    private char pendingHighSurrogate;
+
+    /**
+     * This constructor sets up an empty buffer.
+     *
+     * @param initialCapacity How many bytes to make room for at first.
+     */
+    public PageOutputBuffer(int initialCapacity) {
+        bytes = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * Adds already encoded bytes to the page.
+     *
+     * @param bytesToWrite UTF-8 bytes to add.
+     */
+    public void writeBytes(byte[] bytesToWrite) {
+        flushPendingSurrogate();
+        ensureCapacity(bytesToWrite.length);
+        System.arraycopy(bytesToWrite, 0, bytes, count, bytesToWrite.length);
+        count += bytesToWrite.length;
+    }
+
+    @Override
+    public void write(int c) {
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        ensureCapacity(len);
+        for (int i = off; i < off + len; i++) {
+            char ch = cbuf[i];
+            // MOST OF A PAGE IS ASCII, WHICH WE USUALLY ALREADY HAVE ROOM FOR
+            if ((ch < 0x80) && (pendingHighSurrogate == 0) && (count < bytes.length)) {
+                bytes[count++] = (byte) ch;
+            } else {
+                encode(ch);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        ensureCapacity(len);
+        for (int i = off; i < off + len; i++) {
+            char ch = str.charAt(i);
+            if ((ch < 0x80) && (pendingHighSurrogate == 0) && (count < bytes.length)) {
+                bytes[count++] = (byte) ch;
+            } else {
+                encode(ch);
+            }
+        }
+    }
+
+    /**
+     * Writes the full page to out.
+     *
+     * @param out Where to write the page.
+     *
+     * @throws IOException Thrown when writing to out fails.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        flushPendingSurrogate();
+        out.write(bytes, 0, count);
+    }
+
+    /**
+     * Gets a copy of the page's bytes.
+     *
+     * @return The encoded page.
+     */
+    public byte[] toByteArray() {
+        flushPendingSurrogate();
+        return Arrays.copyOf(bytes, count);
+    }
+
+    /**
+     * Gets the number of bytes in the page so far.
+     *
+     * @return The size of the encoded page.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Throws away everything written after the first newSize bytes, like
+     * when a partly written page has to be started over.
+     *
+     * @param newSize How many bytes of the page to keep.
+     */
+    public void truncate(int newSize) {
+        count = Math.max(0, Math.min(newSize, count));
+        pendingHighSurrogate = 0;
+    }
+
+    /**
+     * Empties this buffer so it can be used for another page.
+     */
+    public void reset() {
+        count = 0;
+        pendingHighSurrogate = 0;
+    }
+
+    @Override
+    public void flush() {
+        // THERE'S NOWHERE TO FLUSH TO
+    }
+
+    @Override
+    public void close() {
+        flushPendingSurrogate();
+    }
+
+    // ENCODES A SINGLE CHARACTER AS UTF-8, NOTE THAT LIKE THE JDK'S
+    // ENCODER, A HALF OF A SURROGATE PAIR ON ITS OWN BECOMES A ?
+    private void encode(char ch) {
+        if (pendingHighSurrogate != 0) {
+            char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(ch)) {
+                int codePoint = Character.toCodePoint(high, ch);
+                ensureCapacity(4);
+                bytes[count++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[count++] = (byte) (0x80 | (codePoint & 0x3F));
+                return;
+            }
+            putByte('?');
+        }
+        if (ch < 0x80) {
+            putByte(ch);
+        } else if (ch < 0x800) {
+            ensureCapacity(2);
+            bytes[count++] = (byte) (0xC0 | (ch >> 6));
+            bytes[count++] = (byte) (0x80 | (ch & 0x3F));
+        } else if (Character.isHighSurrogate(ch)) {
+            pendingHighSurrogate = ch;
+        } else if (Character.isLowSurrogate(ch)) {
+            putByte('?');
+        } else {
+            ensureCapacity(3);
+            bytes[count++] = (byte) (0xE0 | (ch >> 12));
+            bytes[count++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+            bytes[count++] = (byte) (0x80 | (ch & 0x3F));
+        }
+    }
+
+    private void flushPendingSurrogate() {
+        if (pendingHighSurrogate != 0) {
+            pendingHighSurrogate = 0;
+            putByte('?');
+        }
+    }
+
+    private void putByte(int b) {
+        ensureCapacity(1);
+        bytes[count++] = (byte) b;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + extra));
+        }
+    }
+}
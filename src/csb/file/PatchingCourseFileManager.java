@@ -0,0 +1,379 @@
+package csb.file;
+
+import csb.data.Course;
+import csb.data.Instructor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.json.JsonObject;
+
+/**
+ * This is a CourseFileManager that saves a course by writing down just
+ * what changed since it was last saved, rather than the whole course.
+ * The changes are appended, one line each, to a patch file beside the
+ * course file, which is left as it was. Loading a course loads its course
+ * file and then applies its patches in order.
+ *
+ * Every so often, once a course has enough patches, its patches take
+ * more room than the course itself, or it hasn't been saved for a while,
+ * it's compacted in the background by saving the whole course again and
+ * throwing its patches away. The actual saving and loading of whole
+ * courses is left to another CourseFileManager.
+ *
+ * Since a patch save never reaches that other CourseFileManager, if it
+ * keeps a catalog up to date, like a CatalogedCourseFileManager, we have to
+ * be given the catalog too, so its entry can be updated on every save.
+ *
+ * Note that this assumes it's the only thing saving these courses, and
+ * falls back to saving the whole course if their files change behind its
+ * back, and that anything reading course files directly sees each course
+ * as of its last compaction, which is why compactPatchedCourses should
+ * be called before the program exits.
+ *
+ * @author Richard McKenna
+ */
+public class PatchingCourseFileManager implements CourseFileManager {
+    // THE EXTENSION PATCH FILES ADD TO THEIR COURSE FILE'S NAME
+    public static final String PATCH_EXT = ".patches";
+
+    // WE COMPACT A COURSE ONCE IT HAS THIS MANY PATCHES
+    public static final int COMPACT_AFTER_PATCHES = 50;
+
+    // OR ONCE IT HASN'T BEEN SAVED FOR THIS LONG
+    public static final long COMPACT_WHEN_IDLE_MILLIS = 30000;
+
+    // THIS GUY SAVES AND LOADS WHOLE COURSES
+    CourseFileManager courseIO;
+
+    // WHERE courseIO SAVES COURSES
+    File coursesDir;
+
+    // THE CATALOG OF THOSE COURSES TO UPDATE WHEN WE ONLY SAVE A PATCH,
+    // IF THERE IS ONE
+    CourseCatalog catalog;
+
+    // WHAT WE KNOW OF EACH COURSE WE'VE LOADED OR SAVED, BY THE ABSOLUTE
+    // PATH OF ITS COURSE FILE. NOTE THAT ALL SAVING, LOADING AND COMPACTING
+    // IS SYNCHRONIZED ON IT, SO PATCHES ARE NEVER WRITTEN OUT OF ORDER
+    HashMap<String, PatchedCourse> patchedCourses;
+
+    // THE ONE THREAD ALL THE COMPACTING HAPPENS ON
+    ScheduledExecutorService compactor;
+
+    /**
+     * This constructor sets up a manager that saves whole courses using
+     * initCourseIO.
+     *
+     * @param initCourseIO The object that will be loading and saving whole courses.
+     * @param initCoursesDir The directory initCourseIO saves courses to.
+     */
+    public PatchingCourseFileManager(CourseFileManager initCourseIO, String initCoursesDir) {
+        this(initCourseIO, initCoursesDir, null);
+    }
+
+    /**
+     * This constructor sets up a manager like the one above, for when
+     * initCourseIO keeps initCatalog up to date as it saves whole courses.
+     * The catalog is then also updated whenever we only save a patch.
+     *
+     * @param initCourseIO The object that will be loading and saving whole courses.
+     * @param initCoursesDir The directory initCourseIO saves courses to.
+     * @param initCatalog The catalog of the courses, or null if there isn't one.
+     */
+    public PatchingCourseFileManager(CourseFileManager initCourseIO, String initCoursesDir, CourseCatalog initCatalog) {
+        courseIO = initCourseIO;
+        coursesDir = new File(initCoursesDir);
+        catalog = initCatalog;
+        patchedCourses = new HashMap();
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "course-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Saves courseToSave by appending what changed since it was last
+     * loaded or saved to its patch file, or by saving the whole course if
+     * we don't know what it was like before.
+     *
+     * @param courseToSave The course whose data we are saving.
+     *
+     * @throws IOException Thrown when the course can't be saved.
+     */
+    @Override
+    public void saveCourse(Course courseToSave) throws IOException {
+        Path coursePath = getCoursePath(courseToSave);
+        String key = coursePath.toString();
+        synchronized (patchedCourses) {
+            PatchedCourse patched = patchedCourses.get(key);
+            if ((patched == null) || !patched.matches(coursePath)) {
+                saveWholeCourse(coursePath, copyOf(courseToSave));
+                return;
+            }
+            JsonObject changes = CourseDiff.diff(patched.course, courseToSave);
+            if (changes.isEmpty()) {
+                return;
+            }
+
+            // NOTE THAT THE PATCH ONLY COUNTS ONCE IT'S ALL ON THE DISK
+            byte[] patch = CourseDiff.toLine(changes);
+            Path patchPath = getPatchPath(coursePath);
+            try (FileChannel channel = FileChannel.open(patchPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer buffer = ByteBuffer.wrap(patch);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } catch (IOException ioe) {
+                patchedCourses.remove(key);
+                throw ioe;
+            }
+            patched.course = copyOf(courseToSave);
+            patched.patchCount++;
+            patched.patchBytes += patch.length;
+
+            if ((patched.patchCount >= COMPACT_AFTER_PATCHES) || (patched.patchBytes >= patched.courseFileSize)) {
+                compactor.execute(() -> compact(coursePath));
+            } else {
+                // OTHERWISE WAIT UNTIL THE SAVES STOP, SO THE COURSE FILE
+                // NEVER STAYS BEHIND FOR LONG
+                if (patched.idleCompaction != null) {
+                    patched.idleCompaction.cancel(false);
+                }
+                patched.idleCompaction = compactor.schedule(() -> compact(coursePath),
+                        COMPACT_WHEN_IDLE_MILLIS, TimeUnit.MILLISECONDS);
+            }
+
+            // THE COURSE FILE HASN'T CHANGED, BUT WHAT'S IN THE CATALOG HAS
+            if (catalog != null) {
+                catalog.update(patched.course);
+            }
+        }
+    }
+
+    /**
+     * Loads the course in coursePath into courseToLoad, along with any
+     * patches saved since its course file was written. Note that a patch
+     * that was only partly written, like when the program died while
+     * writing it, is left out along with everything after it.
+     *
+     * @param courseToLoad Course to load.
+     * @param coursePath File containing the data to load.
+     *
+     * @throws IOException Thrown when the course file can't be loaded.
+     */
+    @Override
+    public void loadCourse(Course courseToLoad, String coursePath) throws IOException {
+        Path path = Paths.get(coursePath).toAbsolutePath().normalize();
+        synchronized (patchedCourses) {
+            PatchedCourse patched = load(path);
+            patchedCourses.put(path.toString(), patched);
+            CourseRepository.copyCourse(patched.course, courseToLoad);
+        }
+    }
+
+    @Override
+    public void saveLastInstructor(Instructor lastInstructor, String filePath) throws IOException {
+        courseIO.saveLastInstructor(lastInstructor, filePath);
+    }
+
+    @Override
+    public Instructor loadLastInstructor(String filePath) throws IOException {
+        return courseIO.loadLastInstructor(filePath);
+    }
+
+    @Override
+    public void saveSubjects(List<Object> subjects, String filePath) throws IOException {
+        courseIO.saveSubjects(subjects, filePath);
+    }
+
+    @Override
+    public ArrayList<String> loadSubjects(String filePath) throws IOException {
+        return courseIO.loadSubjects(filePath);
+    }
+
+    @Override
+    public String getCourseFileExtension() {
+        return courseIO.getCourseFileExtension();
+    }
+
+    /**
+     * Compacts every course in the courses directory that has patches,
+     * like at startup so that anything reading the course files directly
+     * sees every course as it was last saved. Note that a course that
+     * can't be compacted keeps its patches, so nothing in them is lost.
+     *
+     * @return The courses that were compacted.
+     *
+     * @throws IOException Thrown when the courses directory can't be listed.
+     */
+    public List<Course> compactAll() throws IOException {
+        String patchFileEnding = getCourseFileExtension() + PATCH_EXT;
+        File[] patchFiles = coursesDir.listFiles((dir, name) -> name.endsWith(patchFileEnding));
+        if (patchFiles == null) {
+            throw new IOException("Unable to list course patches in " + coursesDir);
+        }
+        Arrays.sort(patchFiles);
+        ArrayList<Course> compacted = new ArrayList();
+        for (File patchFile : patchFiles) {
+            String patchName = patchFile.getName();
+            Path coursePath = patchFile.toPath().resolveSibling(
+                    patchName.substring(0, patchName.length() - PATCH_EXT.length())).toAbsolutePath().normalize();
+            try {
+                synchronized (patchedCourses) {
+                    PatchedCourse patched = load(coursePath);
+                    if (!getCoursePath(patched.course).equals(coursePath)) {
+                        // courseIO WOULD SAVE IT SOMEWHERE ELSE
+                        continue;
+                    }
+                    saveWholeCourse(coursePath, patched.course);
+                    compacted.add(copyOf(patched.course));
+                }
+            } catch (IOException | RuntimeException e) {
+                // LEAVE IT FOR NEXT TIME
+            }
+        }
+        return compacted;
+    }
+
+    /**
+     * Compacts, in the background, every course this has saved patches for,
+     * like when the program exits, so that anything reading the course
+     * files directly sees them as they were last saved.
+     *
+     * @return A future that completes once they've all been compacted, or
+     * left with their patches if they couldn't be.
+     */
+    public CompletableFuture<Void> compactPatchedCourses() {
+        return CompletableFuture.runAsync(() -> {
+            ArrayList<String> coursePaths;
+            synchronized (patchedCourses) {
+                coursePaths = new ArrayList(patchedCourses.keySet());
+            }
+            for (String coursePath : coursePaths) {
+                compact(Paths.get(coursePath));
+            }
+        }, compactor);
+    }
+
+    // AND HERE ARE THE PRIVATE HELPER METHODS TO HELP THE PUBLIC ONES
+
+    // LOADS THE COURSE IN coursePath AND APPLIES ITS PATCHES
+    private PatchedCourse load(Path coursePath) throws IOException {
+        Course course = new Course(new Instructor("", ""));
+        courseIO.loadCourse(course, coursePath.toString());
+        BasicFileAttributes courseAttrs = readAttributes(coursePath);
+        PatchedCourse patched = new PatchedCourse(course, courseAttrs.lastModifiedTime().toMillis(), courseAttrs.size());
+        try {
+            byte[] patches = Files.readAllBytes(getPatchPath(coursePath));
+            long[] applied = CourseDiff.applyLines(patches, course);
+            patched.patchCount = (int) applied[0];
+            patched.patchBytes = applied[1];
+        } catch (NoSuchFileException nsfe) {
+            // IT HASN'T BEEN CHANGED SINCE IT WAS LAST COMPACTED
+        }
+        return patched;
+    }
+
+    // SAVES ALL OF course, WHICH IS NOW WHAT coursePath AND ITS PATCHES
+    // ADD UP TO. NOTE THAT THE COURSE FILE IS REPLACED BEFORE THE PATCHES
+    // ARE DELETED, AND SINCE EVERY PATCH SETS FIELDS RATHER THAN CHANGING
+    // THEM, APPLYING OLD PATCHES TO THE NEW COURSE FILE, LIKE IF WE DIE IN
+    // BETWEEN, STILL GIVES THE SAME COURSE
+    private void saveWholeCourse(Path coursePath, Course course) throws IOException {
+        String key = coursePath.toString();
+        patchedCourses.remove(key);
+        courseIO.saveCourse(course);
+        Files.deleteIfExists(getPatchPath(coursePath));
+        BasicFileAttributes courseAttrs = readAttributes(coursePath);
+        patchedCourses.put(key, new PatchedCourse(course, courseAttrs.lastModifiedTime().toMillis(), courseAttrs.size()));
+    }
+
+    // WHAT THE COMPACTOR THREAD DOES
+    private void compact(Path coursePath) {
+        synchronized (patchedCourses) {
+            PatchedCourse patched = patchedCourses.get(coursePath.toString());
+            if ((patched == null) || (patched.patchCount == 0) || !patched.matches(coursePath)) {
+                return;
+            }
+            try {
+                saveWholeCourse(coursePath, patched.course);
+            } catch (IOException | RuntimeException e) {
+                // THE PATCHES ARE STILL THERE, SO NOTHING'S LOST, AND WE'LL
+                // TRY AGAIN AFTER THE NEXT SAVE
+            }
+        }
+    }
+
+    // WHERE courseIO SAVES course
+    private Path getCoursePath(Course course) {
+        return new File(coursesDir, CourseCatalog.getCourseKey(course.getSubject(), course.getNumber())
+                + courseIO.getCourseFileExtension()).toPath().toAbsolutePath().normalize();
+    }
+
+    private static Path getPatchPath(Path coursePath) {
+        return coursePath.resolveSibling(coursePath.getFileName() + PATCH_EXT);
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException nsfe) {
+            throw new IOException("No course file at " + path, nsfe);
+        }
+    }
+
+    private static Course copyOf(Course course) {
+        Course copy = new Course(new Instructor("", ""));
+        CourseRepository.copyCourse(course, copy);
+        return copy;
+    }
+
+    // A COURSE AS IT WAS LAST LOADED OR SAVED, ALONG WITH WHAT ITS FILES
+    // LOOKED LIKE THEN, SO WE CAN TELL IF ANYTHING ELSE HAS CHANGED THEM
+    private static class PatchedCourse {
+        Course course;
+        final long courseFileModified;
+        final long courseFileSize;
+        int patchCount;
+        long patchBytes;
+
+        // THE COMPACTION WAITING FOR SAVES OF THIS COURSE TO STOP, IF ANY
+        ScheduledFuture<?> idleCompaction;
+
+        PatchedCourse(Course initCourse, long initCourseFileModified, long initCourseFileSize) {
+            course = initCourse;
+            courseFileModified = initCourseFileModified;
+            courseFileSize = initCourseFileSize;
+        }
+
+        boolean matches(Path coursePath) {
+            try {
+                BasicFileAttributes courseAttrs = Files.readAttributes(coursePath, BasicFileAttributes.class);
+                long patchFileSize = Files.exists(getPatchPath(coursePath)) ? Files.size(getPatchPath(coursePath)) : 0;
+                return (courseAttrs.lastModifiedTime().toMillis() == courseFileModified)
+                        && (courseAttrs.size() == courseFileSize) && (patchFileSize == patchBytes);
+            } catch (IOException ioe) {
+                return false;
+            }
+        }
+    }
+}
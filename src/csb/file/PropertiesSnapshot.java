@@ -0,0 +1,186 @@
+package csb.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import properties_manager.PropertiesManager;
+
+/**
+ * This class keeps a snapshot of the application's properties, so they
+ * can be loaded at startup without parsing the properties file and
+ * validating it against its schema every time. The snapshot is only used
+ * if the properties file and schema are exactly what they were when it
+ * was made, which is checked using their hashes, so after either one is
+ * edited the properties are validated and loaded the usual way again,
+ * and a new snapshot is made.
+ *
+ * Note that only the property list is kept, so a properties file with
+ * property options never gets a snapshot.
+ *
+ * @author Richard McKenna
+ */
+public class PropertiesSnapshot {
+    // EVERY SNAPSHOT STARTS WITH THIS, WHICH IS "CSBR"
+    static final int MAGIC = 0x43534252;
+
+    // AND THEN THE VERSION OF THE FORMAT IT WAS WRITTEN IN
+    public static final int SNAPSHOT_VERSION = 1;
+
+    // WHAT WE LOOK FOR IN THE PROPERTIES FILE
+    static final String XML_PROPERTY = "property";
+    static final String XML_PROPERTY_OPTIONS = "property_options";
+    static final String XML_NAME = "name";
+    static final String XML_VALUE = "value";
+
+    // THE FILES THE PROPERTIES COME FROM
+    File propertiesFile;
+    File schemaFile;
+
+    // AND WHERE WE KEEP THE SNAPSHOT OF THEM
+    File snapshotFile;
+
+    /**
+     * This constructor sets up a snapshot of the properties in
+     * initPropertiesPath, which is validated using initSchemaPath.
+     *
+     * @param initPropertiesPath The properties file, like data/properties.xml.
+     * @param initSchemaPath The schema it's validated against.
+     * @param initSnapshotPath Where to keep the snapshot.
+     */
+    public PropertiesSnapshot(String initPropertiesPath, String initSchemaPath, String initSnapshotPath) {
+        propertiesFile = new File(initPropertiesPath);
+        schemaFile = new File(initSchemaPath);
+        snapshotFile = new File(initSnapshotPath);
+    }
+
+    /**
+     * Adds every property in the snapshot to props, as long as the
+     * snapshot was made from the properties file and schema as they are
+     * now. Note that when it returns false nothing has been added.
+     *
+     * @param props Where to put the properties.
+     *
+     * @return true if the properties were loaded, false if there's no
+     * snapshot, or it's out of date or damaged.
+     */
+    public boolean loadInto(PropertiesManager props) {
+        LinkedHashMap<String, String> properties = new LinkedHashMap();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                Files.readAllBytes(snapshotFile.toPath())))) {
+            if ((in.readInt() != MAGIC) || (in.readInt() != SNAPSHOT_VERSION)
+                    || !in.readUTF().equals(ContentHash.hashBytes(Files.readAllBytes(propertiesFile.toPath())))
+                    || !in.readUTF().equals(ContentHash.hashBytes(Files.readAllBytes(schemaFile.toPath())))) {
+                return false;
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                properties.put(in.readUTF(), in.readUTF());
+            }
+            if (in.available() > 0) {
+                return false;
+            }
+        } catch (IOException ioe) {
+            // INCLUDING WHEN THERE'S NO SNAPSHOT YET
+            return false;
+        }
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            props.addProperty(property.getKey(), property.getValue());
+        }
+        return true;
+    }
+
+    /**
+     * Makes a snapshot of the properties in the properties file, which
+     * props must have just loaded and validated, replacing any old one.
+     *
+     * @param props Where the properties were loaded.
+     *
+     * @throws IOException Thrown when the properties file can't be read,
+     * has property options, or has anything props doesn't, or when the
+     * snapshot can't be written.
+     */
+    public void save(PropertiesManager props) throws IOException {
+        // NOTE THAT WE HASH THE SAME BYTES WE READ THE PROPERTIES FROM
+        byte[] propertiesBytes = Files.readAllBytes(propertiesFile.toPath());
+        String schemaHash = ContentHash.hashBytes(Files.readAllBytes(schemaFile.toPath()));
+        LinkedHashMap<String, String> properties = readPropertyList(propertiesBytes);
+
+        // MAKE SURE WE READ THEM THE SAME WAY THE PROPERTIES MANAGER DID
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            if (!property.getValue().equals(props.getProperty(property.getKey()))) {
+                throw new IOException("Property " + property.getKey() + " wasn't loaded as it appears in "
+                        + propertiesFile);
+            }
+        }
+
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(snapshot)) {
+            out.writeInt(MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeUTF(ContentHash.hashBytes(propertiesBytes));
+            out.writeUTF(schemaHash);
+            out.writeInt(properties.size());
+            for (Map.Entry<String, String> property : properties.entrySet()) {
+                out.writeUTF(property.getKey());
+                out.writeUTF(property.getValue());
+            }
+        }
+        BinaryCourseFileManager.writeFile(snapshotFile.getPath(), snapshot);
+    }
+
+    /**
+     * Deletes the snapshot, so the next load validates the properties.
+     *
+     * @throws IOException Thrown when the snapshot can't be deleted.
+     */
+    public void delete() throws IOException {
+        try {
+            Files.delete(snapshotFile.toPath());
+        } catch (NoSuchFileException nsfe) {
+            // IT'S ALREADY GONE
+        }
+    }
+
+    // GETS THE NAME AND VALUE OF EVERY PROPERTY IN THE PROPERTIES FILE
+    private LinkedHashMap<String, String> readPropertyList(byte[] propertiesBytes) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        LinkedHashMap<String, String> properties = new LinkedHashMap();
+        try {
+            XMLStreamReader reader = factory.createXMLStreamReader(new ByteArrayInputStream(propertiesBytes));
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    String element = reader.getLocalName();
+                    if (element.equals(XML_PROPERTY_OPTIONS)) {
+                        throw new IOException(propertiesFile + " has property options, which can't be kept in a snapshot");
+                    } else if (element.equals(XML_PROPERTY)) {
+                        String name = reader.getAttributeValue(null, XML_NAME);
+                        String value = reader.getAttributeValue(null, XML_VALUE);
+                        if ((name == null) || (value == null)) {
+                            throw new IOException(propertiesFile + " has a property without a name or value");
+                        }
+                        properties.put(name, value);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException xse) {
+            throw new IOException("Unable to read " + propertiesFile + ": " + xse.getMessage(), xse);
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,146 @@
+package csb.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * This class keeps a single copy of every stylesheet and image used by
+ * our exported sites, with each file stored under the hash of its contents.
+ * Course sites then get hard links to the stored files rather than copies
+ * of their own, falling back to copies only when the file system won't
+ * let us make links. Note that since linked files share their contents,
+ * an asset must never be edited in place inside a course site.
+ *
+ * @author Richard McKenna
+ */
+public class SharedAssetStore {
+    // THE DIRECTORY, INSIDE THE SITES DIRECTORY, WHERE ASSETS ARE STORED
+    public static final String ASSETS_DIR = ".assets";
+
+    // WHERE THIS STORE KEEPS ITS FILES
+    File storeDir;
+
+    // THIS TELLS US WHAT EACH FILE SHOULD BE STORED AS
+    ContentHash contentHash;
+
+    // THIS GETS SET THE FIRST TIME WE FAIL TO MAKE A LINK SO
+    // THAT WE DON'T KEEP TRYING ON A FILE SYSTEM THAT CAN'T
+    volatile boolean linksSupported;
+
+    /**
+     * This constructor sets up a store inside initSitesDir. Note that the
+     * store's directory will only be made once something is stored.
+     *
+     * @param initSitesDir Directory where course sites are exported to.
+     * @param initContentHash Used to hash the files being stored.
+     */
+    public SharedAssetStore(String initSitesDir, ContentHash initContentHash) {
+        storeDir = new File(initSitesDir, ASSETS_DIR);
+        contentHash = initContentHash;
+        linksSupported = true;
+    }
+
+    public File getStoreDir() {
+        return storeDir;
+    }
+
+    /**
+     * Adds the contents of sourceFile to the store, if they aren't
+     * already there.
+     *
+     * @param sourceFile The file whose contents are to be stored.
+     *
+     * @return The stored file, which is named for the hash of its contents.
+     *
+     * @throws IOException Thrown when the file can't be read or stored.
+     */
+    public File storeAsset(File sourceFile) throws IOException {
+        String hash = contentHash.hashFile(sourceFile);
+        File storedFile = new File(storeDir, hash + getExtension(sourceFile));
+        if (!storedFile.exists()) {
+            // COPY TO A TEMPORARY FILE FIRST AND THEN MOVE IT INTO PLACE
+            // SO NO ONE EVER SEES A PARTIALLY WRITTEN ASSET
+            Files.createDirectories(storeDir.toPath());
+            Path tempPath = Files.createTempFile(storeDir.toPath(), hash, null);
+            try {
+                Files.copy(sourceFile.toPath(), tempPath, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tempPath, storedFile.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tempPath);
+            }
+        }
+        return storedFile;
+    }
+
+    /**
+     * Makes targetFile have the same contents as sourceFile, using a hard
+     * link into the store where possible. Note that nothing is done if
+     * targetFile already has the right contents.
+     *
+     * @param sourceFile The base file, like a stylesheet in sites/base/css.
+     * @param targetFile Where that file belongs in a course's site.
+     *
+     * @throws IOException Thrown when the asset can't be stored, linked
+     * or copied.
+     */
+    public void linkAsset(File sourceFile, File targetFile) throws IOException {
+        File storedFile = storeAsset(sourceFile);
+        Path storedPath = storedFile.toPath();
+        Path targetPath = targetFile.toPath();
+
+        // ONLY REFRESH ASSETS THAT HAVE ACTUALLY CHANGED. NOTE THAT AN
+        // UNCHANGED COPY IS STILL REPLACED BY A LINK IF WE CAN MAKE ONE
+        if (targetFile.exists()) {
+            if (Files.isSameFile(targetPath, storedPath)) {
+                return;
+            }
+            if (!linksSupported
+                    && contentHash.hashFile(targetFile).equals(contentHash.hashFile(storedFile))) {
+                return;
+            }
+            // THE OLD FILE MAY BE A LINK INTO THE STORE, SO IT MUST
+            // BE REMOVED RATHER THAN WRITTEN OVER
+            Files.delete(targetPath);
+        }
+
+        if (linksSupported) {
+            try {
+                Files.createLink(targetPath, storedPath);
+                return;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                // THIS FILE SYSTEM CAN'T LINK, SO WE'LL COPY FROM NOW ON
+                linksSupported = false;
+            }
+        }
+        Files.copy(storedPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Makes targetPath a hard link to existingPath, or a copy of it if the
+     * file system won't link them.
+     *
+     * @param existingPath The file to link to.
+     * @param targetPath Where the link goes, which must not exist yet.
+     *
+     * @throws IOException Thrown when the file can't be linked or copied.
+     */
+    static void linkOrCopy(Path existingPath, Path targetPath) throws IOException {
+        try {
+            Files.createLink(targetPath, existingPath);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            Files.copy(existingPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // WE KEEP THE EXTENSION SO STORED FILES STILL LOOK LIKE WHAT THEY ARE
+    private static String getExtension(File file) {
+        String name = file.getName();
+        int dotIndex = name.lastIndexOf('.');
+        return (dotIndex > 0) ? name.substring(dotIndex) : "";
+    }
+}
@@ -0,0 +1,222 @@
+package csb.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonWriter;
+
+/**
+ * This class records what an exported course site was built from, meaning
+ * hashes of the course data, the base template and the base assets, along
+ * with the version of the exporter that built it and whether it was
+ * precompressed. One of these is saved in every exported site so that a
+ * later export can tell if anything has changed, and if not, skip the
+ * export entirely.
+ *
+ * @author Richard McKenna
+ */
+public class SiteManifest {
+    // THE FILE EACH SITE'S MANIFEST IS SAVED TO
+    public static final String MANIFEST_FILE = "csb_manifest.json";
+
+    // THE JSON KEYS WE USE
+    static final String JSON_EXPORTER_VERSION = "exporter_version";
+    static final String JSON_COURSE_HASH = "course_hash";
+    static final String JSON_TEMPLATE_HASH = "template_hash";
+    static final String JSON_ASSETS_HASH = "assets_hash";
+    static final String JSON_PRECOMPRESSED = "precompressed";
+    static final String JSON_COMPRESSED_FILES = "compressed_files";
+    static final String JSON_EXPORTED_PAGES = "exported_pages";
+
+    // WHAT THE SITE WAS BUILT FROM
+    int exporterVersion;
+    String courseHash;
+    String templateHash;
+    String assetsHash;
+
+    // WHETHER THE SITE HAS GZIPPED COPIES OF ITS FILES AND, IF SO,
+    // THE HASHES OF THE FILES THEY WERE MADE FROM, KEYED BY PATH.
+    // NOTE THAT THE HASHES AREN'T INPUTS, SO equals IGNORES THEM
+    boolean precompressed;
+    TreeMap<String, String> compressedHashes;
+
+    // THE PAGE FILES THE EXPORTER WROTE, SO THAT IT CAN TELL THEM APART FROM
+    // PAGES ADDED BY HAND. NOTE THESE FOLLOW FROM THE COURSE, SO equals
+    // IGNORES THEM TOO
+    TreeSet<String> exportedPages;
+
+    /**
+     * This constructor records the inputs to a single export.
+     *
+     * @param initExporterVersion Version of the exporter doing the export.
+     * @param initCourseHash Hash of the course data being exported.
+     * @param initTemplateHash Hash of the base page templates.
+     * @param initAssetsHash Hash of the base stylesheets and images.
+     */
+    public SiteManifest(int initExporterVersion, String initCourseHash,
+            String initTemplateHash, String initAssetsHash) {
+        exporterVersion = initExporterVersion;
+        courseHash = initCourseHash;
+        templateHash = initTemplateHash;
+        assetsHash = initAssetsHash;
+        compressedHashes = new TreeMap();
+        exportedPages = new TreeSet();
+    }
+
+    public int getExporterVersion() {
+        return exporterVersion;
+    }
+
+    public String getCourseHash() {
+        return courseHash;
+    }
+
+    public String getTemplateHash() {
+        return templateHash;
+    }
+
+    public String getAssetsHash() {
+        return assetsHash;
+    }
+
+    public boolean isPrecompressed() {
+        return precompressed;
+    }
+
+    public void setPrecompressed(boolean initPrecompressed) {
+        precompressed = initPrecompressed;
+    }
+
+    public Map<String, String> getCompressedHashes() {
+        return compressedHashes;
+    }
+
+    public void setCompressedHashes(Map<String, String> initCompressedHashes) {
+        compressedHashes = new TreeMap(initCompressedHashes);
+    }
+
+    public Set<String> getExportedPages() {
+        return exportedPages;
+    }
+
+    public void setExportedPages(Collection<String> initExportedPages) {
+        exportedPages = new TreeSet(initExportedPages);
+    }
+
+    /**
+     * Loads the manifest saved in the siteDir directory.
+     *
+     * @param siteDir Directory of an exported course site.
+     *
+     * @return The loaded manifest, or null if the site doesn't have a
+     * readable one, in which case the site should be exported again.
+     */
+    public static SiteManifest load(File siteDir) {
+        File manifestFile = new File(siteDir, MANIFEST_FILE);
+        if (!manifestFile.isFile()) {
+            return null;
+        }
+        try (   InputStream is = Files.newInputStream(manifestFile.toPath());
+                JsonReader jsonReader = JsonFactories.READER_FACTORY.createReader(is)) {
+            JsonObject json = jsonReader.readObject();
+            SiteManifest manifest = new SiteManifest(json.getInt(JSON_EXPORTER_VERSION),
+                    json.getString(JSON_COURSE_HASH),
+                    json.getString(JSON_TEMPLATE_HASH),
+                    json.getString(JSON_ASSETS_HASH));
+
+            // OLDER MANIFESTS WON'T HAVE THESE
+            manifest.precompressed = json.getBoolean(JSON_PRECOMPRESSED, false);
+            JsonObject compressedJson = json.getJsonObject(JSON_COMPRESSED_FILES);
+            if (compressedJson != null) {
+                for (String path : compressedJson.keySet()) {
+                    manifest.compressedHashes.put(path, compressedJson.getString(path));
+                }
+            }
+            JsonArray pagesJson = json.getJsonArray(JSON_EXPORTED_PAGES);
+            if (pagesJson != null) {
+                for (int i = 0; i < pagesJson.size(); i++) {
+                    manifest.exportedPages.add(pagesJson.getString(i));
+                }
+            }
+            return manifest;
+        } catch (IOException | JsonException | ClassCastException | NullPointerException e) {
+            // A DAMAGED MANIFEST IS THE SAME AS NO MANIFEST
+            return null;
+        }
+    }
+
+    /**
+     * Saves this manifest into the siteDir directory.
+     *
+     * @param siteDir Directory of an exported course site.
+     *
+     * @throws IOException Thrown when the manifest file can't be written.
+     */
+    public void save(File siteDir) throws IOException {
+        JsonObjectBuilder compressedBuilder = JsonFactories.BUILDER_FACTORY.createObjectBuilder();
+        for (Map.Entry<String, String> entry : compressedHashes.entrySet()) {
+            compressedBuilder.add(entry.getKey(), entry.getValue());
+        }
+        JsonArrayBuilder pagesBuilder = JsonFactories.BUILDER_FACTORY.createArrayBuilder();
+        for (String pageFile : exportedPages) {
+            pagesBuilder.add(pageFile);
+        }
+        JsonObject json = JsonFactories.BUILDER_FACTORY.createObjectBuilder()
+                .add(JSON_EXPORTER_VERSION, exporterVersion)
+                .add(JSON_COURSE_HASH, courseHash)
+                .add(JSON_TEMPLATE_HASH, templateHash)
+                .add(JSON_ASSETS_HASH, assetsHash)
+                .add(JSON_PRECOMPRESSED, precompressed)
+                .add(JSON_COMPRESSED_FILES, compressedBuilder)
+                .add(JSON_EXPORTED_PAGES, pagesBuilder)
+                .build();
+        try (   OutputStream os = Files.newOutputStream(new File(siteDir, MANIFEST_FILE).toPath());
+                JsonWriter jsonWriter = JsonFactories.WRITER_FACTORY.createWriter(os)) {
+            jsonWriter.writeObject(json);
+        }
+    }
+
+    /**
+     * Deletes the manifest in the siteDir directory, if there is one, so
+     * that the site will be considered out of date.
+     *
+     * @param siteDir Directory of an exported course site.
+     *
+     * @throws IOException Thrown when the manifest exists but can't be deleted.
+     */
+    public static void delete(File siteDir) throws IOException {
+        Files.deleteIfExists(new File(siteDir, MANIFEST_FILE).toPath());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof SiteManifest)) {
+            return false;
+        }
+        SiteManifest other = (SiteManifest) obj;
+        return (exporterVersion == other.exporterVersion)
+                && (precompressed == other.precompressed)
+                && Objects.equals(courseHash, other.courseHash)
+                && Objects.equals(templateHash, other.templateHash)
+                && Objects.equals(assetsHash, other.assetsHash);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(exporterVersion, courseHash, templateHash, assetsHash, precompressed);
+    }
+}
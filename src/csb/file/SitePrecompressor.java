@@ -0,0 +1,273 @@
+package csb.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class writes a gzipped copy next to every compressible file in an
+ * exported site, like schedule.html.gz next to schedule.html, so that web
+ * servers can send those instead of compressing on every request. Files
+ * are compressed on a pool of worker threads, and a file is only compressed
+ * again if its contents have changed since the last time, which we know
+ * from the source hashes kept in the site's manifest.
+ *
+ * @author Richard McKenna
+ */
+public class SitePrecompressor {
+    // WHAT WE ADD TO THE NAME OF A FILE FOR ITS COMPRESSED COPY
+    public static final String GZIP_EXT = ".gz";
+
+    // THE KINDS OF FILES WORTH COMPRESSING, IMAGES ALREADY ARE
+    static final List<String> COMPRESSIBLE_EXTS = Arrays.asList(
+            ".html", ".htm", ".css", ".js", ".json", ".svg", ".txt", ".xml");
+
+    // HOW MUCH OF A FILE WE COMPRESS AT A TIME
+    static final int COMPRESS_BUFFER_SIZE = 16 * 1024;
+
+    // LIMITS ON WHAT WE KEEP IN MEMORY FOR REUSE, WHICH IS REALLY MEANT
+    // FOR THE SMALL STYLESHEETS EVERY SITE SHARES
+    static final int MAX_CACHED_GZIP_SIZE = 64 * 1024;
+    static final int MAX_CACHED_GZIPS = 256;
+
+    // THE THREADS THAT DO ALL THE COMPRESSING
+    ExecutorService pool;
+
+    // SMALL COMPRESSED FILES WE'VE ALREADY MADE, KEYED BY THE HASH OF WHAT
+    // WAS COMPRESSED, SO THE SAME STYLESHEET IN MANY SITES IS ONLY DONE ONCE
+    ConcurrentHashMap<String, byte[]> compressedByHash;
+
+    // FOR NAMING TEMPORARY FILES
+    static final AtomicLong tempFileCounter = new AtomicLong();
+
+    /**
+     * This constructor sets up a precompressor that uses one thread
+     * for each available processor.
+     */
+    public SitePrecompressor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * This constructor sets up a precompressor that uses at most
+     * initMaxThreads threads. Note that they are daemon threads, so they
+     * won't keep the application running, but shutdown should still be
+     * called when the precompressor is no longer needed.
+     *
+     * @param initMaxThreads The most files to compress at once.
+     */
+    public SitePrecompressor(int initMaxThreads) {
+        pool = Executors.newFixedThreadPool(Math.max(1, initMaxThreads), r -> {
+            Thread thread = new Thread(r, "SitePrecompressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compressedByHash = new ConcurrentHashMap();
+    }
+
+    /**
+     * Makes sure every compressible file in siteDir has an up to date
+     * compressed copy, waiting until they all do.
+     *
+     * @param siteDir Directory of an exported course site.
+     * @param oldHashes The hashes returned the last time this site was
+     * compressed, keyed by path within the site, which may be empty.
+     *
+     * @return The hashes of the files that were compressed, keyed by path
+     * within the site, to be passed in next time.
+     *
+     * @throws IOException Thrown when a file can't be compressed.
+     */
+    public Map<String, String> compressSite(File siteDir, Map<String, String> oldHashes) throws IOException {
+        return compressSite(siteDir, oldHashes, null);
+    }
+
+    /**
+     * Makes sure every compressible file in siteDir has an up to date
+     * compressed copy, waiting until they all do. Compressed copies of
+     * files that haven't changed are taken from previousSiteDir, which is
+     * how a site being built from scratch reuses the ones in the site it
+     * is replacing.
+     *
+     * @param siteDir Directory of an exported course site.
+     * @param oldHashes The hashes returned the last time this site was
+     * compressed, keyed by path within the site, which may be empty.
+     * @param previousSiteDir Directory those hashes were returned for, if
+     * not siteDir itself, or null if there isn't one.
+     *
+     * @return The hashes of the files that were compressed, keyed by path
+     * within the site, to be passed in next time.
+     *
+     * @throws IOException Thrown when a file can't be compressed.
+     */
+    public Map<String, String> compressSite(File siteDir, Map<String, String> oldHashes,
+            File previousSiteDir) throws IOException {
+        // FIND EVERYTHING THAT NEEDS A COMPRESSED COPY
+        ArrayList<String> paths = new ArrayList();
+        findCompressibleFiles(siteDir, "", paths);
+
+        // AND COMPRESS THEM ALL AT ONCE
+        ArrayList<Callable<String>> tasks = new ArrayList();
+        for (String path : paths) {
+            File previousGzFile = (previousSiteDir == null) ? null : new File(previousSiteDir, path + GZIP_EXT);
+            tasks.add(() -> compressFile(new File(siteDir, path), oldHashes.get(path), previousGzFile));
+        }
+        HashMap<String, String> newHashes = new HashMap();
+        try {
+            List<Future<String>> futures = pool.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                newHashes.put(paths.get(i), futures.get(i).get());
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing " + siteDir);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+
+        // THE COMPRESSED COPIES OF FILES THAT ARE GONE HAVE TO GO TOO
+        ArrayList<String> removedPaths = new ArrayList(oldHashes.keySet());
+        removedPaths.removeAll(newHashes.keySet());
+        deleteCompressedFiles(siteDir, removedPaths);
+        return newHashes;
+    }
+
+    /**
+     * Deletes the compressed copies of the files at paths in siteDir,
+     * like when a site is no longer being precompressed.
+     *
+     * @param siteDir Directory of an exported course site.
+     * @param paths Paths within the site of the files that were compressed.
+     *
+     * @throws IOException Thrown when a compressed copy can't be deleted.
+     */
+    public static void deleteCompressedFiles(File siteDir, Collection<String> paths) throws IOException {
+        for (String path : paths) {
+            Files.deleteIfExists(new File(siteDir, path + GZIP_EXT).toPath());
+        }
+    }
+
+    /**
+     * Stops the worker threads, after which this can no longer be used.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    // MAKES SURE sourceFile HAS AN UP TO DATE COMPRESSED COPY AND RETURNS
+    // THE HASH OF sourceFile, NOTE THIS IS WHAT THE WORKER THREADS DO. WE
+    // HASH WHAT'S IN THE FILE NOW RATHER THAN TRUSTING ITS MODIFIED TIME,
+    // SINCE PAGES ARE REWRITTEN IN THE SAME STAGING PATH ON EVERY EXPORT,
+    // OFTEN WITHIN THE SAME SECOND AND AT THE SAME SIZE
+    private String compressFile(File sourceFile, String oldHash, File previousGzFile) throws IOException {
+        byte[] sourceBytes = Files.readAllBytes(sourceFile.toPath());
+        String hash = ContentHash.hashBytes(sourceBytes);
+        File gzFile = new File(sourceFile.getPath() + GZIP_EXT);
+        if (hash.equals(oldHash)) {
+            if (gzFile.exists()) {
+                return hash;
+            }
+            // THE COPY IN THE SITE WE'RE REPLACING IS STILL GOOD
+            if ((previousGzFile != null) && previousGzFile.isFile()) {
+                SharedAssetStore.linkOrCopy(previousGzFile.toPath(), gzFile.toPath());
+                return hash;
+            }
+        }
+
+        // IF WE'VE ALREADY COMPRESSED THE SAME CONTENTS FOR ANOTHER SITE
+        // WE CAN USE THAT, OTHERWISE WE HAVE TO COMPRESS IT OURSELVES
+        byte[] gzBytes = compressedByHash.get(hash);
+        if (gzBytes == null) {
+            gzBytes = gzip(sourceBytes);
+            if ((gzBytes.length <= MAX_CACHED_GZIP_SIZE) && (compressedByHash.size() < MAX_CACHED_GZIPS)) {
+                compressedByHash.put(hash, gzBytes);
+            }
+        }
+
+        // WRITE IT TO A TEMPORARY FILE FIRST AND THEN MOVE IT INTO PLACE
+        // SO THAT NO ONE EVER SEES A PARTIALLY WRITTEN ONE. NOTE THAT WE
+        // DON'T USE Files.createTempFile SINCE ONLY WE COULD READ THAT
+        Path tempPath = new File(gzFile.getParentFile(),
+                "." + gzFile.getName() + "." + tempFileCounter.incrementAndGet() + ".tmp").toPath();
+        try {
+            Files.write(tempPath, gzBytes, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            Files.move(tempPath, gzFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+        return hash;
+    }
+
+    // COMPRESSES ALL OF data
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(COMPRESS_BUFFER_SIZE);
+        try (OutputStream os = new BestGZIPOutputStream(baos)) {
+            os.write(data);
+        }
+        return baos.toByteArray();
+    }
+
+    // ADDS THE PATHS WITHIN THE SITE OF ALL THE COMPRESSIBLE FILES IN dir
+    private void findCompressibleFiles(File dir, String pathPrefix, List<String> paths) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                findCompressibleFiles(file, pathPrefix + file.getName() + "/", paths);
+            } else if (isCompressible(file.getName())) {
+                paths.add(pathPrefix + file.getName());
+            }
+        }
+    }
+
+    // TESTS TO SEE IF A FILE WITH THIS NAME IS WORTH COMPRESSING
+    static boolean isCompressible(String fileName) {
+        String lowerName = fileName.toLowerCase(Locale.ENGLISH);
+        if (lowerName.equals(SiteManifest.MANIFEST_FILE)) {
+            return false;
+        }
+        for (String ext : COMPRESSIBLE_EXTS) {
+            if (lowerName.endsWith(ext)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A GZIP STREAM THAT COMPRESSES AS MUCH AS IT CAN, SINCE WE ONLY
+    // COMPRESS ONCE BUT THE RESULT GETS SENT OVER AND OVER
+    private static class BestGZIPOutputStream extends GZIPOutputStream {
+        BestGZIPOutputStream(OutputStream out) throws IOException {
+            super(out, COMPRESS_BUFFER_SIZE);
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+    }
+}
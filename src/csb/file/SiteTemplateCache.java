@@ -0,0 +1,125 @@
+package csb.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * This class keeps the parsed base templates used for exporting course
+ * pages so that each template file only has to be parsed once. Every
+ * request gets its own deep copy of the cached Document, which the
+ * exporter is then free to fill in. Note that a template will be parsed
+ * again if its file changes on disk, which we detect using the file's
+ * last modified time and size.
+ *
+ * @author Richard McKenna
+ */
+public class SiteTemplateCache {
+    // THIS TURNS OFF LAZY NODE EXPANSION, WHICH WOULD OTHERWISE MEAN
+    // THAT EVEN READING A CACHED DOCUMENT COULD CHANGE IT
+    static final String FEATURE_DEFER_NODE_EXPANSION = "http://apache.org/xml/features/dom/defer-node-expansion";
+
+    // THESE ARE ALL THE TEMPLATES WE'VE PARSED SO FAR, KEYED
+    // BY THE ABSOLUTE PATHS OF THEIR FILES
+    private final ConcurrentHashMap<String, CachedTemplate> templates;
+
+    // WE ONLY NEED ONE OF THESE FOR ALL OUR PARSING
+    private final DocumentBuilderFactory docFactory;
+
+    /**
+     * This constructor sets up an empty cache, templates will be
+     * loaded the first time they are asked for.
+     */
+    public SiteTemplateCache() {
+        templates = new ConcurrentHashMap();
+        docFactory = DocumentBuilderFactory.newInstance();
+        try {
+            docFactory.setFeature(FEATURE_DEFER_NODE_EXPANSION, false);
+        } catch (ParserConfigurationException pce) {
+            // NOT ALL PARSERS SUPPORT THIS, IN WHICH CASE THEY
+            // DON'T DEFER IN THE FIRST PLACE
+        }
+    }
+
+    /**
+     * Gets a fresh copy of the template found at templatePath, parsing
+     * the file only if it hasn't yet been cached or if it has changed
+     * since it was cached.
+     *
+     * @param templatePath Path to the base template file.
+     *
+     * @return A deep copy of the parsed template that the caller may
+     * modify as it sees fit.
+     *
+     * @throws IOException Thrown when the template file can't be read.
+     * @throws SAXException Thrown when the template file isn't well formed.
+     * @throws ParserConfigurationException Thrown when no parser can be made.
+     */
+    public Document getTemplate(String templatePath)
+            throws IOException, SAXException, ParserConfigurationException {
+        File templateFile = new File(templatePath);
+        String key = templateFile.getAbsolutePath();
+        long lastModified = templateFile.lastModified();
+        long length = templateFile.length();
+
+        // ONLY PARSE IF WE HAVE TO
+        CachedTemplate cached = templates.get(key);
+        if ((cached == null) || !cached.matches(lastModified, length)) {
+            cached = new CachedTemplate(parseTemplate(templateFile), lastModified, length);
+            templates.put(key, cached);
+        }
+
+        // AND GIVE BACK A COPY SO THE CACHED ONE STAYS CLEAN
+        return cached.copyDocument();
+    }
+
+    /**
+     * Removes all the cached templates, forcing them to be parsed
+     * again the next time they are needed.
+     */
+    public void clear() {
+        templates.clear();
+    }
+
+    // PARSES THE TEMPLATE FILE INTO A NEW Document
+    private Document parseTemplate(File templateFile)
+            throws IOException, SAXException, ParserConfigurationException {
+        // NOTE THAT BUILDERS AREN'T SAFE TO SHARE ACROSS THREADS
+        DocumentBuilder docBuilder;
+        synchronized (docFactory) {
+            docBuilder = docFactory.newDocumentBuilder();
+        }
+        return docBuilder.parse(templateFile);
+    }
+
+    // A PARSED TEMPLATE ALONG WITH WHAT WE NEED TO KNOW
+    // TO DECIDE IF IT'S STILL UP TO DATE
+    private static class CachedTemplate {
+        final Document doc;
+        final long lastModified;
+        final long length;
+
+        CachedTemplate(Document initDoc, long initLastModified, long initLength) {
+            doc = initDoc;
+            lastModified = initLastModified;
+            length = initLength;
+        }
+
+        boolean matches(long testLastModified, long testLength) {
+            return (lastModified == testLastModified) && (length == testLength);
+        }
+
+        // THE DOM ISN'T SAFE FOR CONCURRENT READS, SO ONLY
+        // ONE THREAD MAY COPY A GIVEN TEMPLATE AT A TIME
+        Document copyDocument() {
+            synchronized (doc) {
+                return (Document) doc.cloneNode(true);
+            }
+        }
+    }
+}
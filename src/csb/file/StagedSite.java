@@ -0,0 +1,346 @@
+package csb.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * This class lets a course site be exported into a new version directory
+ * next to the live one and then swapped in once it's complete, so that no
+ * one serving the live directory ever sees a half written site, or no
+ * site at all, even if the export fails or the program crashes part way
+ * through.
+ *
+ * The live site is a symbolic link to its current version, which is
+ * swapped by moving a new link over it in a single atomic step. Note that
+ * a site exported before we used links is a real directory, which has to
+ * be moved aside the first time, and that on a file system that can't
+ * make links each file is instead replaced atomically in the live
+ * directory, so only one file at a time is ever out of date.
+ *
+ * Staging a site holds a lock on a file next to it from begin until
+ * commit or abort, so that exports of the same site by different programs,
+ * like watch mode and the editor, never clean up each other's work.
+ *
+ * @author Richard McKenna
+ */
+public class StagedSite {
+    // EVERYTHING WE KEEP FOR A SITE IS HIDDEN NEXT TO THE LIVE ONE,
+    // SO THAT MOVING THINGS NEVER CROSSES FILE SYSTEMS
+    public static final String VERSION_SUFFIX = ".v";
+    public static final String LINK_SUFFIX = ".link";
+    public static final String LOCK_SUFFIX = ".lock";
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    // LEFT BEHIND BY EXPORTS FROM BEFORE WE USED LINKS
+    public static final String STAGING_SUFFIX = ".staging";
+    public static final String OLD_SUFFIX = ".old";
+
+    // THE SITE BEING REPLACED, THE VERSION REPLACING IT, AND THE
+    // FILE WE LOCK WHILE WE WORK ON THEM
+    File liveDir;
+    File stagingDir;
+    File lockFile;
+
+    // HELD FROM begin UNTIL commit OR abort
+    FileChannel lockChannel;
+
+    private StagedSite(File initLiveDir) {
+        liveDir = initLiveDir;
+        lockFile = getHiddenFile(LOCK_SUFFIX);
+    }
+
+    /**
+     * Starts staging a new version of the site in liveDir, first cleaning
+     * up after any earlier export of it that didn't finish. Note that the
+     * site stays locked until the staged site is committed or aborted.
+     *
+     * @param liveDir Directory of the live site, which may not exist yet.
+     *
+     * @return The staged site, with an empty staging directory.
+     *
+     * @throws IOException Thrown when the directories can't be set up.
+     */
+    public static StagedSite begin(File liveDir) throws IOException {
+        StagedSite site = new StagedSite(liveDir.getAbsoluteFile());
+        site.lock();
+        try {
+            site.cleanUp();
+            site.stagingDir = site.newVersionDir();
+            return site;
+        } catch (IOException | RuntimeException e) {
+            site.unlock();
+            throw e;
+        }
+    }
+
+    public File getLiveDir() {
+        return liveDir;
+    }
+
+    public File getStagingDir() {
+        return stagingDir;
+    }
+
+    /**
+     * Brings every file in the live site that isn't in the staged one
+     * over to the staged one, like pages an instructor added by hand,
+     * linking rather than copying where possible.
+     *
+     * @param excludedPaths Paths within the site that must not be brought
+     * over because the export decided they no longer belong.
+     *
+     * @throws IOException Thrown when a file can't be brought over.
+     */
+    public void carryOver(Set<String> excludedPaths) throws IOException {
+        if (!liveDir.isDirectory()) {
+            return;
+        }
+        // WALK THE VERSION THE LIVE LINK POINTS TO, NOT THE LINK ITSELF
+        Path livePath = liveDir.toPath().toRealPath();
+        Path stagingPath = stagingDir.toPath();
+        Files.walkFileTree(livePath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path relativePath = livePath.relativize(file);
+                Path target = stagingPath.resolve(relativePath);
+                if (!excludedPaths.contains(relativePath.toString().replace(File.separatorChar, '/'))
+                        && !Files.exists(target)) {
+                    Files.createDirectories(target.getParent());
+                    SharedAssetStore.linkOrCopy(file, target);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Swaps the staged site in for the live one, deletes the version it
+     * replaced and unlocks the site.
+     *
+     * @throws IOException Thrown when the sites can't be swapped, in which
+     * case the live site is left as it was if at all possible.
+     */
+    public void commit() throws IOException {
+        try {
+            Path livePath = liveDir.toPath();
+            Path linkPath = getHiddenFile(LINK_SUFFIX).toPath();
+            Files.deleteIfExists(linkPath);
+            try {
+                Files.createSymbolicLink(linkPath, stagingDir.toPath().getFileName());
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                // NO LINKS HERE, SO REPLACE THE LIVE FILES ONE AT A TIME
+                replaceFiles();
+                deleteRecursively(stagingDir);
+                return;
+            }
+
+            // A SITE FROM BEFORE WE USED LINKS HAS TO BE MOVED ASIDE FIRST,
+            // SINCE NOTHING CAN BE MOVED OVER A DIRECTORY
+            Path oldVersionPath = null;
+            if (Files.isDirectory(livePath, LinkOption.NOFOLLOW_LINKS)) {
+                oldVersionPath = newVersionDir().toPath();
+                Files.delete(oldVersionPath);
+                Files.move(livePath, oldVersionPath, StandardCopyOption.ATOMIC_MOVE);
+            } else if (Files.isSymbolicLink(livePath)) {
+                oldVersionPath = livePath.toRealPath();
+            }
+            try {
+                Files.move(linkPath, livePath, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ioe) {
+                // PUT THE OLD ONE BACK SO WE'RE STILL SERVING SOMETHING
+                if ((oldVersionPath != null) && !Files.exists(livePath, LinkOption.NOFOLLOW_LINKS)) {
+                    Files.move(oldVersionPath, livePath, StandardCopyOption.ATOMIC_MOVE);
+                }
+                Files.deleteIfExists(linkPath);
+                throw ioe;
+            }
+            if (oldVersionPath != null) {
+                try {
+                    deleteRecursively(oldVersionPath.toFile());
+                } catch (IOException ioe) {
+                    // THE NEW SITE IS LIVE, AND THE NEXT EXPORT CLEANS THIS UP
+                }
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Throws away the staged site, leaving the live one as it was, and
+     * unlocks the site.
+     */
+    public void abort() {
+        try {
+            deleteRecursively(stagingDir);
+        } catch (IOException ioe) {
+            // IT WILL BE CLEANED UP THE NEXT TIME THIS SITE IS EXPORTED
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Cleans up after any staged export of the site in liveDir that didn't
+     * finish, putting the old site back if it was left out of place. Note
+     * that this waits for any export of the site that is underway.
+     *
+     * @param liveDir Directory of the live site, which may not exist yet.
+     *
+     * @throws IOException Thrown when the directories can't be cleaned up.
+     */
+    public static void recover(File liveDir) throws IOException {
+        StagedSite site = new StagedSite(liveDir.getAbsoluteFile());
+        site.lock();
+        try {
+            site.cleanUp();
+        } finally {
+            site.unlock();
+        }
+    }
+
+    // WAITS UNTIL NO ONE ELSE, IN THIS PROGRAM OR ANOTHER, IS WORKING ON
+    // THIS SITE. NOTE THAT THREADS IN THIS PROGRAM MUST ALSO TAKE TURNS
+    // SOME OTHER WAY, SINCE A PROGRAM CAN'T WAIT ON ITS OWN FILE LOCK
+    private void lock() throws IOException {
+        Files.createDirectories(lockFile.getParentFile().toPath());
+        FileChannel channel = FileChannel.open(lockFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            channel.lock();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        lockChannel = channel;
+    }
+
+    // CLOSING THE CHANNEL RELEASES ITS LOCK
+    private void unlock() {
+        if (lockChannel != null) {
+            try {
+                lockChannel.close();
+            } catch (IOException ioe) {
+                // THE LOCK IS RELEASED ANYWAY WHEN WE EXIT
+            }
+            lockChannel = null;
+        }
+    }
+
+    // DELETES EVERY VERSION THE LIVE SITE DOESN'T USE, WHICH ARE ALL LEFT
+    // BY EXPORTS THAT DIDN'T FINISH SINCE WE HOLD THE LOCK
+    private void cleanUp() throws IOException {
+        // IF AN OLD STYLE EXPORT DIED BETWEEN ITS TWO MOVES,
+        // THE OLD SITE IS STILL THE GOOD ONE
+        File oldDir = getHiddenFile(OLD_SUFFIX);
+        if (!Files.exists(liveDir.toPath(), LinkOption.NOFOLLOW_LINKS) && oldDir.exists()) {
+            Files.move(oldDir.toPath(), liveDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        deleteRecursively(oldDir);
+        deleteRecursively(getHiddenFile(STAGING_SUFFIX));
+        Files.deleteIfExists(getHiddenFile(LINK_SUFFIX).toPath());
+
+        Path livePath = liveDir.toPath();
+        Path liveVersionPath = Files.isSymbolicLink(livePath) && Files.exists(livePath)
+                ? livePath.toRealPath() : null;
+        String versionPrefix = "." + liveDir.getName() + VERSION_SUFFIX;
+        try (DirectoryStream<Path> versions = Files.newDirectoryStream(
+                liveDir.getParentFile().toPath(), versionPrefix + "*")) {
+            for (Path version : versions) {
+                if ((liveVersionPath == null) || !version.toRealPath().equals(liveVersionPath)) {
+                    deleteRecursively(version.toFile());
+                }
+            }
+        }
+    }
+
+    // PUTS EVERY STAGED FILE INTO THE LIVE DIRECTORY BY WAY OF A TEMPORARY
+    // FILE AND AN ATOMIC MOVE, AND THEN DELETES WHAT'S NO LONGER STAGED
+    private void replaceFiles() throws IOException {
+        Path livePath = liveDir.toPath();
+        Path stagingPath = stagingDir.toPath();
+        HashSet<Path> stagedPaths = new HashSet();
+        Files.createDirectories(livePath);
+        Files.walkFileTree(stagingPath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path relativePath = stagingPath.relativize(file);
+                Path target = livePath.resolve(relativePath);
+                stagedPaths.add(relativePath);
+                Files.createDirectories(target.getParent());
+                Path tempPath = target.resolveSibling("." + target.getFileName() + TEMP_SUFFIX);
+                try {
+                    Files.copy(file, tempPath, StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(tempPath, target,
+                            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(tempPath);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Files.walkFileTree(livePath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!stagedPaths.contains(livePath.relativize(file))) {
+                    Files.delete(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // MAKES AN EMPTY DIRECTORY FOR A NEW VERSION OF THE SITE. NOTE THAT
+    // WE HOLD THE LOCK, SO NO ONE ELSE IS MAKING VERSIONS OF IT
+    private File newVersionDir() throws IOException {
+        for (long version = System.currentTimeMillis(); ; version++) {
+            File versionDir = getHiddenFile(VERSION_SUFFIX + version);
+            if (!Files.exists(versionDir.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+                Files.createDirectory(versionDir.toPath());
+                return versionDir;
+            }
+        }
+    }
+
+    // THE HIDDEN FILE NEXT TO THE LIVE SITE WITH THE GIVEN SUFFIX
+    private File getHiddenFile(String suffix) {
+        return new File(liveDir.getParentFile(), "." + liveDir.getName() + suffix);
+    }
+
+    // DELETES dir AND EVERYTHING IN IT, IF IT EXISTS. NOTE THAT A LINK IS
+    // DELETED WITHOUT TOUCHING WHAT IT LINKS TO
+    static void deleteRecursively(File dir) throws IOException {
+        if (!Files.exists(dir.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path subDir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                Files.delete(subDir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,51 @@
+package csb.file;
+
+import java.io.IOException;
+
+/**
+ * This exception is thrown when a course is saved over a version other
+ * than the one it was based on, like when two people edit the same
+ * course at once and the second one saves. Nothing is saved, and the
+ * course has to be gotten again, and the edit redone, before it can be.
+ *
+ * @author Richard McKenna
+ */
+public class StaleCourseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    // THE COURSE THAT WASN'T SAVED
+    final String courseKey;
+
+    // THE VERSION THE EDIT WAS BASED ON AND THE ONE ACTUALLY SAVED
+    final long expectedVersion;
+    final long currentVersion;
+
+    /**
+     * This constructor records which course couldn't be saved and why.
+     *
+     * @param initCourseKey The course, like CSE219.
+     * @param initExpectedVersion The version the edit was based on.
+     * @param initCurrentVersion The version that's actually saved.
+     */
+    public StaleCourseException(String initCourseKey, long initExpectedVersion, long initCurrentVersion) {
+        super((initExpectedVersion == CourseStore.NEW_COURSE)
+                ? initCourseKey + " already exists"
+                : initCourseKey + " has changed since version " + initExpectedVersion
+                        + " and is now version " + initCurrentVersion);
+        courseKey = initCourseKey;
+        expectedVersion = initExpectedVersion;
+        currentVersion = initCurrentVersion;
+    }
+
+    public String getCourseKey() {
+        return courseKey;
+    }
+
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    public long getCurrentVersion() {
+        return currentVersion;
+    }
+}
@@ -102,6 +102,10 @@ public class CSB_GUI implements CourseDataView {
     BorderPane workspacePane;
     boolean workspaceActivated;
 
+    // THE WORKSPACE ISN'T MADE UNTIL IT'S FIRST NEEDED, SO WE KEEP
+    // WHAT IT NEEDS UNTIL THEN
+    ArrayList<String> workspaceSubjects;
+
     // WE'LL PUT THIS IN THE TOP OF THE WORKSPACE, IT WILL
     // HOLD TWO OTHER PANES FULL OF CONTROLS AS WELL AS A LABEL
     VBox topWorkspacePane;
@@ -226,12 +230,17 @@ public class CSB_GUI implements CourseDataView {
     }
 
     /**
-     * Mutator method for the course file manager.
+     * Mutator method for the course file manager. Note that the window may
+     * be up before the course files are ready, in which case the file
+     * controls start working once this is called.
      *
      * @param initCourseFileManager The CourseFileManager to be used by this UI.
      */
     public void setCourseFileManager(CourseFileManager initCourseFileManager) {
         courseFileManager = initCourseFileManager;
+        if (newCourseButton != null) {
+            initFileController();
+        }
     }
 
     /**
@@ -254,9 +263,10 @@ public class CSB_GUI implements CourseDataView {
         // INIT THE TOOLBAR
         initFileToolbar();
 
-        // INIT THE CENTER WORKSPACE CONTROLS BUT DON'T ADD THEM
-        // TO THE WINDOW YET
-        initWorkspace(subjects);
+        // THE CENTER WORKSPACE CONTROLS AREN'T MADE UNTIL THE USER
+        // FIRST CREATES OR LOADS A COURSE, SO THE WINDOW COMES UP SOONER
+        workspaceSubjects = subjects;
+        workspaceActivated = false;
 
         // NOW SETUP THE EVENT HANDLERS
         initEventHandlers();
@@ -271,6 +281,12 @@ public class CSB_GUI implements CourseDataView {
      */
     public void activateWorkspace() {
         if (!workspaceActivated) {
+            // MAKE THE WORKSPACE IF THIS IS THE FIRST TIME IT'S NEEDED
+            if (workspacePane == null) {
+                initWorkspace(workspaceSubjects);
+                initWorkspaceEventHandlers();
+            }
+
             // PUT THE WORKSPACE IN THE GUI
             csbPane.setCenter(workspacePane);
             workspaceActivated = true;
@@ -352,6 +368,16 @@ public class CSB_GUI implements CourseDataView {
         
     }
 
+    /**
+     * This method turns all the file controls off, or back to however they
+     * were, like while waiting for saves to be written before going on.
+     *
+     * @param disabled Whether the file controls should all be off.
+     */
+    public void disableFileControls(boolean disabled) {
+        fileToolbarPane.setDisable(disabled);
+    }
+
     /**
      * This function loads all the values currently in the user interface
      * into the course argument.
@@ -408,7 +434,7 @@ public class CSB_GUI implements CourseDataView {
     }
 
     // CREATES AND SETS UP ALL THE CONTROLS TO GO IN THE APP WORKSPACE
-    private void initWorkspace(ArrayList<String> subjects) throws IOException {
+    private void initWorkspace(ArrayList<String> subjects) {
         // THE WORKSPACE HAS A FEW REGIONS, THIS 
         // IS FOR BASIC COURSE EDITING CONTROLS
         initBasicCourseInfoControls(subjects);
@@ -456,7 +482,7 @@ public class CSB_GUI implements CourseDataView {
     }
 
     // INITIALIZES THE CONTROLS IN THE LEFT HALF OF THE TOP WORKSPACE
-    private void initBasicCourseInfoControls(ArrayList<String> subjects) throws IOException {
+    private void initBasicCourseInfoControls(ArrayList<String> subjects) {
         // THESE ARE THE CONTROLS FOR THE BASIC SCHEDULE PAGE HEADER INFO
         // WE'LL ARRANGE THEM IN THE LEFT SIDE IN A VBox
         courseInfoPane = new GridPane();
@@ -585,8 +611,12 @@ public class CSB_GUI implements CourseDataView {
 
     // INIT ALL THE EVENT HANDLERS
     private void initEventHandlers() throws IOException {
-        // FIRST THE FILE CONTROLS
-        fileController = new FileController(primaryStage, courseFileManager, siteExporter);
+        // FIRST THE FILE CONTROLS, WHICH WAIT FOR THE COURSE FILES
+        if (courseFileManager != null) {
+            initFileController();
+        } else {
+            newCourseButton.setDisable(true);
+        }
         newCourseButton.setOnAction(e -> {
             fileController.handleNewCourseRequest(this);
         });
@@ -604,10 +634,24 @@ public class CSB_GUI implements CourseDataView {
             fileController.handleExportCourseRequest(this);
         });
         exitButton.setOnAction(e -> {
+            if (fileController == null) {
+                // THERE'S NOTHING TO SAVE YET
+                System.exit(0);
+            }
             fileController.handleExitRequest(this);
         });
+    }
+
+    // MAKES THE CONTROLLER FOR THE FILE CONTROLS ONCE WE HAVE
+    // SOMETHING TO READ AND WRITE COURSES WITH
+    private void initFileController() {
+        fileController = new FileController(primaryStage, courseFileManager, siteExporter);
+        newCourseButton.setDisable(false);
+    }
 
-        // THEN THE COURSE EDITING CONTROLS
+    // INIT THE EVENT HANDLERS FOR THE COURSE EDITING CONTROLS, WHICH IS
+    // DONE ONCE THEY'VE BEEN MADE
+    private void initWorkspaceEventHandlers() {
         courseController = new CourseEditController();
         courseSubjectComboBox.setOnAction(e -> {
             courseController.handleCourseChangeRequest(this);
@@ -717,7 +761,7 @@ public class CSB_GUI implements CourseDataView {
     }
 
     // INIT A COMBO BOX AND PUT IT IN A GridPane
-    private ComboBox initGridComboBox(GridPane container, int col, int row, int colSpan, int rowSpan) throws IOException {
+    private ComboBox initGridComboBox(GridPane container, int col, int row, int colSpan, int rowSpan) {
         ComboBox comboBox = new ComboBox();
         container.add(comboBox, col, row, colSpan, rowSpan);
         return comboBox;
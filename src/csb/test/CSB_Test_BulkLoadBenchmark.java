@@ -0,0 +1,182 @@
+package csb.test;
+
+import csb.data.Course;
+import csb.data.CoursePage;
+import csb.data.Instructor;
+import csb.data.Subject;
+import csb.file.BinaryCourseFileManager;
+import csb.file.BulkCourseLoader;
+import csb.file.BulkCourseLoader.LoadedCourse;
+import csb.file.JsonCourseFileManager;
+import java.io.File;
+import java.nio.file.Files;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is used to see how fast our bulk course loader is. It makes
+ * up a corpus of courses, saves it as JSON files, as binary files and as
+ * a pack, and then times loading all of it each way, along with loading
+ * the JSON files one at a time the way the rest of the program does. It
+ * also checks that every way loads the same courses.
+ *
+ * @author Richard McKenna
+ */
+public class CSB_Test_BulkLoadBenchmark {
+    // HOW MANY COURSES TO MAKE UP, UNLESS SAID OTHERWISE ON THE COMMAND LINE
+    static int corpusSize = 10000;
+
+    // EACH WAY OF LOADING IS TIMED THIS MANY TIMES, AND THE BEST ONE COUNTS
+    static int rounds = 3;
+
+    /**
+     * This test application starts here.
+     *
+     * @param args The number of courses to make up, if given.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            corpusSize = Integer.parseInt(args[0]);
+        }
+        File corpusDir = Files.createTempDirectory("csb_bulk").toFile();
+        File jsonDir = new File(corpusDir, "json");
+        File binaryDir = new File(corpusDir, "binary");
+        jsonDir.mkdir();
+        binaryDir.mkdir();
+        String packPath = new File(corpusDir, "courses.pack").getPath();
+
+        // MAKE UP THE CORPUS
+        ArrayList<Course> courses = new ArrayList();
+        ArrayList<File> jsonFiles = new ArrayList();
+        JsonCourseFileManager jsonIO = new JsonCourseFileManager();
+        BinaryCourseFileManager binaryIO = new BinaryCourseFileManager();
+        for (int i = 0; i < corpusSize; i++) {
+            Course course = makeCourse(i);
+            String name = "" + course.getSubject() + course.getNumber();
+            File jsonFile = new File(jsonDir, name + ".json");
+            jsonIO.saveCourse(course, jsonFile.getPath());
+            binaryIO.saveCourse(course, new File(binaryDir, name + BinaryCourseFileManager.BINARY_EXT).getPath());
+            courses.add(course);
+            jsonFiles.add(jsonFile);
+        }
+        BulkCourseLoader.writePack(courses, packPath);
+        System.out.println(corpusSize + " courses in " + corpusDir);
+
+        // NOW TIME EACH WAY OF LOADING THEM
+        BulkCourseLoader loader = new BulkCourseLoader();
+        BulkCourseLoader mappingLoader = new BulkCourseLoader(Runtime.getRuntime().availableProcessors(), 0);
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long startTime = System.nanoTime();
+            for (File jsonFile : jsonFiles) {
+                jsonIO.loadCourse(new Course(new Instructor("", "")), jsonFile.getPath());
+            }
+            best = Math.min(best, System.nanoTime() - startTime);
+        }
+        report("JSON, ONE AT A TIME", best);
+
+        int failures = 0;
+        failures += time("JSON, BULK", loader, jsonDir, courses);
+        failures += time("BINARY, BULK", loader, binaryDir, courses);
+        failures += time("BINARY, BULK, ALL MAPPED", mappingLoader, binaryDir, courses);
+
+        best = Long.MAX_VALUE;
+        List<Course> packed = null;
+        for (int round = 0; round < rounds; round++) {
+            long startTime = System.nanoTime();
+            packed = loader.loadPack(packPath);
+            best = Math.min(best, System.nanoTime() - startTime);
+        }
+        report("PACK", best);
+        failures += compare("PACK", packed, courses);
+
+        deleteAll(corpusDir);
+        System.out.println(failures + " courses loaded wrong");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // TIMES loader LOADING ALL THE COURSES IN dir, AND RETURNS HOW MANY
+    // OF THEM IT GOT WRONG
+    static int time(String description, BulkCourseLoader loader, File dir, List<Course> expected) throws Exception {
+        long best = Long.MAX_VALUE;
+        List<LoadedCourse> loaded = null;
+        for (int round = 0; round < rounds; round++) {
+            long startTime = System.nanoTime();
+            loaded = loader.loadDirectory(dir.getPath());
+            best = Math.min(best, System.nanoTime() - startTime);
+        }
+        report(description, best);
+        ArrayList<Course> loadedCourses = new ArrayList();
+        for (LoadedCourse loadedCourse : loaded) {
+            if (!loadedCourse.isLoaded()) {
+                System.out.println(loadedCourse.getError().getMessage());
+            }
+            loadedCourses.add(loadedCourse.getCourse());
+        }
+        return compare(description, loadedCourses, sortedByFileName(expected));
+    }
+
+    static void report(String description, long nanos) {
+        System.out.printf("%-28s %8.1f ms %10.0f courses/s%n", description, nanos / 1e6, corpusSize / (nanos / 1e9));
+    }
+
+    static int compare(String description, List<Course> loaded, List<Course> expected) {
+        int failures = 0;
+        for (int i = 0; i < expected.size(); i++) {
+            Course course = (i < loaded.size()) ? loaded.get(i) : null;
+            if ((course == null) || !describe(course).equals(describe(expected.get(i)))) {
+                failures++;
+            }
+        }
+        if (failures > 0) {
+            System.out.println(description + ": " + failures + " courses differ");
+        }
+        return failures;
+    }
+
+    // loadDirectory SORTS BY FILE NAME, SO CSE10 COMES BEFORE CSE2
+    static List<Course> sortedByFileName(List<Course> courses) {
+        ArrayList<Course> sorted = new ArrayList(courses);
+        sorted.sort((a, b) -> ("" + a.getSubject() + a.getNumber()).compareTo("" + b.getSubject() + b.getNumber()));
+        return sorted;
+    }
+
+    static Course makeCourse(int i) {
+        Course course = new Course(new Instructor("Instructor " + i, "http://www.example.edu/~i" + i));
+        course.setSubject(Subject.values()[i % Subject.values().length]);
+        course.setNumber(100 + i);
+        course.setTitle("Course Number " + i + (((i % 7) == 0) ? " \u00e9t\u00e9" : ""));
+        course.setSemester(((i % 2) == 0) ? "Fall" : "Spring");
+        course.setYear(2000 + (i % 30));
+        for (CoursePage page : CoursePage.values()) {
+            if (((i + page.ordinal()) % 3) != 0) {
+                course.addPage(page);
+            }
+        }
+        course.addLectureDay(DayOfWeek.values()[i % 5]);
+        course.addLectureDay(DayOfWeek.values()[(i + 2) % 5]);
+        LocalDate startingMonday = LocalDate.of(2015, 1, 5).plusWeeks(i % 100);
+        course.setScheduleDates(startingMonday, startingMonday.plusWeeks(14).plusDays(4));
+        return course;
+    }
+
+    static String describe(Course course) {
+        return course.getSubject() + " " + course.getNumber() + " " + course.getTitle() + " "
+                + course.getSemester() + " " + course.getYear() + " " + course.getPages() + " "
+                + course.getLectureDays() + " " + course.getInstructor().getName() + " "
+                + course.getInstructor().getHomepageURL() + " " + course.getStartingMonday() + " "
+                + course.getEndingFriday();
+    }
+
+    static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,166 @@
+package csb.test;
+
+import csb.data.Course;
+import csb.data.CoursePage;
+import csb.data.Instructor;
+import csb.data.Subject;
+import csb.file.CourseSiteExporter;
+import csb.file.CourseSiteExporter.RenderingEngine;
+import csb.file.JsonCourseFileManager;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class is used to test that our compiled template rendering engine
+ * exports exactly the same pages as our DOM rendering engine, and to see
+ * how much faster it is. It exports every page of every course in
+ * data/courses, along with a bunch of made up courses with unusual data,
+ * using both engines, and compares the pages byte for byte.
+ *
+ * @author Richard McKenna
+ */
+public class CSB_Test_CompiledTemplateParity {
+    static String basePath = "./sites/base/";
+    static String coursesPath = "./data/courses/";
+
+    // HOW MANY PAGES TO EXPORT WITH EACH ENGINE WHEN TIMING THEM
+    static int timingPages = 5000;
+
+    /**
+     * This test application starts here.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) throws Exception {
+        ArrayList<Course> testCourses = loadTestCourses();
+        File outputDir = Files.createTempDirectory("csb_parity").toFile();
+        File domDir = new File(outputDir, "dom");
+        File compiledDir = new File(outputDir, "compiled");
+        domDir.mkdir();
+        compiledDir.mkdir();
+        CourseSiteExporter domExporter = makeExporter(outputDir, RenderingEngine.DOM);
+        CourseSiteExporter compiledExporter = makeExporter(outputDir, RenderingEngine.COMPILED);
+
+        // FIRST MAKE SURE BOTH ENGINES PRODUCE THE SAME PAGES
+        int failures = 0;
+        int pagesTested = 0;
+        for (int i = 0; i < testCourses.size(); i++) {
+            Course course = testCourses.get(i);
+            for (CoursePage page : CoursePage.values()) {
+                File domPage = exportPage(domExporter, course, page, domDir, i);
+                File compiledPage = exportPage(compiledExporter, course, page, compiledDir, i);
+                boolean same = Arrays.equals(Files.readAllBytes(domPage.toPath()),
+                        Files.readAllBytes(compiledPage.toPath()));
+                System.out.println((same ? "SAME      " : "DIFFERENT ") + page + " " + describe(course));
+                pagesTested++;
+                if (!same) {
+                    failures++;
+                }
+            }
+        }
+        System.out.println(failures + " of " + pagesTested + " pages differ");
+
+        // THEN SEE HOW FAST EACH ONE IS
+        Course timingCourse = testCourses.get(0);
+        System.out.println("DOM:      " + timeEngine(domExporter, timingCourse, domDir) + " pages/s");
+        System.out.println("COMPILED: " + timeEngine(compiledExporter, timingCourse, compiledDir) + " pages/s");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // MAKES AN EXPORTER THAT USES THE engine ENGINE
+    static CourseSiteExporter makeExporter(File outputDir, RenderingEngine engine) {
+        CourseSiteExporter exporter = new CourseSiteExporter(basePath, outputDir.getPath());
+        exporter.setRenderingEngine(engine);
+        return exporter;
+    }
+
+    // EXPORTS ONE PAGE FOR course INTO ITS OWN DIRECTORY
+    static File exportPage(CourseSiteExporter exporter, Course course, CoursePage page, File dir, int index) throws IOException {
+        File pageDir = new File(dir, "" + index);
+        pageDir.mkdir();
+        exporter.exportPage(course, page, pageDir.getPath());
+        return new File(pageDir, exporter.getPageFileName(page));
+    }
+
+    // EXPORTS THE SAME PAGE OVER AND OVER AND RETURNS HOW MANY PER SECOND
+    static long timeEngine(CourseSiteExporter exporter, Course course, File dir) throws IOException {
+        // WARM UP FIRST SO WE'RE NOT TIMING CLASS LOADING AND THE LIKE
+        for (int i = 0; i < timingPages / 5; i++) {
+            exporter.exportSchedulePage(course, dir.getPath());
+        }
+        long startTime = System.nanoTime();
+        for (int i = 0; i < timingPages; i++) {
+            exporter.exportSchedulePage(course, dir.getPath());
+        }
+        long elapsed = System.nanoTime() - startTime;
+        return (timingPages * 1000000000L) / Math.max(1, elapsed);
+    }
+
+    // LOADS ALL THE COURSES WE'LL BE TESTING WITH
+    static ArrayList<Course> loadTestCourses() {
+        ArrayList<Course> courses = new ArrayList();
+
+        // A TYPICAL COURSE WITH EVERY PAGE
+        courses.add(makeCourse("Computer Science III", "Richard McKenna", "http://www.cs.stonybrook.edu/~richard",
+                CoursePage.values()));
+
+        // ALL THE COURSES WE HAVE FILES FOR
+        JsonCourseFileManager fileManager = new JsonCourseFileManager();
+        File[] courseFiles = new File(coursesPath).listFiles();
+        if (courseFiles != null) {
+            Arrays.sort(courseFiles);
+            for (File courseFile : courseFiles) {
+                Course course = new Course(new Instructor("", ""));
+                try {
+                    fileManager.loadCourse(course, courseFile.getPath());
+                    courses.add(course);
+                } catch (Exception e) {
+                    System.out.println("SKIPPING  " + courseFile.getName() + ": " + e);
+                }
+            }
+        }
+
+        // AND THEN ALL SORTS OF UNUSUAL ONES
+        courses.add(makeCourse("Tom & \"Jerry\" <b>é</b> ü € ☃", "A & B <i>",
+                "http://x.com/?a=1&b=\"2\"&c=é", CoursePage.values()));
+        courses.add(makeCourse("", "", "", CoursePage.values()));
+        courses.add(makeCourse("   ", " ", "http://x.com", CoursePage.SCHEDULE));
+        courses.add(makeCourse("Line\nbreaks\r\nand\ttabs", "Name\n", "http://x.com/a b", CoursePage.values()));
+        courses.add(makeCourse("Emoji 😀 and control \u0001\u0085", "😀", "http://x.com/😀"));
+        courses.add(makeCourse("No pages at all", "Someone", "http://x.com"));
+        courses.add(makeCourse("Pages out of order", "Someone", "http://x.com",
+                CoursePage.PROJECTS, CoursePage.INDEX, CoursePage.HWS));
+        Course noWeeks = makeCourse("No weeks", "Someone", "http://x.com", CoursePage.values());
+        noWeeks.setScheduleDates(LocalDate.of(2016, 9, 5), LocalDate.of(2016, 9, 2));
+        courses.add(noWeeks);
+        Course oneDay = makeCourse("One day", "Someone", "http://x.com", CoursePage.SCHEDULE);
+        oneDay.setScheduleDates(LocalDate.of(2016, 9, 5), LocalDate.of(2016, 9, 5));
+        courses.add(oneDay);
+        return courses;
+    }
+
+    // MAKES A TEST COURSE
+    static Course makeCourse(String title, String instructorName, String instructorURL, CoursePage... pages) {
+        Course course = new Course(new Instructor(instructorName, instructorURL));
+        course.setSubject(Subject.CSE);
+        course.setNumber(219);
+        course.setTitle(title);
+        course.setSemester("Fall");
+        course.setYear(2016);
+        course.setScheduleDates(LocalDate.of(2016, 8, 29), LocalDate.of(2016, 12, 9));
+        for (CoursePage page : pages) {
+            course.addPage(page);
+        }
+        return course;
+    }
+
+    // A SHORT DESCRIPTION OF A TEST COURSE FOR OUR OUTPUT
+    static String describe(Course course) {
+        String title = course.getTitle().replaceAll("\\p{Cntrl}", "?");
+        return course.getSubject() + " " + course.getNumber() + " \"" + title + "\" " + course.getPages();
+    }
+}
@@ -0,0 +1,95 @@
+package csb.test;
+
+import csb.data.Course;
+import csb.data.Instructor;
+import csb.data.Subject;
+import csb.file.CourseSaveService;
+import csb.file.JsonCourseFileManager;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * This class is used to test that our CourseSaveService never loses track
+ * of a save that failed. It saves through a file manager that fails at
+ * once, so the save is over before anyone flushes, and then checks that
+ * flushing still reports it, but only once.
+ *
+ * @author Richard McKenna
+ */
+public class CSB_Test_SaveServiceFailures {
+    // HOW MANY CHECKS DIDN'T COME OUT THE WAY THEY SHOULD
+    static int failures = 0;
+
+    /**
+     * This test application starts here.
+     *
+     * @param args Not used.
+     */
+    public static void main(String[] args) throws Exception {
+        FailingCourseFileManager courseIO = new FailingCourseFileManager();
+        Course course = new Course(new Instructor("", ""));
+        course.setSubject(Subject.CSE);
+        course.setNumber(219);
+
+        // A SAVE THAT FAILS BEFORE flush IS CALLED
+        CourseSaveService saveService = new CourseSaveService(courseIO, Runnable::run);
+        waitFor(saveService.saveCourse(course));
+        check("flush reports a save that already failed", flushFails(saveService));
+        check("flush reports it only once", !flushFails(saveService));
+
+        // THE SAME, BUT FOUND OUT WITHOUT WAITING
+        waitFor(saveService.saveCourse(course));
+        check("whenFlushed reports a save that already failed", !waitFor(saveService.whenFlushed()));
+        check("whenFlushed reports it only once", waitFor(saveService.whenFlushed()));
+
+        // A FAILED SAVE THAT'S SAVED AGAIN SUCCESSFULLY ISN'T A FAILURE ANYMORE
+        waitFor(saveService.saveCourse(course));
+        courseIO.failing = false;
+        check("a later save of the same course replaces the failure",
+                waitFor(saveService.saveCourse(course)) && !flushFails(saveService));
+        saveService.shutdown();
+
+        System.out.println(failures + " checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // WAITS FOR future, RETURNING WHETHER IT COMPLETED NORMALLY
+    static boolean waitFor(CompletableFuture<Void> future) {
+        try {
+            future.join();
+            return true;
+        } catch (CompletionException ce) {
+            return false;
+        }
+    }
+
+    // RETURNS WHETHER FLUSHING saveService THREW
+    static boolean flushFails(CourseSaveService saveService) {
+        try {
+            saveService.flush();
+            return false;
+        } catch (IOException ioe) {
+            return true;
+        }
+    }
+
+    static void check(String description, boolean passed) {
+        System.out.println((passed ? "PASSED: " : "FAILED: ") + description);
+        if (!passed) {
+            failures++;
+        }
+    }
+
+    // SAVES NOTHING, FAILING AT ONCE UNTIL TOLD OTHERWISE
+    static class FailingCourseFileManager extends JsonCourseFileManager {
+        volatile boolean failing = true;
+
+        @Override
+        public void saveCourse(Course courseToSave) throws IOException {
+            if (failing) {
+                throw new IOException("Read-only file system");
+            }
+        }
+    }
+}